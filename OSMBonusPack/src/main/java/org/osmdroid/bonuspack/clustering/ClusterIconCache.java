@@ -0,0 +1,81 @@
+package org.osmdroid.bonuspack.clustering;
+
+import android.graphics.Bitmap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU memory cache of cluster icons, so that icons are not drawn again for each clustering. <br>
+ * The key identifies the icon: the label drawn on it, the clusterer and its icon, and the text settings used to draw it.
+ * A cache can be shared by several clusterers, and used by background clustering.
+ * Cached bitmaps are shared: they must not be modified nor recycled.
+ */
+public class ClusterIconCache {
+
+	protected static ClusterIconCache mDefault;
+
+	protected LinkedHashMap<String, Bitmap> mCacheMap;
+	protected int mCapacity;
+
+	public ClusterIconCache(int maxItems) {
+		mCapacity = maxItems;
+		mCacheMap = new LinkedHashMap<String, Bitmap>(maxItems+1, 1.1f, true){
+			private static final long serialVersionUID = 5734512338754930812L;
+			@Override protected boolean removeEldestEntry(Map.Entry<String, Bitmap> eldest) {
+				return size() > mCapacity;
+			}
+		};
+	}
+
+	/** @return the cache shared by all clusterers, by default */
+	public static synchronized ClusterIconCache getDefault(){
+		if (mDefault == null)
+			mDefault = new ClusterIconCache(64);
+		return mDefault;
+	}
+
+	/** @return the icon, or null if not in the cache */
+	public Bitmap get(String key){
+		synchronized(mCacheMap){
+			return mCacheMap.get(key);
+		}
+	}
+
+	public void put(String key, Bitmap icon){
+		synchronized(mCacheMap){
+			mCacheMap.put(key, icon);
+		}
+	}
+
+	public void clear(){
+		synchronized(mCacheMap){
+			mCacheMap.clear();
+		}
+	}
+
+	public int size(){
+		synchronized(mCacheMap){
+			return mCacheMap.size();
+		}
+	}
+
+	/**
+	 * @param count number of markers
+	 * @return a label with the count rounded down to a power of 10 above 10: "10+", "100+", "1k+", "10k+", "100k+", "1M+"...
+	 * The count itself below 10.
+	 */
+	public static String bucketLabel(int count){
+		if (count < 10)
+			return String.valueOf(count);
+		int bucket = 10;
+		while (bucket <= Integer.MAX_VALUE/10 && bucket*10 <= count)
+			bucket *= 10;
+		if (bucket >= 1000000)
+			return (bucket/1000000) + "M+";
+		else if (bucket >= 1000)
+			return (bucket/1000) + "k+";
+		else
+			return bucket + "+";
+	}
+}
@@ -0,0 +1,132 @@
+package org.osmdroid.bonuspack.clustering;
+
+import android.content.Context;
+
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.overlay.Marker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Radius-based clustering, in linear time. <br>
+ * Same principle as RadiusMarkerClusterer: markers are taken in order, and each marker not yet clustered
+ * creates a cluster with all the remaining markers within the radius. <br>
+ * But distances are computed in projected pixel space, and markers are hashed in a grid of cells of the radius size,
+ * so that the neighbours of a marker are only searched in the 9 cells around it.
+ * Clustering is then proportional to the number of markers, instead of quadratic.
+ */
+public class GridRadiusMarkerClusterer extends RadiusMarkerClusterer {
+
+	/** markers indexes in a grid cell */
+	protected static class Cell {
+		int[] mIndexes = new int[4];
+		int mSize;
+
+		void add(int index){
+			if (mSize == mIndexes.length){
+				int[] indexes = new int[mSize*2];
+				System.arraycopy(mIndexes, 0, indexes, 0, mSize);
+				mIndexes = indexes;
+			}
+			mIndexes[mSize++] = index;
+		}
+	}
+
+	public GridRadiusMarkerClusterer(Context ctx) {
+		super(ctx);
+	}
+
+	/** floor division, for negative pixel coordinates */
+	protected static long floorDiv(long a, long b){
+		long q = a / b;
+		return (a % b != 0 && (a < 0) != (b < 0)) ? q-1 : q;
+	}
+
+	protected static long cellKey(long cellX, long cellY){
+		return (cellX << 32) ^ (cellY & 0xFFFFFFFFL);
+	}
+
+	/** Grid-based radius clustering algorithm */
+	@Override public ArrayList<StaticCluster> clusterer(MapView mapView) {
+		return clusterer(mapView, mItems);
+	}
+
+	@Override public ArrayList<StaticCluster> clusterer(MapView mapView, ArrayList<Marker> items) {
+		return clusterer(new ViewState(mapView), items);
+	}
+
+	@Override public ArrayList<StaticCluster> clusterer(ViewState view, ArrayList<Marker> items) {
+		int n = items.size();
+		ArrayList<StaticCluster> clusters = new ArrayList<StaticCluster>();
+		if (view.mZoomLevel > mMaxClusteringZoomLevel) {
+			//above max level => block clustering:
+			for (Marker marker:items){
+				StaticCluster cluster = new StaticCluster(marker.getPosition());
+				cluster.add(marker);
+				clusters.add(cluster);
+			}
+			return clusters;
+		}
+
+		//project markers, and hash them in the grid:
+		long radius = Math.max(1, mRadiusInPixels);
+		long[] x = new long[n];
+		long[] y = new long[n];
+		HashMap<Long, Cell> grid = new HashMap<Long, Cell>(Math.max(16, n/2));
+		for (int i=0; i<n; i++){
+			GeoPoint position = items.get(i).getPosition();
+			x[i] = view.getLongPixelXFromLongitude(position.getLongitude());
+			y[i] = view.getLongPixelYFromLatitude(position.getLatitude());
+			long key = cellKey(floorDiv(x[i], radius), floorDiv(y[i], radius));
+			Cell cell = grid.get(key);
+			if (cell == null){
+				cell = new Cell();
+				grid.put(key, cell);
+			}
+			cell.add(i);
+		}
+
+		boolean[] clustered = new boolean[n];
+		long squaredRadius = radius*radius;
+		for (int i=0; i<n; i++){
+			if (clustered[i])
+				continue;
+			Marker seed = items.get(i);
+			StaticCluster cluster = new StaticCluster(seed.getPosition());
+			cluster.add(seed);
+			clustered[i] = true;
+			long cellX = floorDiv(x[i], radius), cellY = floorDiv(y[i], radius);
+			for (long cx=cellX-1; cx<=cellX+1; cx++){
+				for (long cy=cellY-1; cy<=cellY+1; cy++){
+					Cell cell = grid.get(cellKey(cx, cy));
+					if (cell != null)
+						collectNeighbours(cell, i, items, x, y, squaredRadius, clustered, cluster);
+				}
+			}
+			clusters.add(cluster);
+		}
+		return clusters;
+	}
+
+	/** add to the cluster the markers of the cell within the radius of the seed.
+	 * Clustered markers are removed from the cell, so that each marker is only checked a few times. */
+	protected void collectNeighbours(Cell cell, int seed, ArrayList<Marker> items, long[] x, long[] y, long squaredRadius,
+			boolean[] clustered, StaticCluster cluster){
+		int kept = 0;
+		for (int k=0; k<cell.mSize; k++){
+			int j = cell.mIndexes[k];
+			if (!clustered[j]){
+				long dx = x[j] - x[seed], dy = y[j] - y[seed];
+				if (dx*dx + dy*dy <= squaredRadius){
+					cluster.add(items.get(j));
+					clustered[j] = true;
+				}
+			}
+			if (!clustered[j])
+				cell.mIndexes[kept++] = j;
+		}
+		cell.mSize = kept;
+	}
+}
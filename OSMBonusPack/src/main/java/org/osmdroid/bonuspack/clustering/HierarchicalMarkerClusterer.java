@@ -0,0 +1,289 @@
+package org.osmdroid.bonuspack.clustering;
+
+import android.content.Context;
+import android.graphics.Canvas;
+
+import org.osmdroid.bonuspack.utils.RTree;
+import org.osmdroid.util.BoundingBox;
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.util.TileSystem;
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.overlay.Marker;
+
+import java.util.ArrayList;
+
+/**
+ * Radius clustering precomputed for all zoom levels, in the spirit of the "supercluster" library. <br>
+ *
+ * When markers have changed, a hierarchy of clusters is built once, from the max clustering zoom level
+ * down to zoom level 0: the clusters of a zoom level are made by merging the clusters of the next zoom level
+ * within the radius (in pixels at this zoom level). Each level is held in an R-tree. <br>
+ * Then, each zoom change or pan is only a range query in the R-tree of the current zoom level,
+ * restricted to the view and its margin. Clusters, and their markers once built, are kept in the hierarchy
+ * and reused by next queries. <br>
+ *
+ * The position of a cluster is the weighted center of its markers.
+ * Call invalidate after any change in the markers list other than add.
+ * The hierarchy can be built in advance with buildIndex, or in the background with async clustering.
+ */
+public class HierarchicalMarkerClusterer extends RadiusMarkerClusterer {
+
+	/** a cluster of the hierarchy: a single marker, or the merge of clusters of the next zoom level */
+	protected static class ClusterNode {
+		/** position in Web Mercator, normalized in [0, 1] */
+		double mX, mY;
+		double mLatitude, mLongitude;
+		int mCount;
+		/** index of the marker for a single marker, else -1 */
+		int mMarkerIndex;
+		/** merged clusters of the next zoom level - null for a single marker */
+		ArrayList<ClusterNode> mChildren;
+		/** lowest zoom level where this cluster has been processed while building */
+		int mZoom;
+		/** the StaticCluster of this node, built when first needed */
+		StaticCluster mCluster;
+
+		ClusterNode(double x, double y, int count){
+			mX = x;
+			mY = y;
+			mLatitude = latitudeFromY(y);
+			mLongitude = longitudeFromX(x);
+			mCount = count;
+			mMarkerIndex = -1;
+			mZoom = Integer.MAX_VALUE;
+		}
+	}
+
+	/** R-tree of the clusters of each zoom level. The last level holds the single markers. null when not built. */
+	protected RTree<ClusterNode>[] mLevels;
+	/** markers of the hierarchy */
+	protected ArrayList<Marker> mIndexItems;
+	/** snapshot of the markers, kept until they change */
+	protected ArrayList<Marker> mSnapshot;
+
+	public HierarchicalMarkerClusterer(Context ctx) {
+		super(ctx);
+	}
+
+	@Override public void add(Marker marker){
+		super.add(marker);
+		mSnapshot = null;
+	}
+
+	/** Rebuild the clusters hierarchy at next draw. To call after any change in the markers list, other than add. */
+	@Override public void invalidate(){
+		super.invalidate();
+		mSnapshot = null;
+	}
+
+	/** All the markers are needed for the hierarchy, which is already limited to the view when queried. 
+	 * The same snapshot is given while markers don't change, so that the hierarchy is built only once for it. 
+	 * The area covered by the query is set here, in the UI thread. */
+	@Override protected ArrayList<Marker> snapshotItems(MapView mapView){
+		mCoveredArea = getCoveringArea(mapView);
+		return getSnapshot();
+	}
+
+	protected ArrayList<Marker> getSnapshot(){
+		if (mSnapshot == null)
+			mSnapshot = new ArrayList<Marker>(mItems);
+		return mSnapshot;
+	}
+
+	@Override public void setRadius(int radius){
+		super.setRadius(radius);
+		invalidate();
+	}
+
+	@Override public void setMaxClusteringZoomLevel(int zoom){
+		super.setMaxClusteringZoomLevel(zoom);
+		invalidate();
+	}
+
+	//Web Mercator ------------
+
+	protected static double xFromLongitude(double longitude){
+		return (longitude + 180.0) / 360.0;
+	}
+
+	protected static double yFromLatitude(double latitude){
+		double sin = Math.sin(Math.toRadians(Math.max(-85.05112878, Math.min(85.05112878, latitude))));
+		return 0.5 - Math.log((1.0 + sin) / (1.0 - sin)) / (4.0 * Math.PI);
+	}
+
+	protected static double longitudeFromX(double x){
+		return x * 360.0 - 180.0;
+	}
+
+	protected static double latitudeFromY(double y){
+		y = Math.max(0.0, Math.min(1.0, y));
+		return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1.0 - 2.0*y))));
+	}
+
+	//Hierarchy building ------------
+
+	/** Build the clusters hierarchy of the current markers, if not already built. */
+	public void buildIndex(){
+		buildIndex(getSnapshot());
+	}
+
+	/** Build the clusters hierarchy of these markers, if not already built for them. */
+	@SuppressWarnings("unchecked")
+	protected synchronized void buildIndex(ArrayList<Marker> items){
+		if (mLevels != null && mIndexItems == items)
+			return;
+		int maxZoom = Math.max(0, mMaxClusteringZoomLevel);
+		RTree<ClusterNode>[] levels = new RTree[maxZoom+2];
+		ArrayList<ClusterNode> nodes = new ArrayList<ClusterNode>(items.size());
+		for (int i=0; i<items.size(); i++){
+			GeoPoint p = items.get(i).getPosition();
+			ClusterNode leaf = new ClusterNode(xFromLongitude(p.getLongitude()), yFromLatitude(p.getLatitude()), 1);
+			leaf.mLatitude = p.getLatitude();
+			leaf.mLongitude = p.getLongitude();
+			leaf.mMarkerIndex = i;
+			nodes.add(leaf);
+		}
+		levels[maxZoom+1] = buildLevel(nodes);
+		for (int zoom=maxZoom; zoom>=0; zoom--){
+			nodes = clusterLevel(nodes, levels[zoom+1], zoom);
+			levels[zoom] = buildLevel(nodes);
+		}
+		mLevels = levels;
+		mIndexItems = items;
+	}
+
+	protected RTree<ClusterNode> buildLevel(ArrayList<ClusterNode> nodes){
+		int n = nodes.size();
+		double[] latitudes = new double[n], longitudes = new double[n];
+		for (int i=0; i<n; i++){
+			latitudes[i] = nodes.get(i).mLatitude;
+			longitudes[i] = nodes.get(i).mLongitude;
+		}
+		RTree<ClusterNode> tree = new RTree<ClusterNode>();
+		tree.loadPoints(nodes, latitudes, longitudes);
+		return tree;
+	}
+
+	/**
+	 * @param nodes clusters of the next zoom level
+	 * @param index R-tree of these clusters
+	 * @param zoom level to build
+	 * @return clusters of this zoom level
+	 */
+	protected ArrayList<ClusterNode> clusterLevel(ArrayList<ClusterNode> nodes, RTree<ClusterNode> index, int zoom){
+		double radius = mRadiusInPixels / (TileSystem.getTileSize() * Math.pow(2.0, zoom));
+		double squaredRadius = radius*radius;
+		ArrayList<ClusterNode> clusters = new ArrayList<ClusterNode>();
+		ArrayList<ClusterNode> neighbours = new ArrayList<ClusterNode>();
+		for (ClusterNode node:nodes){
+			if (node.mZoom <= zoom)
+				continue; //already merged in a cluster of this level
+			node.mZoom = zoom;
+			neighbours.clear();
+			index.search(latitudeFromY(node.mY - radius), longitudeFromX(node.mX + radius),
+					latitudeFromY(node.mY + radius), longitudeFromX(node.mX - radius), neighbours);
+			double x = node.mX * node.mCount, y = node.mY * node.mCount;
+			int count = node.mCount;
+			ArrayList<ClusterNode> children = null;
+			for (ClusterNode neighbour:neighbours){
+				if (neighbour.mZoom <= zoom)
+					continue;
+				double dx = neighbour.mX - node.mX, dy = neighbour.mY - node.mY;
+				if (dx*dx + dy*dy > squaredRadius)
+					continue;
+				neighbour.mZoom = zoom;
+				if (children == null){
+					children = new ArrayList<ClusterNode>();
+					children.add(node);
+				}
+				children.add(neighbour);
+				x += neighbour.mX * neighbour.mCount;
+				y += neighbour.mY * neighbour.mCount;
+				count += neighbour.mCount;
+			}
+			if (children == null){
+				clusters.add(node); //alone: kept as is at this level
+			} else {
+				ClusterNode cluster = new ClusterNode(x / count, y / count, count);
+				cluster.mChildren = children;
+				clusters.add(cluster);
+			}
+		}
+		return clusters;
+	}
+
+	/** @return the StaticCluster of this node, with all its markers */
+	protected StaticCluster getCluster(ClusterNode node){
+		if (node.mCluster == null){
+			StaticCluster cluster = new StaticCluster(new GeoPoint(node.mLatitude, node.mLongitude));
+			ArrayList<ClusterNode> stack = new ArrayList<ClusterNode>();
+			stack.add(node);
+			while (!stack.isEmpty()){
+				ClusterNode current = stack.remove(stack.size()-1);
+				if (current.mChildren == null)
+					cluster.add(mIndexItems.get(current.mMarkerIndex));
+				else {
+					for (int i=current.mChildren.size()-1; i>=0; i--)
+						stack.add(current.mChildren.get(i));
+				}
+			}
+			node.mCluster = cluster;
+		}
+		return node.mCluster;
+	}
+
+	//Queries ------------
+
+	/** @return the clusters of this zoom level in this area, from the hierarchy */
+	public ArrayList<StaticCluster> getClusters(BoundingBox area, int zoom){
+		buildIndex();
+		return queryClusters(area, zoom);
+	}
+
+	protected synchronized ArrayList<StaticCluster> queryClusters(BoundingBox area, int zoom){
+		RTree<ClusterNode> level;
+		if (zoom > mMaxClusteringZoomLevel)
+			level = mLevels[mLevels.length-1];
+		else
+			level = mLevels[Math.max(0, Math.min(zoom, mLevels.length-2))];
+		ArrayList<ClusterNode> nodes = new ArrayList<ClusterNode>();
+		search(level, area, nodes);
+		ArrayList<StaticCluster> clusters = new ArrayList<StaticCluster>(nodes.size());
+		for (ClusterNode node:nodes)
+			clusters.add(getCluster(node));
+		return clusters;
+	}
+
+	/** Hierarchical clustering: clusters of the current zoom level in the view and its margin */
+	@Override public ArrayList<StaticCluster> clusterer(MapView mapView) {
+		return clusterer(mapView, getSnapshot());
+	}
+
+	@Override public ArrayList<StaticCluster> clusterer(MapView mapView, ArrayList<Marker> items) {
+		mCoveredArea = getCoveringArea(mapView);
+		return clusterer(new ViewState(mapView), items);
+	}
+
+	@Override public ArrayList<StaticCluster> clusterer(ViewState view, ArrayList<Marker> items) {
+		buildIndex(items);
+		return queryClusters(getCoveringArea(view.mBoundingBox), view.mZoomLevel);
+	}
+
+	/** Build the markers of the clusters which don't have one yet. Clusters keep their marker in the hierarchy. */
+	@Override public void renderer(ArrayList<StaticCluster> clusters, Canvas canvas, MapView mapView) {
+		for (StaticCluster cluster : clusters) {
+			if (cluster.getMarker() != null)
+				continue;
+			if (cluster.getSize() == 1)
+				cluster.setMarker(cluster.getItem(0));
+			else
+				cluster.setMarker(buildClusterMarker(cluster, mapView));
+			cluster.setIcon(null);
+		}
+	}
+
+	/** Clusters are also queried when the view moves out of the covered area */
+	@Override protected boolean isClusteringNeeded(MapView mapView){
+		return super.isClusteringNeeded(mapView) || !isCovered(mapView.getBoundingBox());
+	}
+}
@@ -3,19 +3,26 @@ package org.osmdroid.bonuspack.clustering;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.view.MotionEvent;
 
 import org.osmdroid.api.IGeoPoint;
 import org.osmdroid.bonuspack.kml.KmlFeature;
+import org.osmdroid.bonuspack.utils.BonusPackHelper;
+import org.osmdroid.bonuspack.utils.RTree;
 import org.osmdroid.util.BoundingBox;
 import org.osmdroid.util.GeoPoint;
+import org.osmdroid.util.TileSystem;
 import org.osmdroid.views.MapView;
 import org.osmdroid.views.overlay.Marker;
 import org.osmdroid.views.overlay.Overlay;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.ListIterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /** 
  * An overlay allowing to perform markers clustering. 
@@ -23,7 +30,14 @@ import java.util.ListIterator;
  * Depending on the zoom level, markers will be displayed separately, or grouped as a single Marker. <br/>
  * 
  * This abstract class provides the framework. Sub-classes have to implement the clustering algorithm, 
- * and the rendering of a cluster. 
+ * and the rendering of a cluster. <br/>
+ * 
+ * With setAsyncClustering, clustering and cluster icons are done in a background thread, 
+ * on a snapshot of the markers list and of the view state. Cluster markers are then built in the UI thread. 
+ * The current clusters are drawn until the new ones are ready. <br/>
+ * 
+ * With setViewportClustering, only the markers in the view and its margin are clustered, 
+ * found with a spatial index on the markers. Clusters are rebuilt when the view moves out of this area. 
  * 
  * @author M.Kergall
  *
@@ -32,6 +46,36 @@ public abstract class MarkerClusterer extends Overlay {
 
 	/** impossible value for zoom level, to force clustering */
 	protected static final int FORCE_CLUSTERING = -1;
+
+	/** State of the map view needed for clustering, captured in the UI thread, 
+	 * so that clustering can be done in a background thread without accessing the MapView. */
+	public static class ViewState {
+		public final int mZoomLevel;
+		public final BoundingBox mBoundingBox;
+		/** size of the view, in pixels */
+		public final int mScreenWidth, mScreenHeight;
+		/** size of the whole map at the current zoom level, in pixels */
+		public final double mMapSize;
+
+		public ViewState(MapView mapView){
+			mZoomLevel = mapView.getZoomLevel();
+			mBoundingBox = mapView.getBoundingBox().clone();
+			Rect screenRect = mapView.getIntrinsicScreenRect(null);
+			mScreenWidth = screenRect.right - screenRect.left;
+			mScreenHeight = screenRect.bottom - screenRect.top;
+			mMapSize = TileSystem.MapSize(mapView.getZoomLevelDouble());
+		}
+
+		/** @return the X pixel coordinate of this longitude on the whole map */
+		public long getLongPixelXFromLongitude(double longitude){
+			return MapView.getTileSystem().getMercatorXFromLongitude(longitude, mMapSize, true);
+		}
+
+		/** @return the Y pixel coordinate of this latitude on the whole map */
+		public long getLongPixelYFromLatitude(double latitude){
+			return MapView.getTileSystem().getMercatorYFromLatitude(latitude, mMapSize, true);
+		}
+	}
 	
 	protected ArrayList<Marker> mItems = new ArrayList<Marker>();
 	protected Point mPoint = new Point();
@@ -39,6 +83,17 @@ public abstract class MarkerClusterer extends Overlay {
 	protected int mLastZoomLevel;
 	protected Bitmap mClusterIcon;
 	protected String mName, mDescription;
+	protected boolean mAsyncClustering;
+	/** true while a background clustering is running */
+	protected boolean mClusteringPending;
+	protected ExecutorService mClusteringExecutor;
+	protected boolean mViewportClustering;
+	/** margin around the view, as a fraction of the view size */
+	protected float mMargin = 0.5f;
+	/** area covered by the current clusters, null if not limited to the view */
+	protected BoundingBox mCoveredArea;
+	/** spatial index of the markers, for viewport clustering. null when to rebuild. */
+	protected RTree<Marker> mItemsIndex;
 	
 	// abstract methods: 
 	
@@ -76,16 +131,55 @@ public abstract class MarkerClusterer extends Overlay {
 		mClusterIcon = icon;
 	}
 	
+	/** Set background clustering. 
+	 * When enabled, clusterer(ViewState, items) and prepareRenderer are called in a background thread, 
+	 * on a snapshot of the markers list and of the view state. When they are done, renderer is called 
+	 * in the UI thread (with a null canvas), and the new clusters replace the current ones. 
+	 * Default is false: clustering is done in the draw pass. */
+	public void setAsyncClustering(boolean async){
+		mAsyncClustering = async;
+	}
+
+	public boolean isAsyncClustering(){
+		return mAsyncClustering;
+	}
+
+	/** Set viewport clustering. 
+	 * When enabled, only the markers in the current view and its margin are clustered, 
+	 * and clusters are rebuilt when the view moves out of this area, in addition to zoom changes. 
+	 * Default is false: all markers are clustered. */
+	public void setViewportClustering(boolean viewport){
+		mViewportClustering = viewport;
+		invalidate();
+	}
+
+	public boolean isViewportClustering(){
+		return mViewportClustering;
+	}
+
+	/** @param margin area around the view which is also clustered, as a fraction of the view size. Default is 0.5. */
+	public void setMargin(float margin){
+		mMargin = margin;
+		mCoveredArea = null;
+	}
+
 	/** Add the Marker. 
 	 * Important: Markers added in a MarkerClusterer should not be added in the map overlays. */
 	public void add(Marker marker){
 		mItems.add(marker);
+		if (mItemsIndex != null){
+			GeoPoint p = marker.getPosition();
+			mItemsIndex.insert(marker, p.getLatitude(), p.getLongitude(), p.getLatitude(), p.getLongitude());
+		}
+		mCoveredArea = null;
 	}
 	
 	/** Force a rebuild of clusters at next draw, even without a zooming action. 
 	 * Should be done when you changed the content of a MarkerClusterer. */
 	public void invalidate(){
 		mLastZoomLevel = FORCE_CLUSTERING; 
+		mItemsIndex = null;
+		mCoveredArea = null;
 	}
 	
 	/** @return the Marker at id (starting at 0) */
@@ -98,6 +192,81 @@ public abstract class MarkerClusterer extends Overlay {
 		return mItems;
 	}
 
+	/** clustering algorithm applied to these markers, used by viewport clustering. 
+	 * Default implementation ignores items and calls clusterer(mapView): 
+	 * sub-classes supporting viewport clustering should override it. */
+	public ArrayList<StaticCluster> clusterer(MapView mapView, ArrayList<Marker> items){
+		return clusterer(mapView);
+	}
+
+	/** clustering algorithm applied to these markers, for this view state, used by background clustering. 
+	 * Called in a background thread: it must not access the MapView, nor create Markers. 
+	 * Default implementation returns null: background clustering is not supported, 
+	 * and clustering is done in the UI thread when the background thread is done. */
+	public ArrayList<StaticCluster> clusterer(ViewState view, ArrayList<Marker> items){
+		return null;
+	}
+
+	/** Prepare in the background thread what renderer needs and which doesn't depend on the MapView, typically the cluster icons. 
+	 * Default does nothing. */
+	protected void prepareRenderer(ArrayList<StaticCluster> clusters){
+	}
+
+	/** @return a copy of the markers list to be clustered for this view - only the markers around the view with viewport clustering. 
+	 * Called in the UI thread. */
+	protected ArrayList<Marker> snapshotItems(MapView mapView){
+		if (mViewportClustering)
+			return getViewportItems(mapView);
+		return new ArrayList<Marker>(mItems);
+	}
+
+	/** @return the markers in the view and its margin, which becomes the covered area */
+	protected ArrayList<Marker> getViewportItems(MapView mapView){
+		if (mItemsIndex == null){
+			int n = mItems.size();
+			double[] latitudes = new double[n], longitudes = new double[n];
+			for (int i=0; i<n; i++){
+				GeoPoint p = mItems.get(i).getPosition();
+				latitudes[i] = p.getLatitude();
+				longitudes[i] = p.getLongitude();
+			}
+			mItemsIndex = new RTree<Marker>();
+			mItemsIndex.loadPoints(mItems, latitudes, longitudes);
+		}
+		mCoveredArea = getCoveringArea(mapView);
+		ArrayList<Marker> items = new ArrayList<Marker>();
+		search(mItemsIndex, mCoveredArea, items);
+		return items;
+	}
+
+	/** @return the view increased by the margin - all longitudes when it would go round the world */
+	protected BoundingBox getCoveringArea(MapView mapView){
+		return getCoveringArea(mapView.getBoundingBox());
+	}
+
+	protected BoundingBox getCoveringArea(BoundingBox view){
+		return BonusPackHelper.increaseByScaleWithDateLine(view, 1.0f + 2.0f*mMargin);
+	}
+
+	/** search the items of the R-tree in the area, which can cross the 180th meridian */
+	protected static <T> void search(RTree<T> tree, BoundingBox area, List<T> result){
+		tree.search(area, result);
+	}
+
+	/** @return true if the view is inside the area covered by the current clusters */
+	protected boolean isCovered(BoundingBox view){
+		if (mCoveredArea == null)
+			return false;
+		return BonusPackHelper.containsWithDateLine(mCoveredArea, view);
+	}
+
+	/** @return true if clusters have to be rebuilt for the current view: 
+	 * when zoom level has changed, or with viewport clustering, when the view is out of the covered area. */
+	protected boolean isClusteringNeeded(MapView mapView){
+		return mapView.getZoomLevel() != mLastZoomLevel
+			|| (mViewportClustering && !isCovered(mapView.getBoundingBox()));
+	}
+
 	protected void hideInfoWindows(){
 		for (Marker m : mItems){
 			if (m.isInfoWindowShown())
@@ -110,10 +279,18 @@ public abstract class MarkerClusterer extends Overlay {
 			return;
 		//if zoom has changed and mapView is now stable, rebuild clusters:
 		int zoomLevel = mapView.getZoomLevel();
-		if (zoomLevel != mLastZoomLevel && !mapView.isAnimating()){
-			hideInfoWindows();
-        	mClusters = clusterer(mapView);
-        	renderer(mClusters, canvas, mapView);
+		if (!mClusteringPending && isClusteringNeeded(mapView) && !mapView.isAnimating()){
+			if (zoomLevel != mLastZoomLevel)
+				hideInfoWindows();
+			if (mAsyncClustering)
+				startAsyncClustering(mapView);
+			else {
+				if (mViewportClustering)
+					mClusters = clusterer(mapView, snapshotItems(mapView));
+				else
+					mClusters = clusterer(mapView);
+				renderer(mClusters, canvas, mapView);
+			}
 			mLastZoomLevel = zoomLevel;
 		}
 		
@@ -122,6 +299,55 @@ public abstract class MarkerClusterer extends Overlay {
         }
 	}
 
+	/** Start clustering a snapshot of the markers and of the view state in the background thread. 
+	 * The cluster markers are built and swapped in the UI thread, and the map is redrawn. */
+	protected void startAsyncClustering(final MapView mapView){
+		if (mClusteringExecutor == null)
+			mClusteringExecutor = Executors.newSingleThreadExecutor();
+		final ViewState view = new ViewState(mapView);
+		final ArrayList<Marker> items = snapshotItems(mapView);
+		mClusteringPending = true;
+		mClusteringExecutor.execute(new Runnable() {
+			@Override public void run() {
+				ArrayList<StaticCluster> clusters;
+				boolean failed = false;
+				try {
+					clusters = clusterer(view, items);
+					if (clusters != null)
+						prepareRenderer(clusters);
+				} catch (Exception e){
+					e.printStackTrace();
+					clusters = null;
+					failed = true;
+				}
+				final ArrayList<StaticCluster> result = clusters;
+				final boolean unsupported = (clusters == null && !failed);
+				mapView.post(new Runnable() {
+					@Override public void run() {
+						ArrayList<StaticCluster> clusters = result;
+						if (unsupported)
+							clusters = clusterer(mapView, items);
+						if (clusters != null){
+							renderer(clusters, null, mapView);
+							mClusters = clusters;
+						}
+						mClusteringPending = false;
+						mapView.invalidate();
+					}
+				});
+			}
+		});
+	}
+
+	@Override public void onDetach(MapView mapView){
+		if (mClusteringExecutor != null){
+			mClusteringExecutor.shutdownNow();
+			mClusteringExecutor = null;
+		}
+		mClusteringPending = false;
+		super.onDetach(mapView);
+	}
+
 	public Iterable<StaticCluster> reversedClusters() {
 		return new Iterable<StaticCluster>() {
 			@Override
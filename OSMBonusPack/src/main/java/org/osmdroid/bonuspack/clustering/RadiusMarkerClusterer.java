@@ -5,7 +5,7 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Rect;
+import android.graphics.Typeface;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.view.MotionEvent;
@@ -18,6 +18,7 @@ import org.osmdroid.views.overlay.Marker;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Radius-based Clustering algorithm:
@@ -40,6 +41,11 @@ public class RadiusMarkerClusterer extends MarkerClusterer {
     private ArrayList<Marker> mClonedMarkers;
     protected boolean mAnimated;
     int mDensityDpi;
+    protected ClusterIconCache mIconCache;
+    protected boolean mBucketLabels;
+    /** id of the cluster icon in the icon cache, unique for each clusterer and each icon it is given */
+    protected int mIconId;
+    private static final AtomicInteger sIconIds = new AtomicInteger();
 
     /** cluster icon anchor */
     public float mAnchorU = Marker.ANCHOR_CENTER, mAnchorV = Marker.ANCHOR_CENTER;
@@ -59,6 +65,12 @@ public class RadiusMarkerClusterer extends MarkerClusterer {
         setIcon(clusterIcon);
         mAnimated = true;
         mDensityDpi = ctx.getResources().getDisplayMetrics().densityDpi;
+        mIconCache = ClusterIconCache.getDefault();
+    }
+
+    @Override public void setIcon(Bitmap icon){
+        super.setIcon(icon);
+        mIconId = sIconIds.incrementAndGet();
     }
 
     /** If you want to change the default text paint (color, size, font) */
@@ -66,6 +78,28 @@ public class RadiusMarkerClusterer extends MarkerClusterer {
         return mTextPaint;
     }
 
+    /** Set the cache of cluster icons. Default is the cache shared by all clusterers, where each clusterer has its own icons. 
+     * null to disable caching. <br>
+     * If you change the text paint after icons have been built, clear the cache. */
+    public void setIconCache(ClusterIconCache cache){
+        mIconCache = cache;
+    }
+
+    public ClusterIconCache getIconCache(){
+        return mIconCache;
+    }
+
+    /** Set labels by buckets: "10+", "100+", "1k+"... instead of the exact number of markers,
+     * so that fewer different icons are needed. Default is false. */
+    public void setBucketLabels(boolean buckets){
+        mBucketLabels = buckets;
+    }
+
+    /** @return the text displayed in the icon of a cluster of this size */
+    protected String getClusterLabel(int size){
+        return (mBucketLabels ? ClusterIconCache.bucketLabel(size) : String.valueOf(size));
+    }
+
     /** Set the radius of clustering in pixels. Default is 100px. */
     public void setRadius(int radius){
         mRadiusInPixels = radius;
@@ -79,20 +113,28 @@ public class RadiusMarkerClusterer extends MarkerClusterer {
 
     /** Radius-Based clustering algorithm */
     @Override public ArrayList<StaticCluster> clusterer(MapView mapView) {
+        return clusterer(mapView, mItems);
+    }
+
+    @Override public ArrayList<StaticCluster> clusterer(MapView mapView, ArrayList<Marker> items) {
+        return clusterer(new ViewState(mapView), items);
+    }
+
+    @Override public ArrayList<StaticCluster> clusterer(ViewState view, ArrayList<Marker> items) {
 
         ArrayList<StaticCluster> clusters = new ArrayList<StaticCluster>();
-        convertRadiusToMeters(mapView);
+        convertRadiusToMeters(view);
 
-        mClonedMarkers = new ArrayList<Marker>(mItems); //shallow copy
+        mClonedMarkers = new ArrayList<Marker>(items); //shallow copy
         while (!mClonedMarkers.isEmpty()) {
             Marker m = mClonedMarkers.get(0);
-            StaticCluster cluster = createCluster(m, mapView);
+            StaticCluster cluster = createCluster(m, view);
             clusters.add(cluster);
         }
         return clusters;
     }
 
-    private StaticCluster createCluster(Marker m, MapView mapView) {
+    private StaticCluster createCluster(Marker m, ViewState view) {
         GeoPoint clusterPosition = m.getPosition();
 
         StaticCluster cluster = new StaticCluster(clusterPosition);
@@ -100,7 +142,7 @@ public class RadiusMarkerClusterer extends MarkerClusterer {
 
         mClonedMarkers.remove(m);
         
-        if (mapView.getZoomLevel() > mMaxClusteringZoomLevel) {
+        if (view.mZoomLevel > mMaxClusteringZoomLevel) {
         	//above max level => block clustering:
         	return cluster;
         }
@@ -124,19 +166,61 @@ public class RadiusMarkerClusterer extends MarkerClusterer {
         m.setInfoWindow(null);
         m.setAnchor(mAnchorU, mAnchorV);
 
+        Bitmap finalIcon = cluster.getIcon();
+        if (finalIcon == null)
+            finalIcon = getClusterIcon(getClusterLabel(cluster.getSize()));
+        m.setIcon(new BitmapDrawable(mapView.getContext().getResources(), finalIcon));
+
+        return m;
+    }
+
+    /** @return the cluster icon with this text, from the icon cache if any */
+    protected Bitmap getClusterIcon(String text) {
+        String key = null;
+        Bitmap finalIcon = null;
+        if (mIconCache != null) {
+            key = getIconKey(text);
+            finalIcon = mIconCache.get(key);
+        }
+        if (finalIcon == null) {
+            finalIcon = buildClusterIcon(text);
+            if (mIconCache != null)
+                mIconCache.put(key, finalIcon);
+        }
+        return finalIcon;
+    }
+
+    /** Build the icons of the clusters which will need a cluster marker. Called in the background thread. */
+    @Override protected void prepareRenderer(ArrayList<StaticCluster> clusters) {
+        for (StaticCluster cluster : clusters) {
+            if (cluster.getSize() > 1 && cluster.getMarker() == null && cluster.getIcon() == null)
+                cluster.setIcon(getClusterIcon(getClusterLabel(cluster.getSize())));
+        }
+    }
+
+    /** @return the cluster icon with this text */
+    protected Bitmap buildClusterIcon(String text) {
         Bitmap finalIcon = Bitmap.createBitmap(mClusterIcon.getScaledWidth(mDensityDpi),
                 mClusterIcon.getScaledHeight(mDensityDpi), mClusterIcon.getConfig());
         Canvas iconCanvas = new Canvas(finalIcon);
         iconCanvas.drawBitmap(mClusterIcon, 0, 0, null);
-        String text = "" + cluster.getSize();
         int textHeight = (int) (mTextPaint.descent() + mTextPaint.ascent());
         iconCanvas.drawText(text,
                 mTextAnchorU * finalIcon.getWidth(),
                 mTextAnchorV * finalIcon.getHeight() - textHeight / 2,
                 mTextPaint);
-        m.setIcon(new BitmapDrawable(mapView.getContext().getResources(), finalIcon));
+        return finalIcon;
+    }
 
-        return m;
+    /** @return the key of the cluster icon with this text in the icon cache: the text, 
+     * the id of the clusterer icon, and the settings used to draw the text */
+    protected String getIconKey(String text) {
+        Typeface typeface = mTextPaint.getTypeface();
+        return mIconId + "/" + mDensityDpi
+                + "/" + mTextPaint.getColor() + "/" + mTextPaint.getTextSize()
+                + "/" + (typeface != null ? typeface.hashCode() : 0) + "/" + mTextPaint.isFakeBoldText()
+                + "/" + mTextPaint.getTextAlign()
+                + "/" + mTextAnchorU + "," + mTextAnchorV + "/" + text;
     }
 
     @Override public void renderer(ArrayList<StaticCluster> clusters, Canvas canvas, MapView mapView) {
@@ -152,14 +236,12 @@ public class RadiusMarkerClusterer extends MarkerClusterer {
         }
     }
 
-    private void convertRadiusToMeters(MapView mapView) {
-
-        Rect mScreenRect = mapView.getIntrinsicScreenRect(null);
+    private void convertRadiusToMeters(ViewState view) {
 
-        int screenWidth = mScreenRect.right - mScreenRect.left;
-        int screenHeight = mScreenRect.bottom - mScreenRect.top;
+        int screenWidth = view.mScreenWidth;
+        int screenHeight = view.mScreenHeight;
 
-        BoundingBox bb = mapView.getBoundingBox();
+        BoundingBox bb = view.mBoundingBox;
 
         double diagonalInMeters = bb.getDiagonalLengthInMeters();
         double diagonalInPixels = Math.sqrt(screenWidth * screenWidth + screenHeight * screenHeight);
@@ -1,5 +1,7 @@
 package org.osmdroid.bonuspack.clustering;
 
+import android.graphics.Bitmap;
+
 import org.osmdroid.util.BoundingBox;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.overlay.Marker;
@@ -14,6 +16,7 @@ public class StaticCluster {
 	protected final ArrayList<Marker> mItems = new ArrayList<Marker>();
 	protected GeoPoint mCenter;
 	protected Marker mMarker;
+	protected Bitmap mIcon;
 	
 	public StaticCluster(GeoPoint center) {
 	    mCenter = center;
@@ -49,6 +52,16 @@ public class StaticCluster {
 		return mMarker;
 	}
 
+	/** set the icon prepared for the Marker of this cluster, typically in a background thread */
+	public void setIcon(Bitmap icon){
+		mIcon = icon;
+	}
+
+	/** @return the icon prepared for the Marker of this cluster, or null */
+	public Bitmap getIcon(){
+		return mIcon;
+	}
+
 	public BoundingBox getBoundingBox(){
 		if (getSize()==0)
 			return null;
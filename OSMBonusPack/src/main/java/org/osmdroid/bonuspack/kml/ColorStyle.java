@@ -88,6 +88,18 @@ public class ColorStyle implements Parcelable {
 		}
 	}
 	
+	//Binary serialization ------------
+
+	public void writeBinary(KmlBinaryWriter out){
+		out.writeInt(mColor);
+		out.writeVarint(mColorMode);
+	}
+
+	public ColorStyle(KmlBinaryReader in) throws IOException {
+		mColor = in.readInt();
+		mColorMode = (int)in.readVarint();
+	}
+
 	//Parcelable implementation ------------
 
 	@Override public int describeContents() {
@@ -0,0 +1,295 @@
+package org.osmdroid.bonuspack.kml;
+
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.osmdroid.util.GeoPoint;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Streaming parser of GeoJSON content, reading it token by token with a JsonReader. <br>
+ * KmlPlacemarks and KmlGeometries are built directly, without building the Gson JsonObject tree,
+ * and coordinates are held in packed form.
+ * The members of a GeoJSON object can come in any order. <br>
+ * Each Feature of a FeatureCollection can be given to a FeatureListener as soon as it has been parsed.
+ * @see KmlDocument#parseGeoJSONStream(java.io.InputStream, KmlDocument.FeatureListener)
+ */
+public class GeoJSONReader {
+
+	protected JsonReader mReader;
+	protected KmlDocument.FeatureListener mFeatureListener;
+	protected boolean mPackCoordinates;
+
+	/**
+	 * @param reader
+	 * @param listener receiving each Feature of FeatureCollections. If null, all Features are kept.
+	 */
+	public GeoJSONReader(JsonReader reader, KmlDocument.FeatureListener listener){
+		mReader = reader;
+		mFeatureListener = listener;
+	}
+
+	/** @param pack true to keep the coordinates in packed form, false to set the public GeoPoints fields (default) */
+	public void setPackCoordinates(boolean pack){
+		mPackCoordinates = pack;
+	}
+
+	/**
+	 * Read a GeoJSON Feature or FeatureCollection.
+	 * @return the corresponding KmlPlacemark or KmlFolder, or null if this is not a Feature or a FeatureCollection.
+	 */
+	public KmlFeature readFeature() throws IOException {
+		JsonReader in = mReader;
+		String type = null;
+		String id = null;
+		KmlFolder folder = null;
+		KmlGeometry geometry = null;
+		KmlPlacemark properties = null;
+		in.beginObject();
+		while (in.hasNext()){
+			String name = in.nextName();
+			if ("type".equals(name))
+				type = in.nextString();
+			else if ("id".equals(name) && in.peek() != JsonToken.NULL)
+				id = in.nextString();
+			else if ("features".equals(name) && in.peek() == JsonToken.BEGIN_ARRAY){
+				folder = new KmlFolder();
+				readFeatures(folder);
+			} else if ("geometry".equals(name) && in.peek() == JsonToken.BEGIN_OBJECT)
+				geometry = readGeometry();
+			else if ("properties".equals(name) && in.peek() == JsonToken.BEGIN_OBJECT){
+				properties = new KmlPlacemark();
+				readProperties(properties);
+			} else
+				in.skipValue();
+		}
+		in.endObject();
+		if ("FeatureCollection".equals(type)){
+			return (folder != null ? folder : new KmlFolder());
+		} else if ("Feature".equals(type)){
+			KmlPlacemark placemark = (properties != null ? properties : new KmlPlacemark());
+			placemark.mId = id;
+			if (geometry != null && !mPackCoordinates)
+				geometry.unpack();
+			placemark.mGeometry = geometry;
+			return placemark;
+		} else
+			return null;
+	}
+
+	/** read the array of Features of a FeatureCollection, and add them in the folder */
+	protected void readFeatures(KmlFolder folder) throws IOException {
+		mReader.beginArray();
+		while (mReader.hasNext()){
+			if (mReader.peek() != JsonToken.BEGIN_OBJECT){
+				mReader.skipValue();
+				continue;
+			}
+			KmlFeature feature = readFeature();
+			if (feature != null && (mFeatureListener == null || mFeatureListener.onFeature(feature, folder)))
+				folder.add(feature);
+		}
+		mReader.endArray();
+	}
+
+	/**
+	 * Read the GeoJSON properties in the ExtendedData of the placemark.
+	 * As with the KmlPlacemark GeoJSON constructor, the "name" property becomes the placemark name,
+	 * and non-primitive values are kept as JSON strings.
+	 */
+	protected void readProperties(KmlPlacemark placemark) throws IOException {
+		JsonReader in = mReader;
+		in.beginObject();
+		while (in.hasNext()){
+			String key = in.nextName();
+			String value;
+			switch (in.peek()){
+				case STRING:
+				case NUMBER:
+					value = in.nextString();
+					break;
+				case BOOLEAN:
+					value = Boolean.toString(in.nextBoolean());
+					break;
+				case NULL:
+					in.nextNull();
+					value = "null";
+					break;
+				default:
+					value = JsonParser.parseReader(in).toString();
+			}
+			if ("name".equals(key))
+				placemark.mName = value;
+			else
+				placemark.setExtendedData(key, value);
+		}
+		in.endObject();
+	}
+
+	/**
+	 * Read a GeoJSON Geometry.
+	 * Supports: Point, LineString, Polygon, GeometryCollection, MultiPoint, MultiLineString and MultiPolygon.
+	 * @return the corresponding KmlGeometry, or null for not supported Geometry.
+	 */
+	public KmlGeometry readGeometry() throws IOException {
+		JsonReader in = mReader;
+		String type = null;
+		Object coordinates = null;
+		ArrayList<KmlGeometry> geometries = null;
+		in.beginObject();
+		while (in.hasNext()){
+			String name = in.nextName();
+			if ("type".equals(name))
+				type = in.nextString();
+			else if ("coordinates".equals(name) && in.peek() == JsonToken.BEGIN_ARRAY)
+				coordinates = readCoordinates();
+			else if ("geometries".equals(name) && in.peek() == JsonToken.BEGIN_ARRAY){
+				geometries = new ArrayList<KmlGeometry>();
+				in.beginArray();
+				while (in.hasNext()){
+					if (in.peek() == JsonToken.BEGIN_OBJECT)
+						geometries.add(readGeometry());
+					else
+						in.skipValue();
+				}
+				in.endArray();
+			} else
+				in.skipValue();
+		}
+		in.endObject();
+		return buildGeometry(type, coordinates, geometries);
+	}
+
+	protected KmlGeometry buildGeometry(String type, Object coordinates, ArrayList<KmlGeometry> geometries) throws IOException {
+		if ("GeometryCollection".equals(type)){
+			KmlMultiGeometry multi = new KmlMultiGeometry();
+			if (geometries != null)
+				multi.mItems.addAll(geometries);
+			return multi;
+		}
+		if (coordinates == null)
+			return null;
+		if ("Point".equals(type)){
+			return new KmlPoint(toGeoPoint(coordinates));
+		} else if ("LineString".equals(type)){
+			return toLineString(coordinates);
+		} else if ("Polygon".equals(type)){
+			return toPolygon(coordinates);
+		} else if ("MultiPoint".equals(type)){
+			KmlMultiGeometry multi = new KmlMultiGeometry();
+			PackedCoordinates points = toPackedCoordinates(coordinates);
+			for (int i=0; i<points.size(); i++)
+				multi.mItems.add(new KmlPoint(points.getGeoPoint(i)));
+			return multi;
+		} else if ("MultiLineString".equals(type)){
+			KmlMultiGeometry multi = new KmlMultiGeometry();
+			for (Object lineString:toList(coordinates))
+				multi.mItems.add(toLineString(lineString));
+			return multi;
+		} else if ("MultiPolygon".equals(type)){
+			KmlMultiGeometry multi = new KmlMultiGeometry();
+			for (Object polygon:toList(coordinates))
+				multi.mItems.add(toPolygon(polygon));
+			return multi;
+		} else
+			return null;
+	}
+
+	//Coordinates ------------
+
+	/**
+	 * Read a GeoJSON coordinates array, of any depth.
+	 * @return a Position as a double[] {lat, lon, alt}, an array of Positions as PackedCoordinates,
+	 * or an ArrayList of these for deeper arrays.
+	 */
+	protected Object readCoordinates() throws IOException {
+		JsonReader in = mReader;
+		in.beginArray();
+		if (in.peek() == JsonToken.NUMBER){
+			double longitude = in.nextDouble();
+			double latitude = in.nextDouble();
+			double altitude = (in.peek() == JsonToken.NUMBER ? in.nextDouble() : 0.0);
+			while (in.hasNext())
+				in.skipValue();
+			in.endArray();
+			return new double[]{latitude, longitude, altitude};
+		}
+		ArrayList<Object> list = new ArrayList<Object>();
+		PackedCoordinates positions = null;
+		while (in.hasNext()){
+			if (positions != null){
+				readPosition(positions);
+				continue;
+			}
+			Object item = readCoordinates();
+			if (item instanceof double[] && list.isEmpty()){
+				//this is an array of Positions: read the next ones directly in packed form
+				double[] position = (double[])item;
+				positions = new PackedCoordinates();
+				positions.add(position[0], position[1], position[2]);
+			} else
+				list.add(item);
+		}
+		in.endArray();
+		return (positions != null ? positions : list);
+	}
+
+	/** read a Position [lon, lat, alt(optional)], and add it to positions */
+	protected void readPosition(PackedCoordinates positions) throws IOException {
+		JsonReader in = mReader;
+		in.beginArray();
+		double longitude = in.nextDouble();
+		double latitude = in.nextDouble();
+		double altitude = (in.peek() == JsonToken.NUMBER ? in.nextDouble() : 0.0);
+		while (in.hasNext())
+			in.skipValue();
+		in.endArray();
+		positions.add(latitude, longitude, altitude);
+	}
+
+	protected GeoPoint toGeoPoint(Object coordinates) throws IOException {
+		if (!(coordinates instanceof double[]))
+			throw new IOException("Invalid GeoJSON Position");
+		double[] position = (double[])coordinates;
+		return new GeoPoint(position[0], position[1], position[2]);
+	}
+
+	protected PackedCoordinates toPackedCoordinates(Object coordinates) throws IOException {
+		if (coordinates instanceof PackedCoordinates)
+			return (PackedCoordinates)coordinates;
+		else if (coordinates instanceof ArrayList && ((ArrayList<?>)coordinates).isEmpty())
+			return new PackedCoordinates(0);
+		else
+			throw new IOException("Invalid GeoJSON array of Positions");
+	}
+
+	protected ArrayList<?> toList(Object coordinates) throws IOException {
+		if (coordinates instanceof ArrayList)
+			return (ArrayList<?>)coordinates;
+		else
+			throw new IOException("Invalid GeoJSON coordinates");
+	}
+
+	protected KmlLineString toLineString(Object coordinates) throws IOException {
+		KmlLineString lineString = new KmlLineString();
+		lineString.setPackedCoordinates(toPackedCoordinates(coordinates));
+		return lineString;
+	}
+
+	protected KmlPolygon toPolygon(Object coordinates) throws IOException {
+		ArrayList<?> rings = toList(coordinates);
+		KmlPolygon polygon = new KmlPolygon();
+		//ring #0 is the polygon border, next rings are the holes:
+		for (int i=0; i<rings.size(); i++){
+			PackedCoordinates ring = toPackedCoordinates(rings.get(i));
+			if (i == 0)
+				polygon.setPackedCoordinates(ring);
+			else
+				polygon.addHole(ring);
+		}
+		return polygon;
+	}
+}
@@ -81,6 +81,22 @@ public class HotSpot implements Parcelable {
         }
     }
 
+    //Binary serialization ------------
+
+    public void writeBinary(KmlBinaryWriter out){
+        out.writeFloat(mx);
+        out.writeFloat(my);
+        out.writeVarint(mXUnits.ordinal());
+        out.writeVarint(mYUnits.ordinal());
+    }
+
+    public HotSpot(KmlBinaryReader in) throws IOException {
+        mx = in.readFloat();
+        my = in.readFloat();
+        mXUnits = Units.fromOrdinal((int)in.readVarint());
+        mYUnits = Units.fromOrdinal((int)in.readVarint());
+    }
+
     //Parcelable implementation ------------
 
     @Override public int describeContents() { return 0; }
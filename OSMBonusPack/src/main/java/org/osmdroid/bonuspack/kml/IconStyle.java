@@ -29,6 +29,8 @@ public class IconStyle extends ColorStyle implements Parcelable {
 	public String mHref;
 	public Bitmap mIcon;
 	public HotSpot mHotSpot;
+	/** scaled icon bitmap shared by all markers using this IconStyle */
+	protected Bitmap mSharedIcon;
 
 	private static WebImageCache mIconCache;
 	static {
@@ -50,6 +52,7 @@ public class IconStyle extends ColorStyle implements Parcelable {
 	 */
 	public void setIcon(String href, File containerFile, ZipFile kmzContainer){
 		mHref = href;
+		mSharedIcon = null;
 		if (mHref == null) {
 			mIcon = null;
 		} else if (mHref.startsWith("http://") || mHref.startsWith("https://")) {
@@ -71,9 +74,31 @@ public class IconStyle extends ColorStyle implements Parcelable {
 		}
 	}
 	
+	/** Load and set the icon bitmap, from a url or from an entry of a KMZ container. 
+	 * The entry bitmap is decoded once, and shared by all styles using it. 
+	 * @param href either the full url, or the name of an entry in the KMZ. Set null for none. 
+	 * @param kmzContainer current KMZ container
+	 */
+	public void setIcon(String href, KmzContainer kmzContainer){
+		mHref = href;
+		mSharedIcon = null;
+		if (mHref == null) {
+			mIcon = null;
+		} else if (mHref.startsWith("http://") || mHref.startsWith("https://")) {
+			mIcon = mIconCache.get(mHref);
+		} else {
+			mIcon = kmzContainer.getBitmap(mHref);
+		}
+	}
+	
 	/** @return the icon, scaled and blended with the icon color, as specified in the IconStyle. 
 	 * Assumes the icon is already loaded. */
 	public BitmapDrawable getFinalIcon(Context context){
+		return buildFinalIcon(context, getScaledIcon());
+	}
+
+	/** @return the icon bitmap scaled as specified in the IconStyle, or null */
+	protected Bitmap getScaledIcon(){
 		if (mIcon == null)
 			return null;
 		int sizeX = Math.round(mIcon.getWidth() * mScale);
@@ -82,7 +107,13 @@ public class IconStyle extends ColorStyle implements Parcelable {
 			Log.w(BonusPackHelper.LOG_TAG, "KML icon has size=0");
 			return null;
 		}
-		Bitmap scaledBitmap = Bitmap.createScaledBitmap(mIcon, sizeX, sizeY, true);
+		return Bitmap.createScaledBitmap(mIcon, sizeX, sizeY, true);
+	}
+
+	/** @return a new drawable of the scaled icon, blended with the icon color */
+	protected BitmapDrawable buildFinalIcon(Context context, Bitmap scaledBitmap){
+		if (scaledBitmap == null)
+			return null;
 		BitmapDrawable finalIcon = new BitmapDrawable(context.getResources(), scaledBitmap);
 		int color = getFinalColor();
 		if (color != 0) //there is a real color to blend with:
@@ -90,9 +121,24 @@ public class IconStyle extends ColorStyle implements Parcelable {
 		return finalIcon;
 	}
 
+	/** 
+	 * @return the final icon. The scaled bitmap is built once and shared by all markers: it must not be modified. 
+	 * The drawable wrapping it is new for each call, as a Marker modifies its drawable (alpha, bounds). 
+	 */
+	public BitmapDrawable getSharedFinalIcon(Context context){
+		if (mSharedIcon == null)
+			mSharedIcon = getScaledIcon();
+		return buildFinalIcon(context, mSharedIcon);
+	}
+
+	/** release the shared icon, so that it is rebuilt after a change of icon, scale or color */
+	public void invalidateSharedObjects(){
+		mSharedIcon = null;
+	}
+
 	/** apply all IconStyle attributes to the Marker */
 	public void styleMarker(Marker marker, Context context){
-		BitmapDrawable icon = getFinalIcon(context);
+		BitmapDrawable icon = getSharedFinalIcon(context);
 		if (icon != null) {
 			marker.setIcon(icon);
 			marker.setAnchor(mHotSpot.getX(icon.getIntrinsicWidth() / mScale),
@@ -111,8 +157,9 @@ public class IconStyle extends ColorStyle implements Parcelable {
 				writer.write("<scale>"+mScale+"</scale>\n");
 			if (mHeading != 0.0f)
 				writer.write("<heading>"+mHeading+"</heading>\n");
-			if (mHref != null)
-				writer.write("<Icon><href>"+StringEscapeUtils.escapeXml10(mHref)+"</href></Icon>\n");
+			String href = KmlWriter.getHref(writer, mIcon, mHref);
+			if (href != null)
+				writer.write("<Icon><href>"+StringEscapeUtils.escapeXml10(href)+"</href></Icon>\n");
 			mHotSpot.writeAsKML(writer);
 			writer.write("</IconStyle>\n");
 		} catch (IOException e) {
@@ -120,6 +167,29 @@ public class IconStyle extends ColorStyle implements Parcelable {
 		}
 	}
 	
+	//Binary serialization ------------
+
+	@Override public void writeBinary(KmlBinaryWriter out){
+		super.writeBinary(out);
+		out.writeFloat(mScale);
+		out.writeFloat(mHeading);
+		out.writeString(mHref);
+		out.writeBitmap(mIcon);
+		out.writeBoolean(mHotSpot != null);
+		if (mHotSpot != null)
+			mHotSpot.writeBinary(out);
+	}
+
+	public IconStyle(KmlBinaryReader in) throws IOException {
+		super(in);
+		mScale = in.readFloat();
+		mHeading = in.readFloat();
+		mHref = in.readString();
+		mIcon = in.readBitmap();
+		if (in.readBoolean())
+			mHotSpot = new HotSpot(in);
+	}
+
 	//Parcelable implementation ------------
 	
 	@Override public int describeContents() {
@@ -0,0 +1,200 @@
+package org.osmdroid.bonuspack.kml;
+
+import android.util.Log;
+
+import org.osmdroid.bonuspack.utils.BonusPackHelper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads many KML, KMZ and GeoJSON files concurrently, and merges them in one KmlDocument. <br>
+ *
+ * Each file is parsed in its own KmlDocument, on a thread pool (one thread per core by default).
+ * Then, in the order of the files, its content is added in the destination document as a Folder,
+ * and its Shared Styles are added with ids prefixed by a namespace specific to the file ("f0_", "f1_", ...),
+ * so that styles of different files never collide. Namespaces already used in the destination are skipped, 
+ * so that several batches can be loaded in the same document. As these ids are not numbers,
+ * they don't interfere with the ids allocated by KmlDocument.addStyle. <br>
+ *
+ * Usage:
+ * <pre>
+ * KmlBatchLoader loader = new KmlBatchLoader();
+ * List&lt;KmlBatchLoader.Result&gt; results = loader.load(files, kmlDocument);
+ * </pre>
+ */
+public class KmlBatchLoader {
+
+	/** Outcome of the loading of one file */
+	public static class Result {
+		public File mFile;
+		/** prefix of the style ids of this file in the merged document */
+		public String mNamespace;
+		public boolean mSuccess;
+		/** parsing time, in ms */
+		public long mParseTime;
+		/** error which stopped the parsing, if any. Parsing errors are often only reported by mSuccess false. */
+		public Exception mError;
+		/** the Folder holding the content of this file in the merged document - null if failure */
+		public KmlFolder mFolder;
+
+		protected KmlDocument mDocument;
+
+		public Result(File file, String namespace){
+			mFile = file;
+			mNamespace = namespace;
+		}
+
+		@Override public String toString(){
+			return mFile.getName() + (mSuccess ? " loaded in " + mParseTime + "ms" : " failed" + (mError != null ? ": " + mError : ""));
+		}
+	}
+
+	protected int mThreads;
+
+	/** loader with one thread per available core */
+	public KmlBatchLoader(){
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/** @param threads max number of files parsed at the same time */
+	public KmlBatchLoader(int threads){
+		mThreads = Math.max(1, threads);
+	}
+
+	/**
+	 * Parse one file in a new KmlDocument, according to its extension: .kmz, .json/.geojson, or KML.
+	 * @return true if OK
+	 */
+	protected boolean parse(File file, KmlDocument document){
+		String name = file.getName().toLowerCase();
+		if (name.endsWith(".kmz"))
+			return document.parseKMZFile(file);
+		else if (name.endsWith(".json") || name.endsWith(".geojson"))
+			return document.parseGeoJSON(file);
+		else
+			return document.parseKMLFile(file);
+	}
+
+	/**
+	 * Load all files concurrently, and merge them in the destination document.
+	 * Files which fail to load are reported, and skipped.
+	 * @param files to load
+	 * @param destination document receiving the content of all files.
+	 * @return the results, in the order of the files
+	 */
+	public List<Result> load(List<File> files, final KmlDocument destination){
+		final ArrayList<Result> results = new ArrayList<Result>(files.size());
+		int first = getFirstFreeNamespace(destination);
+		for (int i=0; i<files.size(); i++)
+			results.add(new Result(files.get(i), "f" + (first + i) + "_"));
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(mThreads, Math.max(1, files.size())));
+		try {
+			ArrayList<Future<Result>> futures = new ArrayList<Future<Result>>(results.size());
+			for (final Result result:results){
+				futures.add(executor.submit(new Callable<Result>() {
+					@Override public Result call(){
+						long start = System.nanoTime();
+						KmlDocument document = new KmlDocument();
+						document.setPackCoordinates(destination.getPackCoordinates());
+						try {
+							result.mSuccess = parse(result.mFile, document);
+						} catch (Exception e){
+							result.mError = e;
+							result.mSuccess = false;
+						}
+						result.mParseTime = (System.nanoTime() - start) / 1000000;
+						if (result.mSuccess)
+							result.mDocument = document;
+						return result;
+					}
+				}));
+			}
+			for (int i=0; i<futures.size(); i++){
+				Result result = results.get(i);
+				try {
+					futures.get(i).get();
+				} catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+					result.mError = e;
+					result.mSuccess = false;
+				} catch (ExecutionException e){
+					result.mError = e;
+					result.mSuccess = false;
+				}
+				if (result.mSuccess)
+					merge(result, destination);
+				else
+					Log.e(BonusPackHelper.LOG_TAG, "KmlBatchLoader: " + result);
+				result.mDocument = null;
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return results;
+	}
+
+	/** @return the number of the first namespace which is not used by the styles of the destination: 
+	 * after the highest "f<number>_" prefix */
+	protected int getFirstFreeNamespace(KmlDocument destination){
+		int first = 0;
+		for (String id:destination.getStyles().keySet()){
+			if (id.length() < 3 || id.charAt(0) != 'f')
+				continue;
+			int end = id.indexOf('_');
+			if (end < 2)
+				continue;
+			try {
+				first = Math.max(first, Integer.parseInt(id.substring(1, end)) + 1);
+			} catch (NumberFormatException e){
+				//not a namespace prefix: nothing to do
+			}
+		}
+		return first;
+	}
+
+	/** add the content and the styles of the loaded document in the destination, under its namespace */
+	protected void merge(Result result, KmlDocument destination){
+		KmlDocument document = result.mDocument;
+		String namespace = result.mNamespace;
+		HashMap<String, StyleSelector> styles = document.getStyles();
+		for (Map.Entry<String, StyleSelector> entry:styles.entrySet()){
+			StyleSelector style = entry.getValue();
+			if (style instanceof StyleMap)
+				renameStyleMap((StyleMap)style, styles, namespace);
+			destination.putStyle(namespace + entry.getKey(), style);
+		}
+		KmlFolder folder = document.mKmlRoot;
+		renameStyles(folder, styles, namespace);
+		if (folder.mName == null)
+			folder.mName = result.mFile.getName();
+		destination.mKmlRoot.add(folder);
+		result.mFolder = folder;
+	}
+
+	protected void renameStyleMap(StyleMap styleMap, HashMap<String, StyleSelector> styles, String namespace){
+		for (Map.Entry<String, String> pair:styleMap.mPairs.entrySet()){
+			String styleUrl = pair.getValue();
+			if (styles.containsKey(styleUrl))
+				pair.setValue(namespace + styleUrl);
+		}
+	}
+
+	/** prefix the styleUrls of the features referring to a Shared Style of their document */
+	protected void renameStyles(KmlFeature feature, HashMap<String, StyleSelector> styles, String namespace){
+		if (feature.mStyle != null && styles.containsKey(feature.mStyle))
+			feature.mStyle = namespace + feature.mStyle;
+		if (feature instanceof KmlFolder){
+			for (KmlFeature item:((KmlFolder)feature).mItems)
+				renameStyles(item, styles, namespace);
+		}
+	}
+}
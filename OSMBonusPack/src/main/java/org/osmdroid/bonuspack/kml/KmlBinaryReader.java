@@ -0,0 +1,280 @@
+package org.osmdroid.bonuspack.kml;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import org.osmdroid.util.GeoPoint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+
+/**
+ * Reader of the binary format written by KmlBinaryWriter.
+ * The whole content is read in memory, then decoded.
+ * @see KmlBinaryWriter
+ * @see KmlDocument#parseBinaryFile(java.io.File)
+ */
+public class KmlBinaryReader {
+
+	protected byte[] mData;
+	protected int mPos;
+	protected int mVersion;
+	protected String[] mStringTable;
+	protected Bitmap[] mBitmapTable;
+	protected boolean mPackCoordinates;
+
+	/**
+	 * Read the header and the tables.
+	 * @param in stream on a content written by KmlBinaryWriter. It is fully read, but not closed.
+	 * @throws IOException if this is not a valid content, or if its version is not supported.
+	 */
+	public KmlBinaryReader(InputStream in) throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream(64*1024);
+		byte[] buffer = new byte[64*1024];
+		int n;
+		while ((n = in.read(buffer)) != -1)
+			content.write(buffer, 0, n);
+		mData = content.toByteArray();
+		mPos = 0;
+		if (readInt() != KmlBinaryWriter.MAGIC)
+			throw new IOException("Not a KML binary content");
+		mVersion = (int)readVarint();
+		if (mVersion > KmlBinaryWriter.VERSION)
+			throw new IOException("Unsupported KML binary version: "+mVersion);
+		int strings = (int)readVarint();
+		mStringTable = new String[strings];
+		for (int i=0; i<strings; i++){
+			int length = (int)readVarint();
+			checkAvailable(length);
+			mStringTable[i] = new String(mData, mPos, length, "UTF-8");
+			mPos += length;
+		}
+		int bitmaps = (int)readVarint();
+		mBitmapTable = new Bitmap[bitmaps];
+		for (int i=0; i<bitmaps; i++){
+			int length = (int)readVarint();
+			checkAvailable(length);
+			mBitmapTable[i] = BitmapFactory.decodeByteArray(mData, mPos, length);
+			mPos += length;
+		}
+	}
+
+	/** @param pack true to keep the coordinates in packed form, false to set the public GeoPoints fields (default) */
+	public void setPackCoordinates(boolean pack){
+		mPackCoordinates = pack;
+	}
+
+	/** @return the format version of the content */
+	public int getVersion(){
+		return mVersion;
+	}
+
+	protected void checkAvailable(int length) throws EOFException {
+		if (length < 0 || mPos + length > mData.length)
+			throw new EOFException("Truncated KML binary content");
+	}
+
+	//Primitives ------------
+
+	public int readByte() throws IOException {
+		checkAvailable(1);
+		return mData[mPos++] & 0xFF;
+	}
+
+	public long readVarint() throws IOException {
+		long value = 0;
+		int shift = 0;
+		int b;
+		do {
+			if (shift > 63)
+				throw new IOException("Invalid varint");
+			b = readByte();
+			value |= (long)(b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	public long readSignedVarint() throws IOException {
+		long value = readVarint();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+
+	public int readInt() throws IOException {
+		checkAvailable(4);
+		int value = (mData[mPos] & 0xFF) | (mData[mPos+1] & 0xFF) << 8
+				| (mData[mPos+2] & 0xFF) << 16 | (mData[mPos+3] & 0xFF) << 24;
+		mPos += 4;
+		return value;
+	}
+
+	public float readFloat() throws IOException {
+		return Float.intBitsToFloat(readInt());
+	}
+
+	public String readString() throws IOException {
+		int index = (int)readVarint();
+		if (index == 0)
+			return null;
+		if (index > mStringTable.length)
+			throw new IOException("Invalid string reference");
+		return mStringTable[index-1];
+	}
+
+	public Bitmap readBitmap() throws IOException {
+		int index = (int)readVarint();
+		if (index == 0)
+			return null;
+		if (index > mBitmapTable.length)
+			throw new IOException("Invalid bitmap reference");
+		return mBitmapTable[index-1];
+	}
+
+	public HashMap<String, String> readStringMap() throws IOException {
+		int n = (int)readVarint();
+		if (n == 0)
+			return null;
+		n--;
+		HashMap<String, String> map = new HashMap<String, String>(n*2);
+		for (int i=0; i<n; i++){
+			String key = readString();
+			map.put(key, readString());
+		}
+		return map;
+	}
+
+	public ArrayList<Date> readDates() throws IOException {
+		int n = (int)readVarint();
+		if (n == 0)
+			return null;
+		n--;
+		boolean hasNull = readBoolean();
+		ArrayList<Date> dates = new ArrayList<Date>(n);
+		long previous = 0;
+		for (int i=0; i<n; i++){
+			if (hasNull && !readBoolean()){
+				dates.add(null);
+				continue;
+			}
+			previous += readSignedVarint();
+			dates.add(new Date(previous));
+		}
+		return dates;
+	}
+
+	/** read Dates as times in milliseconds since the epoch, KmlDateTime.UNDEFINED for null Dates */
+	public long[] readTimes() throws IOException {
+		int n = (int)readVarint();
+		if (n == 0)
+			return null;
+		n--;
+		boolean hasNull = readBoolean();
+		long[] times = new long[n];
+		long previous = 0;
+		for (int i=0; i<n; i++){
+			if (hasNull && !readBoolean()){
+				times[i] = KmlDateTime.UNDEFINED;
+				continue;
+			}
+			previous += readSignedVarint();
+			times[i] = previous;
+		}
+		return times;
+	}
+
+	public PackedCoordinates readCoordinates() throws IOException {
+		int n = (int)readVarint();
+		if (n == 0)
+			return null;
+		n--;
+		int flags = (int)readVarint();
+		boolean hasAltitude = (flags & KmlBinaryWriter.COORDS_ALTITUDE) != 0;
+		boolean hasUndefined = (flags & KmlBinaryWriter.COORDS_UNDEFINED) != 0;
+		PackedCoordinates coords = new PackedCoordinates(n);
+		long lat = 0, lon = 0, alt = 0;
+		for (int i=0; i<n; i++){
+			if (hasUndefined && !readBoolean()){
+				coords.add(null);
+				continue;
+			}
+			lat += readSignedVarint();
+			lon += readSignedVarint();
+			if (hasAltitude)
+				alt += readSignedVarint();
+			coords.add(lat/KmlBinaryWriter.COORD_FACTOR, lon/KmlBinaryWriter.COORD_FACTOR,
+					alt/KmlBinaryWriter.ALTITUDE_FACTOR);
+		}
+		return coords;
+	}
+
+	/** @return the coordinates as a list of GeoPoints, or null */
+	public ArrayList<GeoPoint> readGeoPoints() throws IOException {
+		PackedCoordinates coords = readCoordinates();
+		return (coords == null ? null : coords.toGeoPoints());
+	}
+
+	//Hierarchy ------------
+
+	public KmlFeature readFeature() throws IOException {
+		int type = (int)readVarint();
+		switch (type){
+			case KmlBinaryWriter.TYPE_NULL:
+				return null;
+			case KmlBinaryWriter.FEATURE_FOLDER:
+				return new KmlFolder(this);
+			case KmlBinaryWriter.FEATURE_PLACEMARK:
+				return new KmlPlacemark(this);
+			case KmlBinaryWriter.FEATURE_GROUND_OVERLAY:
+				return new KmlGroundOverlay(this);
+			default:
+				throw new IOException("Invalid feature type: "+type);
+		}
+	}
+
+	public KmlGeometry readGeometry() throws IOException {
+		int type = (int)readVarint();
+		KmlGeometry geometry;
+		switch (type){
+			case KmlBinaryWriter.TYPE_NULL:
+				return null;
+			case KmlBinaryWriter.GEOMETRY_POINT:
+				geometry = new KmlPoint(this); break;
+			case KmlBinaryWriter.GEOMETRY_LINESTRING:
+				geometry = new KmlLineString(this); break;
+			case KmlBinaryWriter.GEOMETRY_POLYGON:
+				geometry = new KmlPolygon(this); break;
+			case KmlBinaryWriter.GEOMETRY_TRACK:
+				geometry = new KmlTrack(this); break;
+			case KmlBinaryWriter.GEOMETRY_MULTI:
+				geometry = new KmlMultiGeometry(this); break;
+			default:
+				throw new IOException("Invalid geometry type: "+type);
+		}
+		if (!mPackCoordinates)
+			geometry.unpack();
+		return geometry;
+	}
+
+	public StyleSelector readStyleSelector() throws IOException {
+		int type = (int)readVarint();
+		switch (type){
+			case KmlBinaryWriter.TYPE_NULL:
+				return null;
+			case KmlBinaryWriter.STYLE_STYLE:
+				return new Style(this);
+			case KmlBinaryWriter.STYLE_STYLEMAP:
+				return new StyleMap(this);
+			default:
+				throw new IOException("Invalid style type: "+type);
+		}
+	}
+}
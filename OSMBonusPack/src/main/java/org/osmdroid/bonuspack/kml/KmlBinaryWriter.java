@@ -0,0 +1,347 @@
+package org.osmdroid.bonuspack.kml;
+
+import android.graphics.Bitmap;
+
+import org.osmdroid.util.GeoPoint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writer of the compact binary format of a KmlDocument, used as a fast reload cache. <br>
+ *
+ * Layout: magic, format version, string table, bitmap table, then the body (document, styles and features). <br>
+ * - Integers are written as varints (7 bits per byte), signed ones with zigzag encoding. <br>
+ * - Every String is written once in the string table, and referenced by its index. <br>
+ * - Every distinct Bitmap (icons, ground overlays) is written once, and referenced by its index. 
+ * Its original image file is stored when it has been given, else it is encoded as PNG. <br>
+ * - Coordinates are rounded to 1E-7 degrees (and altitudes to the mm), and delta-encoded from the previous point. <br>
+ *
+ * @see KmlBinaryReader
+ * @see KmlDocument#saveAsBinary(java.io.File)
+ */
+public class KmlBinaryWriter {
+
+	/** "OBPK" */
+	public static final int MAGIC = 0x4F42504B;
+	public static final int VERSION = 1;
+
+	static final int TYPE_NULL = 0;
+	static final int FEATURE_FOLDER = 1;
+	static final int FEATURE_PLACEMARK = 2;
+	static final int FEATURE_GROUND_OVERLAY = 3;
+	static final int GEOMETRY_POINT = 1;
+	static final int GEOMETRY_LINESTRING = 2;
+	static final int GEOMETRY_POLYGON = 3;
+	static final int GEOMETRY_TRACK = 4;
+	static final int GEOMETRY_MULTI = 5;
+	static final int STYLE_STYLE = 1;
+	static final int STYLE_STYLEMAP = 2;
+
+	//coordinates flags:
+	static final int COORDS_ALTITUDE = 1;
+	static final int COORDS_UNDEFINED = 2;
+
+	static final double COORD_FACTOR = 1E7;
+	static final double ALTITUDE_FACTOR = 1E3;
+
+	protected byte[] mBody;
+	protected int mSize;
+	protected HashMap<String, Integer> mStrings;
+	protected ArrayList<String> mStringTable;
+	protected IdentityHashMap<Bitmap, Integer> mBitmaps;
+	protected ArrayList<Bitmap> mBitmapTable;
+	/** content of the original image files, by Bitmap */
+	protected IdentityHashMap<Bitmap, byte[]> mOriginalImages;
+
+	public KmlBinaryWriter(){
+		mBody = new byte[64*1024];
+		mSize = 0;
+		mStrings = new HashMap<String, Integer>();
+		mStringTable = new ArrayList<String>();
+		mBitmaps = new IdentityHashMap<Bitmap, Integer>();
+		mBitmapTable = new ArrayList<Bitmap>();
+		mOriginalImages = new IdentityHashMap<Bitmap, byte[]>();
+	}
+
+	/**
+	 * Give the content of the image file a Bitmap has been decoded from, 
+	 * so that it is stored as is, instead of being encoded again as PNG. 
+	 * @param bitmap
+	 * @param original content of the image file. If null, nothing is done. 
+	 */
+	public void setOriginalImage(Bitmap bitmap, byte[] original){
+		if (bitmap != null && original != null)
+			mOriginalImages.put(bitmap, original);
+	}
+
+	//Primitives ------------
+
+	public void writeByte(int b){
+		if (mSize == mBody.length)
+			mBody = Arrays.copyOf(mBody, mBody.length*2);
+		mBody[mSize++] = (byte)b;
+	}
+
+	/** write an unsigned value in varint encoding */
+	public void writeVarint(long value){
+		while ((value & ~0x7FL) != 0){
+			writeByte((int)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		writeByte((int)value);
+	}
+
+	/** write a signed value in zigzag varint encoding, efficient for small negative values */
+	public void writeSignedVarint(long value){
+		writeVarint((value << 1) ^ (value >> 63));
+	}
+
+	public void writeBoolean(boolean value){
+		writeByte(value ? 1 : 0);
+	}
+
+	/** write a 32 bits value, as is */
+	public void writeInt(int value){
+		writeByte(value);
+		writeByte(value >> 8);
+		writeByte(value >> 16);
+		writeByte(value >> 24);
+	}
+
+	public void writeFloat(float value){
+		writeInt(Float.floatToIntBits(value));
+	}
+
+	/** write a String, as a reference in the string table. Can be null. */
+	public void writeString(String s){
+		if (s == null){
+			writeVarint(0);
+			return;
+		}
+		Integer index = mStrings.get(s);
+		if (index == null){
+			index = mStringTable.size();
+			mStrings.put(s, index);
+			mStringTable.add(s);
+		}
+		writeVarint(index+1);
+	}
+
+	/** write a Bitmap, as a reference in the bitmap table. Can be null. */
+	public void writeBitmap(Bitmap bitmap){
+		if (bitmap == null){
+			writeVarint(0);
+			return;
+		}
+		Integer index = mBitmaps.get(bitmap);
+		if (index == null){
+			index = mBitmapTable.size();
+			mBitmaps.put(bitmap, index);
+			mBitmapTable.add(bitmap);
+		}
+		writeVarint(index+1);
+	}
+
+	/** write a map of Strings, such as the ExtendedData. Can be null. */
+	public void writeStringMap(Map<String, String> map){
+		if (map == null){
+			writeVarint(0);
+			return;
+		}
+		writeVarint(map.size()+1);
+		for (Map.Entry<String, String> entry:map.entrySet()){
+			writeString(entry.getKey());
+			writeString(entry.getValue());
+		}
+	}
+
+	/** write a list of Dates, delta-encoded. The list and its items can be null. */
+	public void writeDates(List<Date> dates){
+		if (dates == null){
+			writeVarint(0);
+			return;
+		}
+		int n = dates.size();
+		writeVarint(n+1);
+		boolean hasNull = dates.contains(null);
+		writeBoolean(hasNull);
+		long previous = 0;
+		for (int i=0; i<n; i++){
+			Date d = dates.get(i);
+			if (hasNull)
+				writeBoolean(d != null);
+			if (d != null){
+				writeSignedVarint(d.getTime() - previous);
+				previous = d.getTime();
+			}
+		}
+	}
+
+	/** 
+	 * write count times in milliseconds since the epoch, delta-encoded, in the same format as writeDates. 
+	 * KmlDateTime.UNDEFINED times are written as null Dates. times can be null.
+	 */
+	public void writeTimes(long[] times, int count){
+		if (times == null){
+			writeVarint(0);
+			return;
+		}
+		writeVarint(count+1);
+		boolean hasNull = false;
+		for (int i=0; i<count && !hasNull; i++)
+			hasNull = (times[i] == KmlDateTime.UNDEFINED);
+		writeBoolean(hasNull);
+		long previous = 0;
+		for (int i=0; i<count; i++){
+			long t = times[i];
+			if (hasNull)
+				writeBoolean(t != KmlDateTime.UNDEFINED);
+			if (t != KmlDateTime.UNDEFINED){
+				writeSignedVarint(t - previous);
+				previous = t;
+			}
+		}
+	}
+
+	/** write coordinates, delta-encoded. Can be null. */
+	public void writeCoordinates(PackedCoordinates coords){
+		if (coords == null){
+			writeVarint(0);
+			return;
+		}
+		int n = coords.size();
+		writeVarint(n+1);
+		int flags = 0;
+		for (int i=0; i<n; i++){
+			if (!coords.isDefined(i))
+				flags |= COORDS_UNDEFINED;
+			else if (coords.getAltitude(i) != 0.0)
+				flags |= COORDS_ALTITUDE;
+		}
+		writeVarint(flags);
+		long prevLat = 0, prevLon = 0, prevAlt = 0;
+		for (int i=0; i<n; i++){
+			if ((flags & COORDS_UNDEFINED) != 0){
+				writeBoolean(coords.isDefined(i));
+				if (!coords.isDefined(i))
+					continue;
+			}
+			long lat = Math.round(coords.getLatitude(i)*COORD_FACTOR);
+			long lon = Math.round(coords.getLongitude(i)*COORD_FACTOR);
+			writeSignedVarint(lat - prevLat);
+			writeSignedVarint(lon - prevLon);
+			prevLat = lat;
+			prevLon = lon;
+			if ((flags & COORDS_ALTITUDE) != 0){
+				long alt = Math.round(coords.getAltitude(i)*ALTITUDE_FACTOR);
+				writeSignedVarint(alt - prevAlt);
+				prevAlt = alt;
+			}
+		}
+	}
+
+	/** write a list of GeoPoints, with the same encoding as PackedCoordinates. Can be null. */
+	public void writeCoordinates(List<GeoPoint> coords){
+		writeCoordinates(coords == null ? null : new PackedCoordinates(coords));
+	}
+
+	//Hierarchy ------------
+
+	/** write a Feature of any type, preceded by its type. Can be null. 
+	 * A Feature of an unsupported type is written as null, and is not read back in its Folder. */
+	public void writeFeature(KmlFeature feature){
+		if (feature instanceof KmlFolder)
+			writeVarint(FEATURE_FOLDER);
+		else if (feature instanceof KmlPlacemark)
+			writeVarint(FEATURE_PLACEMARK);
+		else if (feature instanceof KmlGroundOverlay)
+			writeVarint(FEATURE_GROUND_OVERLAY);
+		else {
+			writeVarint(TYPE_NULL);
+			return;
+		}
+		feature.writeBinary(this);
+	}
+
+	/** write a Geometry of any type, preceded by its type. Can be null. 
+	 * A Geometry of an unsupported type is written as null, and is not read back in its MultiGeometry. */
+	public void writeGeometry(KmlGeometry geometry){
+		if (geometry instanceof KmlPoint)
+			writeVarint(GEOMETRY_POINT);
+		else if (geometry instanceof KmlTrack)
+			writeVarint(GEOMETRY_TRACK);
+		else if (geometry instanceof KmlLineString)
+			writeVarint(GEOMETRY_LINESTRING);
+		else if (geometry instanceof KmlPolygon)
+			writeVarint(GEOMETRY_POLYGON);
+		else if (geometry instanceof KmlMultiGeometry)
+			writeVarint(GEOMETRY_MULTI);
+		else {
+			writeVarint(TYPE_NULL);
+			return;
+		}
+		geometry.writeBinary(this);
+	}
+
+	/** write a Style or a StyleMap, preceded by its type. Can be null. */
+	public void writeStyleSelector(StyleSelector style){
+		if (style instanceof Style)
+			writeVarint(STYLE_STYLE);
+		else if (style instanceof StyleMap)
+			writeVarint(STYLE_STYLEMAP);
+		else {
+			writeVarint(TYPE_NULL);
+			return;
+		}
+		style.writeBinary(this);
+	}
+
+	//Output ------------
+
+	/**
+	 * Write the complete binary content: header, tables, and all what has been written in this writer.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		KmlBinaryWriter header = new KmlBinaryWriter();
+		header.writeInt(MAGIC);
+		header.writeVarint(VERSION);
+		header.writeVarint(mStringTable.size());
+		for (String s:mStringTable){
+			byte[] utf8 = s.getBytes("UTF-8");
+			header.writeVarint(utf8.length);
+			header.writeBytes(utf8);
+		}
+		header.writeVarint(mBitmapTable.size());
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		for (Bitmap bitmap:mBitmapTable){
+			byte[] content = mOriginalImages.get(bitmap);
+			if (content == null){
+				png.reset();
+				bitmap.compress(Bitmap.CompressFormat.PNG, 100, png);
+				content = png.toByteArray();
+			}
+			header.writeVarint(content.length);
+			header.writeBytes(content);
+		}
+		out.write(header.mBody, 0, header.mSize);
+		out.write(mBody, 0, mSize);
+	}
+
+	protected void writeBytes(byte[] bytes){
+		if (mSize + bytes.length > mBody.length)
+			mBody = Arrays.copyOf(mBody, Math.max(mBody.length*2, mSize + bytes.length));
+		System.arraycopy(bytes, 0, mBody, mSize, bytes.length);
+		mSize += bytes.length;
+	}
+}
@@ -0,0 +1,187 @@
+package org.osmdroid.bonuspack.kml;
+
+import java.util.Arrays;
+
+/**
+ * Decoder of the content of a KML coordinates element: lon,lat{,alt} tuples separated by white spaces. <br>
+ * It works directly on the char buffers given by the SAX parser, can be fed by successive chunks,
+ * and fills a PackedCoordinates without creating any intermediate String. <br>
+ *
+ * Numbers are decoded on a fast path when they have up to 18 significant digits and a small exponent.
+ * Above 15 significant digits, the result may differ from Double.parseDouble on the last bit,
+ * which is far below the precision of any geographic coordinate.
+ * Other numbers fall back to Double.parseDouble. <br>
+ *
+ * As with Double.parseDouble, an invalid tuple (bad number, less than 2 or more than 3 values) is skipped.
+ */
+public class KmlCoordinatesDecoder {
+
+	protected static final int MAX_FAST_DIGITS = 18;
+	protected static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	protected PackedCoordinates mTarget;
+
+	//current tuple:
+	protected boolean mInTuple;
+	protected boolean mTupleInvalid;
+	protected int mComponent; //index of the current value in the tuple
+	protected final double[] mValues = new double[3];
+
+	//current number:
+	protected char[] mToken = new char[64]; //kept for the slow path
+	protected int mTokenLength;
+	protected long mMantissa;
+	protected int mSignificantDigits;
+	protected int mDecimalExponent;
+	protected boolean mNegative;
+	protected boolean mSeenDigit;
+	protected int mPart; //0: integer part, 1: fraction, 2: exponent
+	protected int mExponent;
+	protected boolean mExponentNegative;
+	protected boolean mExponentDigit;
+	protected boolean mSlowPath;
+
+	public KmlCoordinatesDecoder(PackedCoordinates target){
+		reset(target);
+	}
+
+	/** Restart decoding, appending coordinates to this target */
+	public void reset(PackedCoordinates target){
+		mTarget = target;
+		mInTuple = false;
+	}
+
+	/**
+	 * Decode a chunk of characters. A tuple can be split between successive chunks.
+	 * @param ch
+	 * @param start
+	 * @param length
+	 */
+	public void decode(char[] ch, int start, int length){
+		int end = start + length;
+		for (int i=start; i<end; i++){
+			char c = ch[i];
+			if (c <= ' '){ //space, tab, cr, lf...
+				if (mInTuple)
+					endTuple();
+			} else {
+				if (!mInTuple)
+					startTuple();
+				if (c == ','){
+					endNumber();
+					mComponent++;
+					if (mComponent >= mValues.length)
+						mTupleInvalid = true;
+					startNumber();
+				} else
+					appendToNumber(c);
+			}
+		}
+	}
+
+	/** End the decoding, handling the last tuple.
+	 * @return the target */
+	public PackedCoordinates finish(){
+		if (mInTuple)
+			endTuple();
+		return mTarget;
+	}
+
+	protected void startTuple(){
+		mInTuple = true;
+		mTupleInvalid = false;
+		mComponent = 0;
+		startNumber();
+	}
+
+	protected void endTuple(){
+		endNumber();
+		mInTuple = false;
+		if (mTupleInvalid || mComponent == 0)
+			return;
+		double altitude = (mComponent == 2 ? mValues[2] : 0.0);
+		mTarget.add(mValues[1], mValues[0], altitude);
+	}
+
+	protected void startNumber(){
+		mTokenLength = 0;
+		mMantissa = 0;
+		mSignificantDigits = 0;
+		mDecimalExponent = 0;
+		mNegative = false;
+		mSeenDigit = false;
+		mPart = 0;
+		mExponent = 0;
+		mExponentNegative = false;
+		mExponentDigit = false;
+		mSlowPath = false;
+	}
+
+	protected void appendToNumber(char c){
+		if (mTokenLength == mToken.length)
+			mToken = Arrays.copyOf(mToken, mToken.length*2);
+		mToken[mTokenLength++] = c;
+		if (mSlowPath || mTupleInvalid)
+			return;
+		if (c >= '0' && c <= '9'){
+			int digit = c - '0';
+			if (mPart == 2){
+				mExponentDigit = true;
+				if (mExponent < 10000)
+					mExponent = mExponent*10 + digit;
+			} else {
+				mSeenDigit = true;
+				if (mMantissa == 0 && digit == 0){
+					//leading zero: only shifts the fraction
+					if (mPart == 1)
+						mDecimalExponent--;
+				} else if (mSignificantDigits < MAX_FAST_DIGITS){
+					mMantissa = mMantissa*10 + digit;
+					mSignificantDigits++;
+					if (mPart == 1)
+						mDecimalExponent--;
+				} else
+					mSlowPath = true;
+			}
+		} else if (c == '-' || c == '+'){
+			if (mTokenLength == 1)
+				mNegative = (c == '-');
+			else if (mPart == 2 && !mExponentDigit && (mToken[mTokenLength-2] == 'e' || mToken[mTokenLength-2] == 'E'))
+				mExponentNegative = (c == '-');
+			else
+				mSlowPath = true;
+		} else if (c == '.' && mPart == 0){
+			mPart = 1;
+		} else if ((c == 'e' || c == 'E') && mPart < 2 && mSeenDigit){
+			mPart = 2;
+		} else
+			mSlowPath = true; //let Double.parseDouble decide
+	}
+
+	protected void endNumber(){
+		if (mTupleInvalid)
+			return;
+		if (mTokenLength == 0){
+			mTupleInvalid = true;
+			return;
+		}
+		int exponent = mDecimalExponent + (mExponentNegative ? -mExponent : mExponent);
+		if (!mSlowPath && mSeenDigit && (mPart != 2 || mExponentDigit)
+				&& exponent >= -22 && exponent <= 22){
+			double value = mMantissa;
+			if (exponent > 0)
+				value = value * POWERS_OF_TEN[exponent];
+			else if (exponent < 0)
+				value = value / POWERS_OF_TEN[-exponent];
+			mValues[mComponent] = (mNegative ? -value : value);
+		} else {
+			try {
+				mValues[mComponent] = Double.parseDouble(new String(mToken, 0, mTokenLength));
+			} catch (NumberFormatException e) {
+				mTupleInvalid = true;
+			}
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package org.osmdroid.bonuspack.kml;
+
+import java.io.IOException;
+import java.util.TimeZone;
+
+/**
+ * Fast parsing and formatting of the KML dateTime values (XML Schema dateTime, gYearMonth, gYear and date),
+ * as epoch milliseconds, without Calendar, SimpleDateFormat or intermediate String. <br>
+ * Supported forms: yyyy, yyyy-MM, yyyy-MM-dd, yyyy-MM-ddThh:mm:ss, with optional fraction of second,
+ * and optional time zone: Z or +/-hh:mm (or +/-hhmm, +/-hh).
+ * Values without time zone are in local time (the default TimeZone), as specified by KML.
+ */
+public class KmlDateTime {
+
+	/** value of an undefined or invalid time */
+	public static final long UNDEFINED = Long.MIN_VALUE;
+
+	protected static final long MS_PER_DAY = 24L*3600*1000;
+
+	/**
+	 * @param s dateTime, with optional leading and trailing whitespace
+	 * @return time in milliseconds since the epoch, or UNDEFINED if s is not a supported KML dateTime
+	 */
+	public static long parse(CharSequence s){
+		int start = 0, end = s.length();
+		while (start < end && Character.isWhitespace(s.charAt(start)))
+			start++;
+		while (end > start && Character.isWhitespace(s.charAt(end-1)))
+			end--;
+		int pos = start;
+		boolean negativeYear = false;
+		if (pos < end && s.charAt(pos) == '-'){
+			negativeYear = true;
+			pos++;
+		}
+		int year = 0, digits = 0;
+		while (pos < end && isDigit(s.charAt(pos))){
+			year = year*10 + (s.charAt(pos++) - '0');
+			if (++digits > 9)
+				return UNDEFINED;
+		}
+		if (digits < 4)
+			return UNDEFINED;
+		if (negativeYear)
+			year = -year;
+		int month = 1, day = 1, hour = 0, minute = 0, second = 0, millis = 0;
+		boolean hasTime = false;
+		if (pos < end && s.charAt(pos) == '-'){
+			month = parse2Digits(s, pos+1, end);
+			pos += 3;
+			if (pos < end && s.charAt(pos) == '-'){
+				day = parse2Digits(s, pos+1, end);
+				pos += 3;
+				if (pos < end && s.charAt(pos) == 'T'){
+					hasTime = true;
+					hour = parse2Digits(s, pos+1, end);
+					if (pos+3 >= end || s.charAt(pos+3) != ':')
+						return UNDEFINED;
+					minute = parse2Digits(s, pos+4, end);
+					if (pos+6 >= end || s.charAt(pos+6) != ':')
+						return UNDEFINED;
+					second = parse2Digits(s, pos+7, end);
+					pos += 9;
+					if (pos < end && s.charAt(pos) == '.'){
+						pos++;
+						int scale = 100, n = 0;
+						while (pos < end && isDigit(s.charAt(pos))){
+							millis += (s.charAt(pos++) - '0') * scale;
+							scale /= 10;
+							n++;
+						}
+						if (n == 0)
+							return UNDEFINED;
+					}
+				}
+			}
+		}
+		if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+				|| hour < 0 || hour > 24 || minute < 0 || minute > 59 || second < 0 || second > 60
+				|| (hour == 24 && (minute != 0 || second != 0 || millis != 0)))
+			return UNDEFINED;
+		long time = daysFromCivil(year, month, day)*MS_PER_DAY + ((hour*60L + minute)*60L + second)*1000L + millis;
+		if (pos == end)
+			return time - localOffset(time);
+		if (!hasTime && s.charAt(pos) != 'Z' && s.charAt(pos) != '+' && s.charAt(pos) != '-')
+			return UNDEFINED;
+		//time zone:
+		char c = s.charAt(pos);
+		if (c == 'Z')
+			return (pos+1 == end ? time : UNDEFINED);
+		if (c != '+' && c != '-')
+			return UNDEFINED;
+		int offsetHours = parse2Digits(s, pos+1, end);
+		int offsetMinutes = 0;
+		pos += 3;
+		if (pos < end && s.charAt(pos) == ':')
+			pos++;
+		if (pos < end){
+			offsetMinutes = parse2Digits(s, pos, end);
+			pos += 2;
+		}
+		if (pos != end || offsetHours < 0 || offsetHours > 14 || offsetMinutes < 0 || offsetMinutes > 59)
+			return UNDEFINED;
+		long offset = (offsetHours*60L + offsetMinutes)*60L*1000L;
+		return (c == '+' ? time - offset : time + offset);
+	}
+
+	protected static boolean isDigit(char c){
+		return c >= '0' && c <= '9';
+	}
+
+	/** @return the value of the 2 digits at pos, or -1 if invalid */
+	protected static int parse2Digits(CharSequence s, int pos, int end){
+		if (pos+2 > end)
+			return -1;
+		char c1 = s.charAt(pos), c2 = s.charAt(pos+1);
+		if (!isDigit(c1) || !isDigit(c2))
+			return -1;
+		return (c1 - '0')*10 + (c2 - '0');
+	}
+
+	protected static boolean isLeapYear(long year){
+		return (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+	}
+
+	protected static int daysInMonth(long year, int month){
+		switch (month){
+			case 2: return isLeapYear(year) ? 29 : 28;
+			case 4: case 6: case 9: case 11: return 30;
+			default: return 31;
+		}
+	}
+
+	/** @return number of days since 1970-01-01 of this date in the proleptic Gregorian calendar */
+	protected static long daysFromCivil(long year, int month, int day){
+		year -= (month <= 2 ? 1 : 0);
+		long era = (year >= 0 ? year : year-399) / 400;
+		long yearOfEra = year - era*400;
+		long dayOfYear = (153*(month + (month > 2 ? -3 : 9)) + 2)/5 + day-1;
+		long dayOfEra = yearOfEra*365 + yearOfEra/4 - yearOfEra/100 + dayOfYear;
+		return era*146097 + dayOfEra - 719468;
+	}
+
+	/** @return offset of the default time zone, for a local time expressed as if it was UTC */
+	protected static long localOffset(long localTime){
+		TimeZone timeZone = TimeZone.getDefault();
+		return timeZone.getOffset(localTime - timeZone.getRawOffset());
+	}
+
+	/**
+	 * Write the time as a KML dateTime in UTC: yyyy-MM-ddThh:mm:ssZ, with milliseconds if not 0.
+	 * @param out
+	 * @param time in milliseconds since the epoch
+	 */
+	public static void format(Appendable out, long time) throws IOException {
+		long days = time / MS_PER_DAY;
+		long ms = time - days*MS_PER_DAY;
+		if (ms < 0){
+			days--;
+			ms += MS_PER_DAY;
+		}
+		//civil from days:
+		long z = days + 719468;
+		long era = (z >= 0 ? z : z - 146096) / 146097;
+		long dayOfEra = z - era*146097;
+		long yearOfEra = (dayOfEra - dayOfEra/1460 + dayOfEra/36524 - dayOfEra/146096) / 365;
+		long dayOfYear = dayOfEra - (365*yearOfEra + yearOfEra/4 - yearOfEra/100);
+		long mp = (5*dayOfYear + 2)/153;
+		int day = (int)(dayOfYear - (153*mp + 2)/5 + 1);
+		int month = (int)(mp < 10 ? mp+3 : mp-9);
+		long year = yearOfEra + era*400 + (month <= 2 ? 1 : 0);
+		if (year < 0){
+			out.append('-');
+			year = -year;
+		}
+		appendDigits(out, year, 4);
+		out.append('-');
+		appendDigits(out, month, 2);
+		out.append('-');
+		appendDigits(out, day, 2);
+		out.append('T');
+		appendDigits(out, ms / 3600000, 2);
+		out.append(':');
+		appendDigits(out, (ms / 60000) % 60, 2);
+		out.append(':');
+		appendDigits(out, (ms / 1000) % 60, 2);
+		if (ms % 1000 != 0){
+			out.append('.');
+			appendDigits(out, ms % 1000, 3);
+		}
+		out.append('Z');
+	}
+
+	/** @return the time as a KML dateTime in UTC */
+	public static String format(long time){
+		StringBuilder s = new StringBuilder(24);
+		try {
+			format(s, time);
+		} catch (IOException e){
+			//cannot happen with a StringBuilder
+		}
+		return s.toString();
+	}
+
+	/** append the value with at least minDigits, zero-padded */
+	protected static void appendDigits(Appendable out, long value, int minDigits) throws IOException {
+		long divisor = 1;
+		for (int i=1; i<minDigits; i++)
+			divisor *= 10;
+		while (divisor*10 <= value)
+			divisor *= 10;
+		for (; divisor>0; divisor/=10)
+			out.append((char)('0' + (value/divisor) % 10));
+	}
+}
@@ -1,18 +1,15 @@
 package org.osmdroid.bonuspack.kml;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.os.Build;
 import android.os.Environment;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.Log;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 
 import org.osmdroid.bonuspack.utils.BonusPackHelper;
@@ -23,7 +20,10 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -31,15 +31,19 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.zip.ZipEntry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipFile;
 
 import javax.xml.parsers.SAXParser;
@@ -75,6 +79,14 @@ public class KmlDocument implements Parcelable {
 	
 	/** Local File that has been loaded. null if this is not a local file. */
 	protected File mLocalFile;
+	/** Max number of NetworkLinks loaded concurrently. 0 or 1: loaded one after the other, during parsing. */
+	protected int mNetworkLinkThreads;
+	/** true to keep parsed coordinates in packed form */
+	protected boolean mPackCoordinates;
+	/** element handlers plugged in the parser, by qualified element name - null if none */
+	protected HashMap<String, KmlElementHandler> mElementHandlers;
+	/** handler of the elements not supported by the parser and not registered - null if none */
+	protected KmlElementHandler mUnknownElementHandler;
 
 	/** default constructor, with the kmlRoot as an empty Folder */
 	public KmlDocument(){
@@ -82,9 +94,43 @@ public class KmlDocument implements Parcelable {
 		mMaxStyleId = 0;
 		mKmlRoot = new KmlFolder();
 		mLocalFile = null;
+		mNetworkLinkThreads = 0;
 	}
 
-	/** @return the Shared Styles */
+	/**
+	 * Set how NetworkLinks are loaded by next parsings. <br>
+	 * By default (0 or 1), each NetworkLink is loaded as soon as it is met, during the parsing. <br>
+	 * With more threads, NetworkLinks hrefs are collected during the parsing, 
+	 * then their sub-documents are fetched and parsed concurrently, using at most this number of threads. 
+	 * Sub-documents are grafted in their NetworkLink, and their Shared Styles merged, in document order, 
+	 * so the result is the same as with a sequential loading. 
+	 * Note that in streaming mode, NetworkLinks are given to the FeatureListener before being loaded. 
+	 * @param threads max number of NetworkLinks loaded at the same time
+	 */
+	public void setNetworkLinkThreads(int threads){
+		mNetworkLinkThreads = threads;
+	}
+
+	public int getNetworkLinkThreads(){
+		return mNetworkLinkThreads;
+	}
+
+	/**
+	 * Set how next parsings hold the coordinates of geometries. <br>
+	 * By default (false), they are GeoPoints, in the public fields KmlGeometry.mCoordinates, KmlPolygon.mHoles and KmlTrack.mWhen. <br>
+	 * When true, they are kept in packed form, which uses much less memory on large documents. 
+	 * The public fields are then null: use the accessors (getCoordinates(), getHoles(), getWhen()...) instead. 
+	 * @param pack
+	 */
+	public void setPackCoordinates(boolean pack){
+		mPackCoordinates = pack;
+	}
+
+	public boolean getPackCoordinates(){
+		return mPackCoordinates;
+	}
+
+	/** @return the Shared Styles. If you modify them directly, call invalidateStyleCache. */
 	public HashMap<String, StyleSelector> getStyles(){
 		return mStyles;
 	}
@@ -107,6 +153,17 @@ public class KmlDocument implements Parcelable {
 		else //if (s instanceof Style)
 			return (Style)s;
 	}
+
+	/** 
+	 * Release the Paints and icons shared by the Styles. 
+	 * To call after a direct modification of the Shared Styles or of their content. 
+	 */
+	public void invalidateStyleCache(){
+		for (StyleSelector s:mStyles.values()){
+			if (s instanceof Style)
+				((Style)s).invalidateSharedObjects();
+		}
+	}
 	
 	/** put the StyleSelector (Style or StyleMap) in the list of Shared Styles, associated to its styleId */
 	public void putStyle(String styleId, StyleSelector styleSelector){
@@ -161,38 +218,10 @@ public class KmlDocument implements Parcelable {
 	
 	/** KML coordinates are: lon,lat{,alt} tuples separated by separators (space, tab, cr). */
 	protected static ArrayList<GeoPoint> parseKmlCoordinates(String input){
-		LinkedList<GeoPoint> tmpCoords = new LinkedList<GeoPoint>();
-		int i = 0;
-		int tupleStart = 0;
-		int length = input.length();
-		boolean startReadingTuple = false;
-		while (i<length){
-			char c = input.charAt(i);
-			if (c==' '|| c=='\n' || c=='\t'){
-				if (startReadingTuple){ //just ending coords portion:
-					String tuple = input.substring(tupleStart, i);
-					GeoPoint p = parseKmlCoord(tuple);
-					if (p != null)
-						tmpCoords.add(p);
-					startReadingTuple = false;
-				}
-			} else { //data
-				if (!startReadingTuple){ //just ending space portion
-					startReadingTuple = true;
-					tupleStart = i;
-				}
-				if (i == length-1){ //at the end => handle last tuple:
-					String tuple = input.substring(tupleStart, i+1);
-					GeoPoint p = parseKmlCoord(tuple);
-					if (p != null)
-						tmpCoords.add(p);
-				}
-			}
-			i++;
-		}
-		ArrayList<GeoPoint> coordinates = new ArrayList<GeoPoint>(tmpCoords.size());
-		coordinates.addAll(tmpCoords);
-		return coordinates;
+		KmlCoordinatesDecoder decoder = new KmlCoordinatesDecoder(new PackedCoordinates());
+		char[] chars = input.toCharArray();
+		decoder.decode(chars, 0, chars.length);
+		return decoder.finish().toGeoPoints();
 	}
 	
 	/**
@@ -263,6 +292,30 @@ public class KmlDocument implements Parcelable {
 		return ok;
 	}
 	
+	/**
+	 * Parse a KML document from a file, in streaming mode.
+	 * @param file full file path
+	 * @param listener receiving each Feature as soon as it has been parsed.
+	 * @return true if OK, false if any error.
+	 * @see #parseKMLStream(InputStream, KmzContainer, FeatureListener)
+	 */
+	public boolean parseKMLFile(File file, FeatureListener listener){
+		mLocalFile = file;
+		Log.d(BonusPackHelper.LOG_TAG, "KmlProvider.parseKMLFile:"+mLocalFile.getAbsolutePath());
+		InputStream stream;
+		boolean ok;
+		try {
+			stream = new BufferedInputStream(new FileInputStream(mLocalFile));
+			ok = parseKMLStream(stream, (KmzContainer)null, listener);
+			stream.close();
+		} catch (Exception e){
+			e.printStackTrace();
+			ok = false;
+		}
+		Log.d(BonusPackHelper.LOG_TAG, "KmlProvider.parseFile - end");
+		return ok;
+	}
+
 	/** 
 	 * Parse a local KMZ document. 
 	 * @param file full file path
@@ -272,22 +325,14 @@ public class KmlDocument implements Parcelable {
 		mLocalFile = file;
 		Log.d(BonusPackHelper.LOG_TAG, "KmlProvider.parseKMZFile:"+mLocalFile.getAbsolutePath());
 		try {
-			ZipFile kmzFile = new ZipFile(mLocalFile);
-			String rootFileName = null;
-			//Iterate in the KMZ to find the first ".kml" file:
-			Enumeration<? extends ZipEntry> list = kmzFile.entries();
-			while (list.hasMoreElements() && rootFileName == null){
-				ZipEntry ze = list.nextElement();
-				String name = ze.getName();
-				if (name.endsWith(".kml") && !name.contains("/"))
-					rootFileName = name;
-			}
+			KmzContainer kmzFile = new KmzContainer(mLocalFile);
+			//the first ".kml" file in the KMZ:
+			String rootFileName = kmzFile.getRootKmlName();
 			boolean result;
 			if (rootFileName != null){
-				ZipEntry rootEntry = kmzFile.getEntry(rootFileName);
-				InputStream stream = kmzFile.getInputStream(rootEntry);
+				InputStream stream = kmzFile.getInputStream(rootFileName);
 				Log.d(BonusPackHelper.LOG_TAG, "KML root:"+rootFileName);
-				result = parseKMLStream(stream, kmzFile);
+				result = parseKMLStream(stream, kmzFile, null);
 			} else {
 				Log.d(BonusPackHelper.LOG_TAG, "No .kml entry found.");
 				result = false;
@@ -307,12 +352,86 @@ public class KmlDocument implements Parcelable {
 	 * @return true if OK, false if any error. 
 	 */
 	public boolean parseKMLStream(InputStream stream, ZipFile kmzContainer){
-		KmlSaxHandler handler = new KmlSaxHandler(mLocalFile, kmzContainer);
+		return parseKMLStream(stream, kmzContainer, null);
+	}
+
+	/**
+	 * Parse a KML content from an InputStream, in streaming mode. 
+	 * @param stream the InputStream
+	 * @param kmzContainer KMZ file containing this KML file - or null if not applicable. It is reopened as a KmzContainer. 
+	 * @param listener receiving each Feature. If null, all Features are kept. 
+	 * @return true if OK, false if any error. 
+	 * @see #parseKMLStream(InputStream, KmzContainer, FeatureListener)
+	 */
+	public boolean parseKMLStream(InputStream stream, ZipFile kmzContainer, FeatureListener listener){
+		KmzContainer kmz = null;
+		if (kmzContainer != null){
+			try {
+				kmz = new KmzContainer(new File(kmzContainer.getName()));
+			} catch (IOException e) {
+				e.printStackTrace();
+				return false;
+			}
+		}
+		boolean ok = parseKMLStream(stream, kmz, listener);
+		if (kmz != null)
+			kmz.close();
+		return ok;
+	}
+
+	/**
+	 * Plug a handler in the parser for an element, for next parsings of this document (and of its NetworkLinks). 
+	 * @param name qualified name of the element, as used in KML files: "ExtendedData", "gx:MultiTrack", ... 
+	 * An element with the "kml:" prefix (e.g. "kml:Placemark") is matched on its local name. 
+	 * @param handler the handler, or null to remove the current one
+	 */
+	public void registerElementHandler(String name, KmlElementHandler handler){
+		if (mElementHandlers == null)
+			mElementHandlers = new HashMap<String, KmlElementHandler>();
+		if (handler != null)
+			mElementHandlers.put(name, handler);
+		else
+			mElementHandlers.remove(name);
+	}
+
+	/** @param handler called for all elements which are neither supported by the parser nor registered - null for none */
+	public void setUnknownElementHandler(KmlElementHandler handler){
+		mUnknownElementHandler = handler;
+	}
+
+	/**
+	 * Receives the Features of a KML content as soon as they have been fully parsed. 
+	 * This allows to filter, index or render huge KML files without holding the whole KML structure in memory. 
+	 */
+	public interface FeatureListener {
+		/**
+		 * Called each time a Placemark, GroundOverlay, Folder or NetworkLink element is closed. 
+		 * A Folder is reported after all its content. 
+		 * @param feature the Feature just parsed
+		 * @param parent the Folder which will contain this Feature
+		 * @return true to keep the Feature in its parent, false to drop it. 
+		 */
+		boolean onFeature(KmlFeature feature, KmlFolder parent);
+	}
+
+	/**
+	 * Parse a KML content from an InputStream, in streaming mode. 
+	 * Each Feature is given to the listener as soon as it is closed, and is only kept in the KML structure if the listener asks for it. 
+	 * Shared Styles are always kept in the document. 
+	 * @param stream the InputStream
+	 * @param kmzContainer KMZ container of this KML file - or null if not applicable. 
+	 * @param listener receiving each Feature. If null, all Features are kept. 
+	 * @return true if OK, false if any error. 
+	 */
+	public boolean parseKMLStream(InputStream stream, KmzContainer kmzContainer, FeatureListener listener){
+		KmlSaxHandler handler = new KmlSaxHandler(mLocalFile, kmzContainer, listener);
 		boolean ok;
 		try {
 			SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
 			parser.parse(stream, handler);
+			handler.loadPendingNetworkLinks();
 			mKmlRoot = handler.mKmlRoot;
+			mKmlRoot.getCachedBoundingBox(); //computed once, while parsing in the background
 			ok = true;
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -375,9 +494,58 @@ public class KmlDocument implements Parcelable {
 		KEYWORDS_DICTIONARY.put("value", KmlKeywords.value);
 	}
 
-	protected class KmlSaxHandler extends DefaultHandler {
+	/** what to do for an element: its built-in processing and/or its plugged handler */
+	protected static class ElementEntry {
+		final KmlKeywords mKeyword;
+		final KmlElementHandler mHandler;
+
+		ElementEntry(KmlKeywords keyword, KmlElementHandler handler){
+			mKeyword = keyword;
+			mHandler = handler;
+		}
+	}
+
+	/** entry of elements neither supported nor registered */
+	protected static final ElementEntry UNKNOWN_ELEMENT = new ElementEntry(null, null);
+
+	/** elements supported by default: the keywords, and handlers shipped with the library */
+	protected static HashMap<String, ElementEntry> BUILTIN_ELEMENTS;
+	static {
+		BUILTIN_ELEMENTS = new HashMap<String, ElementEntry>();
+		for (Map.Entry<String, KmlKeywords> keyword:KEYWORDS_DICTIONARY.entrySet())
+			BUILTIN_ELEMENTS.put(keyword.getKey(), new ElementEntry(keyword.getValue(), null));
+		BUILTIN_ELEMENTS.put("gx:MultiTrack", new ElementEntry(null, new MultiTrackHandler()));
+	}
+
+	/** gx:MultiTrack: parsed as a MultiGeometry of its gx:Tracks */
+	protected static class MultiTrackHandler implements KmlElementHandler {
+		@Override public void onStartElement(Context context, String name, Attributes attributes){
+			KmlMultiGeometry multiTrack = new KmlMultiGeometry();
+			multiTrack.mId = attributes.getValue("id");
+			context.pushGeometry(multiTrack);
+		}
+		@Override public void onEndElement(Context context, String name, CharSequence text){
+			if (context.getCurrentGeometry() instanceof KmlMultiGeometry)
+				context.popGeometry();
+		}
+	}
+
+	/** A NetworkLink met during the parsing, whose loading has been deferred */
+	protected static class PendingNetworkLink {
+		final KmlFolder mFolder;
+		final String mHref;
+
+		PendingNetworkLink(KmlFolder folder, String href){
+			mFolder = folder;
+			mHref = href;
+		}
+	}
+
+	protected class KmlSaxHandler extends DefaultHandler implements KmlElementHandler.Context {
 		
 		private StringBuilder mStringBuilder = new StringBuilder(1024);
+		private KmlCoordinatesDecoder mCoordinatesDecoder = new KmlCoordinatesDecoder(null);
+		private boolean mIsCoordinates; //inside a coordinates element: chars go to mCoordinatesDecoder
 		private KmlFeature mKmlCurrentFeature;
 		private KmlGroundOverlay mKmlCurrentGroundOverlay; //if GroundOverlay, pointer to mKmlCurrentFeature
 		private ArrayList<KmlFeature> mKmlFeatureStack;
@@ -393,22 +561,99 @@ public class KmlDocument implements Parcelable {
 		boolean mIsNetworkLink;
 		boolean mIsInnerBoundary;
 		File mFile; //to get the path of relative sub-files
-		ZipFile mKMZFile;
+		KmzContainer mKMZFile;
+		FeatureListener mFeatureListener; //null if not streaming
+		ArrayList<PendingNetworkLink> mPendingNetworkLinks; //NetworkLinks to load after the parsing
+		HashMap<String, Integer> mStyleLinkCounts; //for each shared style, number of pending NetworkLinks met before its last definition
 		double mNorth, mEast, mSouth, mWest;
+		/** elements to process, by qualified name */
+		HashMap<String, ElementEntry> mElements;
+		KmlElementHandler mUnknownHandler;
 		
-		public KmlSaxHandler(File file, ZipFile kmzContainer){
+		public KmlSaxHandler(File file, KmzContainer kmzContainer){
+			this(file, kmzContainer, null);
+		}
+
+		public KmlSaxHandler(File file, KmzContainer kmzContainer, FeatureListener listener){
 			mFile = file;
 			mKMZFile = kmzContainer;
+			mFeatureListener = listener;
 			mKmlRoot = new KmlFolder();
 			mKmlFeatureStack = new ArrayList<KmlFeature>();
 			mKmlFeatureStack.add(mKmlRoot);
 			mKmlGeometryStack = new ArrayList<KmlGeometry>();
 			mIsNetworkLink = false;
 			mIsInnerBoundary = false;
+			mPendingNetworkLinks = new ArrayList<PendingNetworkLink>();
+			mStyleLinkCounts = new HashMap<String, Integer>();
+			if (mElementHandlers == null || mElementHandlers.isEmpty())
+				mElements = BUILTIN_ELEMENTS;
+			else {
+				mElements = new HashMap<String, ElementEntry>(BUILTIN_ELEMENTS);
+				for (Map.Entry<String, KmlElementHandler> handler:mElementHandlers.entrySet()){
+					ElementEntry builtin = BUILTIN_ELEMENTS.get(handler.getKey());
+					mElements.put(handler.getKey(), new ElementEntry(builtin != null ? builtin.mKeyword : null, handler.getValue()));
+				}
+			}
+			mUnknownHandler = mUnknownElementHandler;
+		}
+
+		/** @return the entry of this element name - UNKNOWN_ELEMENT if none */
+		protected ElementEntry lookupElement(String name){
+			ElementEntry entry = mElements.get(name);
+			if (entry == null){
+				//explicit KML namespace prefix: match on the local name. 
+				//Other namespaces (atom:name, gx:value...) have their own elements. 
+				if (name.startsWith("kml:"))
+					entry = mElements.get(name.substring(4));
+				if (entry == null)
+					entry = UNKNOWN_ELEMENT;
+			}
+			return entry;
+		}
+
+		//KmlElementHandler.Context implementation:
+
+		@Override public KmlDocument getDocument(){
+			return KmlDocument.this;
+		}
+
+		@Override public KmlFeature getCurrentFeature(){
+			return mKmlCurrentFeature;
+		}
+
+		@Override public KmlGeometry getCurrentGeometry(){
+			return mKmlCurrentGeometry;
+		}
+
+		@Override public void pushGeometry(KmlGeometry geometry){
+			mKmlCurrentGeometry = geometry;
+			mKmlGeometryStack.add(geometry); //push on Geometry stack
+		}
+
+		@Override public void popGeometry(){
+			if (!mPackCoordinates)
+				mKmlCurrentGeometry.unpack();
+			if (mKmlGeometryStack.size() == 1) {
+				//no MultiGeometry parent: add this Geometry in the current Feature:
+				if (mKmlCurrentFeature instanceof KmlPlacemark)
+					((KmlPlacemark) mKmlCurrentFeature).mGeometry = mKmlCurrentGeometry;
+				mKmlGeometryStack.remove(mKmlGeometryStack.size() - 1); //pop current from stack
+				mKmlCurrentGeometry = null;
+			} else {
+				KmlMultiGeometry parent = (KmlMultiGeometry) mKmlGeometryStack.get(mKmlGeometryStack.size() - 2); //get parent
+				parent.addItem(mKmlCurrentGeometry); //add current in its parent
+				mKmlGeometryStack.remove(mKmlGeometryStack.size() - 1); //pop current from stack
+				mKmlCurrentGeometry = mKmlGeometryStack.get(mKmlGeometryStack.size() - 1); //set current to top of stack
+			}
 		}
 		
-		protected void loadNetworkLink(String href, ZipFile kmzContainer){
+		/** @return the sub-document referenced by a NetworkLink href, or null if it cannot be read */
+		protected KmlDocument readNetworkLink(String href, KmzContainer kmzContainer){
 			KmlDocument subDocument = new KmlDocument();
+			subDocument.mPackCoordinates = mPackCoordinates;
+			subDocument.mElementHandlers = mElementHandlers;
+			subDocument.mUnknownElementHandler = mUnknownElementHandler;
 			boolean ok;
 			if (href.startsWith("http://") || href.startsWith("https://") )
 				ok = subDocument.parseKMLUrl(href);
@@ -417,155 +662,248 @@ public class KmlDocument implements Parcelable {
 				ok = subDocument.parseKMLFile(subFile);
 			} else {
 				try {
-					final ZipEntry fileEntry = kmzContainer.getEntry(href);
-					InputStream stream = kmzContainer.getInputStream(fileEntry);
+					InputStream stream = kmzContainer.getInputStream(href);
 					Log.d(BonusPackHelper.LOG_TAG, "Load NetworkLink:"+href);
-					ok = subDocument.parseKMLStream(stream, kmzContainer);
+					ok = subDocument.parseKMLStream(stream, kmzContainer, null);
 				} catch (Exception e) {
 					ok = false;
 				}
 			}
-			if (ok){
-				//add subDoc root to the current feature, which is -normally- the NetworkLink:
-				((KmlFolder)mKmlCurrentFeature).add(subDocument.mKmlRoot);
-				//add all subDocument styles to mStyles:
-				mStyles.putAll(subDocument.mStyles);
-			} else {
+			if (ok)
+				return subDocument;
+			else {
 				Log.e(BonusPackHelper.LOG_TAG, "Error reading NetworkLink:"+href);
+				return null;
+			}
+		}
+
+		/** add the sub-document content in the NetworkLink folder, and its styles in mStyles */
+		protected void graftNetworkLink(KmlFolder networkLink, KmlDocument subDocument){
+			networkLink.add(subDocument.mKmlRoot);
+			mStyles.putAll(subDocument.mStyles);
+		}
+
+		/** 
+		 * Graft a NetworkLink loaded after the parsing. As with the loading during the parsing, 
+		 * its styles replace the styles of the document defined before the NetworkLink, but not the ones defined after. 
+		 * @param linkIndex index of the NetworkLink in mPendingNetworkLinks
+		 */
+		protected void graftNetworkLink(KmlFolder networkLink, KmlDocument subDocument, int linkIndex){
+			networkLink.add(subDocument.mKmlRoot);
+			for (Map.Entry<String, StyleSelector> entry:subDocument.mStyles.entrySet()){
+				Integer linkCount = mStyleLinkCounts.get(entry.getKey());
+				if (linkCount == null || linkCount <= linkIndex)
+					mStyles.put(entry.getKey(), entry.getValue());
+			}
+		}
+
+		/** record when a shared style has been defined, relatively to the pending NetworkLinks */
+		protected void recordStyle(String styleId){
+			if (mNetworkLinkThreads > 1)
+				mStyleLinkCounts.put(styleId, mPendingNetworkLinks.size());
+		}
+
+		protected void loadNetworkLink(String href, KmzContainer kmzContainer){
+			if (mNetworkLinkThreads > 1){
+				//defer the loading after the parsing:
+				mPendingNetworkLinks.add(new PendingNetworkLink((KmlFolder)mKmlCurrentFeature, href));
+				return;
+			}
+			KmlDocument subDocument = readNetworkLink(href, kmzContainer);
+			if (subDocument != null){
+				//add subDoc root to the current feature, which is -normally- the NetworkLink:
+				graftNetworkLink((KmlFolder)mKmlCurrentFeature, subDocument);
 			}
 		}
 
+		/** Load concurrently all NetworkLinks collected during the parsing, and graft them in document order. */
+		protected void loadPendingNetworkLinks(){
+			int n = mPendingNetworkLinks.size();
+			if (n == 0)
+				return;
+			ExecutorService executor = Executors.newFixedThreadPool(Math.min(mNetworkLinkThreads, n));
+			ArrayList<Future<KmlDocument>> results = new ArrayList<Future<KmlDocument>>(n);
+			for (final PendingNetworkLink link:mPendingNetworkLinks){
+				results.add(executor.submit(new Callable<KmlDocument>() {
+					@Override public KmlDocument call(){
+						return readNetworkLink(link.mHref, mKMZFile);
+					}
+				}));
+			}
+			for (int i=0; i<n; i++){
+				KmlDocument subDocument;
+				try {
+					subDocument = results.get(i).get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				} catch (ExecutionException e) {
+					e.printStackTrace();
+					subDocument = null;
+				}
+				if (subDocument != null)
+					graftNetworkLink(mPendingNetworkLinks.get(i).mFolder, subDocument, i);
+			}
+			executor.shutdownNow();
+			mPendingNetworkLinks.clear();
+			mStyleLinkCounts.clear();
+		}
+
 		public void startElement(String uri, String localName, String name,
 								 Attributes attributes) throws SAXException {
-			KmlKeywords element = KEYWORDS_DICTIONARY.get(name);
-			if (element != null) {
-				switch (element) {
-					case Document: {
-						//TODO Issue #397 :
-						// if (on a déjà un Document) {qu'est-ce qu'on fait ?...}
-						mKmlCurrentFeature = mKmlRoot; //If there is a Document, it will be the root.
-						mKmlCurrentFeature.mId = attributes.getValue("id");
-						break;
-					}
-					case Folder: {
-						mKmlCurrentFeature = new KmlFolder();
-						mKmlCurrentFeature.mId = attributes.getValue("id");
-						mKmlFeatureStack.add(mKmlCurrentFeature); //push on stack
-						break;
-					}
-					case NetworkLink: {
-						mKmlCurrentFeature = new KmlFolder();
-						mKmlCurrentFeature.mId = attributes.getValue("id");
-						mKmlFeatureStack.add(mKmlCurrentFeature); //push on stack
-						mIsNetworkLink = true;
-						break;
-					}
-					case GroundOverlay: {
-						mKmlCurrentGroundOverlay = new KmlGroundOverlay();
-						mKmlCurrentFeature = mKmlCurrentGroundOverlay;
-						mKmlCurrentFeature.mId = attributes.getValue("id");
-						mKmlFeatureStack.add(mKmlCurrentFeature); //push on stack
-						break;
-					}
-					case Placemark: {
-						mKmlCurrentFeature = new KmlPlacemark();
-						mKmlCurrentFeature.mId = attributes.getValue("id");
-						mKmlFeatureStack.add(mKmlCurrentFeature); //push on Feature stack
-						break;
-					}
-					case Point: {
-						mKmlCurrentGeometry = new KmlPoint();
-						mKmlGeometryStack.add(mKmlCurrentGeometry); //push on Geometry stack
-						break;
-					}
-					case LineString: {
-						mKmlCurrentGeometry = new KmlLineString();
-						mKmlGeometryStack.add(mKmlCurrentGeometry);
-						break;
-					}
-					case gx_Track: {
-						mKmlCurrentGeometry = new KmlTrack();
-						mKmlGeometryStack.add(mKmlCurrentGeometry);
-						break;
-					}
-					case Polygon: {
-						mKmlCurrentGeometry = new KmlPolygon();
-						mKmlGeometryStack.add(mKmlCurrentGeometry);
-						break;
-					}
-					case innerBoundaryIs: {
-						mIsInnerBoundary = true;
-						break;
-					}
-					case MultiGeometry: {
-						mKmlCurrentGeometry = new KmlMultiGeometry();
-						mKmlGeometryStack.add(mKmlCurrentGeometry);
-						break;
-					}
-					case Style: {
-						mCurrentStyle = new Style();
-						mCurrentStyleId = attributes.getValue("id");
-						break;
-					}
-					case StyleMap: {
-						mCurrentStyleMap = new StyleMap();
-						mCurrentStyleId = attributes.getValue("id");
-						break;
-					}
-					case LineStyle: {
-						mCurrentStyle.mLineStyle = new LineStyle();
-						mColorStyle = mCurrentStyle.mLineStyle;
-						break;
-					}
-					case PolyStyle: {
-						mCurrentStyle.mPolyStyle = new ColorStyle();
-						mColorStyle = mCurrentStyle.mPolyStyle;
-						break;
-					}
-					case IconStyle: {
-						mCurrentStyle.mIconStyle = new IconStyle();
-						mColorStyle = mCurrentStyle.mIconStyle;
-						break;
-					}
-					case hotSpot: {
-						if (mCurrentStyle != null && mColorStyle != null && mColorStyle instanceof IconStyle) {
-							mCurrentStyle.mIconStyle.mHotSpot = new HotSpot(
-									Float.parseFloat(attributes.getValue("x")),
-									Float.parseFloat(attributes.getValue("y")),
-									attributes.getValue("xunits"),
-									attributes.getValue("yunits")
-							);
-					/*
-					if ("fraction".equals(attributes.getValue("xunits")))
-						mCurrentStyle.mIconStyle.mHotSpotX = Float.parseFloat(attributes.getValue("x"));
-					if ("fraction".equals(attributes.getValue("yunits")))
-						mCurrentStyle.mIconStyle.mHotSpotY = Float.parseFloat(attributes.getValue("y"));
-					*/
-						}
-						break;
-					}
-					case Data:
-					case SimpleData: {
-						mDataName = attributes.getValue("name");
-						break;
-					}
-					default:
-						break;
-				} //switch
-			} //if element not null
+			ElementEntry entry = lookupElement(name);
+			if (entry.mKeyword != null)
+				startKeyword(entry.mKeyword, attributes);
 			mStringBuilder.setLength(0);
+			if (entry.mHandler != null)
+				entry.mHandler.onStartElement(this, name, attributes);
+			else if (entry == UNKNOWN_ELEMENT && mUnknownHandler != null)
+				mUnknownHandler.onStartElement(this, name, attributes);
+		}
+
+		/** built-in processing of the start of a supported element */
+		protected void startKeyword(KmlKeywords element, Attributes attributes){
+			switch (element) {
+				case Document: {
+					//TODO Issue #397 :
+					// if (on a déjà un Document) {qu'est-ce qu'on fait ?...}
+					mKmlCurrentFeature = mKmlRoot; //If there is a Document, it will be the root.
+					mKmlCurrentFeature.mId = attributes.getValue("id");
+					break;
+				}
+				case Folder: {
+					mKmlCurrentFeature = new KmlFolder();
+					mKmlCurrentFeature.mId = attributes.getValue("id");
+					mKmlFeatureStack.add(mKmlCurrentFeature); //push on stack
+					break;
+				}
+				case NetworkLink: {
+					mKmlCurrentFeature = new KmlFolder();
+					mKmlCurrentFeature.mId = attributes.getValue("id");
+					mKmlFeatureStack.add(mKmlCurrentFeature); //push on stack
+					mIsNetworkLink = true;
+					break;
+				}
+				case GroundOverlay: {
+					mKmlCurrentGroundOverlay = new KmlGroundOverlay();
+					mKmlCurrentFeature = mKmlCurrentGroundOverlay;
+					mKmlCurrentFeature.mId = attributes.getValue("id");
+					mKmlFeatureStack.add(mKmlCurrentFeature); //push on stack
+					break;
+				}
+				case Placemark: {
+					mKmlCurrentFeature = new KmlPlacemark();
+					mKmlCurrentFeature.mId = attributes.getValue("id");
+					mKmlFeatureStack.add(mKmlCurrentFeature); //push on Feature stack
+					break;
+				}
+				case Point: {
+					mKmlCurrentGeometry = new KmlPoint();
+					mKmlGeometryStack.add(mKmlCurrentGeometry); //push on Geometry stack
+					break;
+				}
+				case LineString: {
+					mKmlCurrentGeometry = new KmlLineString();
+					mKmlGeometryStack.add(mKmlCurrentGeometry);
+					break;
+				}
+				case gx_Track: {
+					mKmlCurrentGeometry = new KmlTrack();
+					mKmlGeometryStack.add(mKmlCurrentGeometry);
+					break;
+				}
+				case Polygon: {
+					mKmlCurrentGeometry = new KmlPolygon();
+					mKmlGeometryStack.add(mKmlCurrentGeometry);
+					break;
+				}
+				case innerBoundaryIs: {
+					mIsInnerBoundary = true;
+					break;
+				}
+				case MultiGeometry: {
+					mKmlCurrentGeometry = new KmlMultiGeometry();
+					mKmlGeometryStack.add(mKmlCurrentGeometry);
+					break;
+				}
+				case Style: {
+					mCurrentStyle = new Style();
+					mCurrentStyleId = attributes.getValue("id");
+					break;
+				}
+				case StyleMap: {
+					mCurrentStyleMap = new StyleMap();
+					mCurrentStyleId = attributes.getValue("id");
+					break;
+				}
+				case LineStyle: {
+					mCurrentStyle.mLineStyle = new LineStyle();
+					mColorStyle = mCurrentStyle.mLineStyle;
+					break;
+				}
+				case PolyStyle: {
+					mCurrentStyle.mPolyStyle = new ColorStyle();
+					mColorStyle = mCurrentStyle.mPolyStyle;
+					break;
+				}
+				case IconStyle: {
+					mCurrentStyle.mIconStyle = new IconStyle();
+					mColorStyle = mCurrentStyle.mIconStyle;
+					break;
+				}
+				case hotSpot: {
+					if (mCurrentStyle != null && mColorStyle != null && mColorStyle instanceof IconStyle) {
+						mCurrentStyle.mIconStyle.mHotSpot = new HotSpot(
+								Float.parseFloat(attributes.getValue("x")),
+								Float.parseFloat(attributes.getValue("y")),
+								attributes.getValue("xunits"),
+								attributes.getValue("yunits")
+						);
+				/*
+				if ("fraction".equals(attributes.getValue("xunits")))
+					mCurrentStyle.mIconStyle.mHotSpotX = Float.parseFloat(attributes.getValue("x"));
+				if ("fraction".equals(attributes.getValue("yunits")))
+					mCurrentStyle.mIconStyle.mHotSpotY = Float.parseFloat(attributes.getValue("y"));
+				*/
+					}
+					break;
+				}
+				case Data:
+				case SimpleData: {
+					mDataName = attributes.getValue("name");
+					break;
+				}
+				case coordinates: {
+					mCoordinatesDecoder.reset(new PackedCoordinates());
+					mIsCoordinates = true;
+					break;
+				}
+				default:
+					break;
+			} //switch
 		}
 
 		public @Override void characters(char[] ch, int start, int length)
 				throws SAXException {
-			mStringBuilder.append(ch, start, length);
+			if (mIsCoordinates)
+				mCoordinatesDecoder.decode(ch, start, length);
+			else
+				mStringBuilder.append(ch, start, length);
 		}
 
 		public void endElement(String uri, String localName, String name)
 				throws SAXException {
-			KmlKeywords element = KEYWORDS_DICTIONARY.get(name);
-			if (element == null)
-				return;
+			ElementEntry entry = lookupElement(name);
+			if (entry.mKeyword != null)
+				endKeyword(entry.mKeyword);
+			if (entry.mHandler != null)
+				entry.mHandler.onEndElement(this, name, mStringBuilder);
+			else if (entry == UNKNOWN_ELEMENT && mUnknownHandler != null)
+				mUnknownHandler.onEndElement(this, name, mStringBuilder);
+		}
+
+		/** built-in processing of the end of a supported element */
+		protected void endKeyword(KmlKeywords element){
 			switch (element) {
 				case Document: {
 					//Document is the root, nothing to do.
@@ -577,7 +915,8 @@ public class KmlDocument implements Parcelable {
 				case GroundOverlay: {
 					//this was a Feature:
 					KmlFolder parent = (KmlFolder) mKmlFeatureStack.get(mKmlFeatureStack.size() - 2); //get parent
-					parent.add(mKmlCurrentFeature); //add current in its parent
+					if (mFeatureListener == null || mFeatureListener.onFeature(mKmlCurrentFeature, parent))
+						parent.add(mKmlCurrentFeature); //add current in its parent
 					mKmlFeatureStack.remove(mKmlFeatureStack.size() - 1); //pop current from stack
 					mKmlCurrentFeature = mKmlFeatureStack.get(mKmlFeatureStack.size() - 1); //set current to top of stack
 					if (element == KmlKeywords.NetworkLink)
@@ -596,17 +935,7 @@ public class KmlDocument implements Parcelable {
 				case MultiGeometry:
 				case gx_Track: {
 					//this was a Geometry:
-					if (mKmlGeometryStack.size() == 1) {
-						//no MultiGeometry parent: add this Geometry in the current Feature:
-						((KmlPlacemark) mKmlCurrentFeature).mGeometry = mKmlCurrentGeometry;
-						mKmlGeometryStack.remove(mKmlGeometryStack.size() - 1); //pop current from stack
-						mKmlCurrentGeometry = null;
-					} else {
-						KmlMultiGeometry parent = (KmlMultiGeometry) mKmlGeometryStack.get(mKmlGeometryStack.size() - 2); //get parent
-						parent.addItem(mKmlCurrentGeometry); //add current in its parent
-						mKmlGeometryStack.remove(mKmlGeometryStack.size() - 1); //pop current from stack
-						mKmlCurrentGeometry = mKmlGeometryStack.get(mKmlGeometryStack.size() - 1); //set current to top of stack
-					}
+					popGeometry();
 					break;
 				}
 				case name: {
@@ -630,19 +959,17 @@ public class KmlDocument implements Parcelable {
 					break;
 				}
 				case coordinates: {
+					mIsCoordinates = false;
+					PackedCoordinates coords = mCoordinatesDecoder.finish();
 					if (mKmlCurrentFeature instanceof KmlPlacemark) {
 						if (!mIsInnerBoundary) {
-							mKmlCurrentGeometry.mCoordinates = parseKmlCoordinates(mStringBuilder.toString());
+							mKmlCurrentGeometry.setPackedCoordinates(coords);
 						} else { //inside a Polygon innerBoundaryIs element: new hole
-							KmlPolygon polygon = (KmlPolygon) mKmlCurrentGeometry;
-							if (polygon.mHoles == null)
-								polygon.mHoles = new ArrayList<ArrayList<GeoPoint>>();
-							ArrayList<GeoPoint> hole = parseKmlCoordinates(mStringBuilder.toString());
-							polygon.mHoles.add(hole);
+							((KmlPolygon) mKmlCurrentGeometry).addHole(coords);
 						}
 					} else if (mKmlCurrentGroundOverlay != null) {
 						//gx:LatLonQuad coordinates:
-						mKmlCurrentGroundOverlay.setLatLonQuad(parseKmlCoordinates(mStringBuilder.toString()));
+						mKmlCurrentGroundOverlay.setLatLonQuad(coords.toGeoPoints());
 					}
 					break;
 				}
@@ -653,7 +980,7 @@ public class KmlDocument implements Parcelable {
 				}
 				case when: {
 					if (mKmlCurrentGeometry != null && mKmlCurrentGeometry instanceof KmlTrack)
-						((KmlTrack) mKmlCurrentGeometry).addWhen(mStringBuilder.toString());
+						((KmlTrack) mKmlCurrentGeometry).addWhen(mStringBuilder);
 					break;
 				}
 				case styleUrl: {
@@ -711,14 +1038,20 @@ public class KmlDocument implements Parcelable {
 					if (mCurrentStyle != null && mColorStyle != null && mColorStyle instanceof IconStyle) {
 						//href of an Icon in an IconStyle:
 						String href = mStringBuilder.toString();
-						mCurrentStyle.setIcon(href, mFile, mKMZFile);
+						if (mKMZFile != null)
+							mCurrentStyle.setIcon(href, mKMZFile);
+						else
+							mCurrentStyle.setIcon(href, mFile, null);
 					} else if (mIsNetworkLink) {
 						//href of a NetworkLink:
 						String href = mStringBuilder.toString();
 						loadNetworkLink(href, mKMZFile);
 					} else if (mKmlCurrentGroundOverlay != null) {
 						//href of a GroundOverlay Icon:
-						mKmlCurrentGroundOverlay.setIcon(mStringBuilder.toString(), mFile, mKMZFile);
+						if (mKMZFile != null)
+							mKmlCurrentGroundOverlay.setIcon(mStringBuilder.toString(), mKMZFile);
+						else
+							mKmlCurrentGroundOverlay.setIcon(mStringBuilder.toString(), mFile, null);
 					}
 					break;
 				}
@@ -734,6 +1067,7 @@ public class KmlDocument implements Parcelable {
 					else {
 						mCurrentStyleId = addStyle(mCurrentStyle);
 					}
+					recordStyle(mCurrentStyleId);
 					if (mKmlCurrentFeature != null && mKmlCurrentFeature != mKmlRoot) {
 						//this is an inline style. Set its style id to the KmlObject container:
 						mKmlCurrentFeature.mStyle = mCurrentStyleId;
@@ -743,8 +1077,10 @@ public class KmlDocument implements Parcelable {
 					break;
 				}
 				case StyleMap: {
-					if (mCurrentStyleId != null)
+					if (mCurrentStyleId != null){
 						putStyle(mCurrentStyleId, mCurrentStyleMap);
+						recordStyle(mCurrentStyleId);
+					}
 					//TODO: inline StyleMap ???
 					mCurrentStyleMap = null;
 					mCurrentStyleId = null;
@@ -792,7 +1128,7 @@ public class KmlDocument implements Parcelable {
 				}
 				default: break;
 			} //switch
-		} //endElement
+		} //endKeyword
 
 	} //KmlSaxHandler class
 
@@ -830,11 +1166,21 @@ public class KmlDocument implements Parcelable {
 	 * @return false if error
 	 */
 	public boolean saveAsKML(File file){
+		return saveAsKML(file, KmlWriter.FORMAT_KML, KmlWriter.FULL_PRECISION);
+	}
+
+	/**
+	 * Save the document as a KML file, through a KmlWriter. 
+	 * @param file full path of the destination file
+	 * @param format KmlWriter.FORMAT_KML, FORMAT_GZIP (.kml.gz) or FORMAT_KMZ (KML only - see saveAsKMZ to embed images)
+	 * @param decimals number of decimals of coordinates, or KmlWriter.FULL_PRECISION. 
+	 * 7 decimals is about 1 cm, and produces much smaller files. 
+	 * @return false if error
+	 */
+	public boolean saveAsKML(File file, int format, int decimals){
 		try {
 			Log.d(BonusPackHelper.LOG_TAG, "Saving "+file.getAbsolutePath());
-			//FileWriter fw = new FileWriter(file);
-			OutputStreamWriter out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
-			BufferedWriter writer = new BufferedWriter(out, 8192);
+			KmlWriter writer = new KmlWriter(file, format, decimals);
 			boolean result = saveAsKML(writer);
 			writer.close();
 			Log.d(BonusPackHelper.LOG_TAG, "Saved.");
@@ -845,14 +1191,136 @@ public class KmlDocument implements Parcelable {
 		}
 	}
 
-	public boolean saveAsGeoJSON(Writer writer){
-		JsonObject json = mKmlRoot.asGeoJSON(true);
-		if (json == null)
+	/**
+	 * Save the document as a KMZ file, with all icons and GroundOverlay images embedded. 
+	 * Images are written once per distinct content. The original image files are embedded as is 
+	 * when they are available (in the KMZ, or near the KML file, this document has been loaded from). 
+	 * Other images are embedded as PNG. 
+	 * @param file full path of the destination file
+	 * @param decimals number of decimals of coordinates, or KmlWriter.FULL_PRECISION
+	 * @return false if error
+	 */
+	public boolean saveAsKMZ(File file, int decimals){
+		try {
+			Log.d(BonusPackHelper.LOG_TAG, "Saving "+file.getAbsolutePath());
+			ArrayList<Bitmap> bitmaps = new ArrayList<Bitmap>();
+			ArrayList<String> hrefs = new ArrayList<String>();
+			collectImages(bitmaps, hrefs);
+			//read before opening the destination, which can be the source file:
+			ArrayList<byte[]> originals = readOriginalImages(hrefs);
+			KmlWriter writer = new KmlWriter(file, KmlWriter.FORMAT_KMZ, decimals);
+			for (int i=0; i<bitmaps.size(); i++)
+				writer.embedImage(bitmaps.get(i), originals.get(i), hrefs.get(i));
+			boolean result = saveAsKML(writer);
+			writer.close();
+			Log.d(BonusPackHelper.LOG_TAG, "Saved.");
+			return result;
+		} catch (IOException e) {
+			e.printStackTrace();
 			return false;
+		}
+	}
+
+	/** Save the document as a KMZ file, with full precision coordinates */
+	public boolean saveAsKMZ(File file){
+		return saveAsKMZ(file, KmlWriter.FULL_PRECISION);
+	}
+
+	/** collect the icons of the Shared Styles and the images of the GroundOverlays, with their hrefs */
+	protected void collectImages(List<Bitmap> bitmaps, List<String> hrefs){
+		for (StyleSelector styleSelector:mStyles.values()){
+			if (styleSelector instanceof Style){
+				IconStyle iconStyle = ((Style)styleSelector).mIconStyle;
+				if (iconStyle != null && iconStyle.mIcon != null){
+					bitmaps.add(iconStyle.mIcon);
+					hrefs.add(iconStyle.mHref);
+				}
+			}
+		}
+		collectGroundOverlays(mKmlRoot, bitmaps, hrefs);
+	}
+
+	protected void collectGroundOverlays(KmlFolder folder, List<Bitmap> bitmaps, List<String> hrefs){
+		for (KmlFeature item:folder.mItems){
+			if (item instanceof KmlFolder)
+				collectGroundOverlays((KmlFolder)item, bitmaps, hrefs);
+			else if (item instanceof KmlGroundOverlay && ((KmlGroundOverlay)item).mIcon != null){
+				bitmaps.add(((KmlGroundOverlay)item).mIcon);
+				hrefs.add(((KmlGroundOverlay)item).mIconHref);
+			}
+		}
+	}
+
+	/**
+	 * @param hrefs of images of this document
+	 * @return the content of the image files, read from the KMZ, or from the directory of the KML file, 
+	 * this document has been loaded from. null for an image which is not available. 
+	 */
+	protected ArrayList<byte[]> readOriginalImages(List<String> hrefs){
+		ArrayList<byte[]> originals = new ArrayList<byte[]>(hrefs.size());
+		KmzContainer kmz = null;
+		if (mLocalFile != null && mLocalFile.getName().toLowerCase().endsWith(".kmz")){
+			try {
+				kmz = new KmzContainer(mLocalFile);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		HashMap<String, byte[]> read = new HashMap<String, byte[]>();
+		for (String href:hrefs){
+			byte[] content = null;
+			if (href != null && mLocalFile != null && !href.startsWith("http://") && !href.startsWith("https://")){
+				if (read.containsKey(href))
+					content = read.get(href);
+				else {
+					if (kmz != null)
+						content = kmz.getBytes(href);
+					else if (!mLocalFile.getName().toLowerCase().endsWith(".kmz"))
+						content = readLocalFile(new File(mLocalFile.getParentFile(), href));
+					read.put(href, content);
+				}
+			}
+			originals.add(content);
+		}
+		if (kmz != null)
+			kmz.close();
+		return originals;
+	}
+
+	/** @return the content of the file, or null if it cannot be read */
+	protected static byte[] readLocalFile(File file){
+		if (!file.isFile())
+			return null;
+		try {
+			InputStream input = new FileInputStream(file);
+			ByteArrayOutputStream content = new ByteArrayOutputStream((int)file.length());
+			byte[] buffer = new byte[64*1024];
+			int n;
+			while ((n = input.read(buffer)) != -1)
+				content.write(buffer, 0, n);
+			input.close();
+			return content.toByteArray();
+		} catch (IOException e){
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Save the document in GeoJSON format. 
+	 * The KML tree is streamed to the writer: no intermediate JSON object is built. 
+	 * @param writer
+	 * @return false if error
+	 */
+	public boolean saveAsGeoJSON(Writer writer){
 		try {
-			Gson gson = new GsonBuilder().create();
 			JsonWriter jsonWriter = new JsonWriter(writer);
-			gson.toJson(json, jsonWriter);
+			//same output options as a default Gson:
+			jsonWriter.setLenient(true);
+			jsonWriter.setHtmlSafe(true);
+			jsonWriter.setSerializeNulls(false);
+			mKmlRoot.writeGeoJSON(jsonWriter, true);
+			jsonWriter.flush();
 			return true;
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -893,27 +1361,72 @@ public class KmlDocument implements Parcelable {
 	
 	/** Parse a GeoJSON String */
 	public boolean parseGeoJSON(String jsonString){
+		return parseGeoJSON(new JsonReader(new StringReader(jsonString)), null);
+	}
+
+	/** Parse a GeoJSON stream */
+	public boolean parseGeoJSONStream(InputStream stream) {
+		return parseGeoJSONStream(stream, null);
+	}
+
+	/**
+	 * Parse a GeoJSON stream, in streaming mode: the content is read token by token, 
+	 * without building the whole JSON tree in memory. 
+	 * Each Feature of a FeatureCollection is given to the listener as soon as it has been parsed, 
+	 * and is only kept if the listener asks for it. 
+	 * @param stream UTF-8 GeoJSON content
+	 * @param listener receiving each Feature. If null, all Features are kept. 
+	 * @return true if OK, false if any error. 
+	 */
+	public boolean parseGeoJSONStream(InputStream stream, FeatureListener listener) {
 		try {
-			JsonElement json = JsonParser.parseString(jsonString);
-			return parseGeoJSON(json.getAsJsonObject());
-		} catch (JsonSyntaxException e) {
+			Reader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"), 64*1024);
+			return parseGeoJSON(new JsonReader(reader), listener);
+		} catch (IOException e) {
 			e.printStackTrace();
 			return false;
 		}
 	}
 
-	/** Parse a GeoJSON stream */
-	public boolean parseGeoJSONStream(InputStream stream) {
-		JsonElement json = JsonParser.parseReader(new InputStreamReader(stream));
-		return parseGeoJSON(json.getAsJsonObject());
+	protected boolean parseGeoJSON(JsonReader reader, FeatureListener listener){
+		//lenient, as JsonParser was: NaN, comments, single quotes...
+		reader.setLenient(true);
+		try {
+			GeoJSONReader geoJSONReader = new GeoJSONReader(reader, listener);
+			geoJSONReader.setPackCoordinates(mPackCoordinates);
+			KmlFeature feature = geoJSONReader.readFeature();
+			if (feature instanceof KmlFolder)
+				mKmlRoot = (KmlFolder)feature;
+			else {
+				mKmlRoot = new KmlFolder();
+				if (feature != null)
+					mKmlRoot.add(feature);
+			}
+			mKmlRoot.getCachedBoundingBox();
+			return true;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return false;
+		}
 	}
 
 	/** Parse a GeoJSON File */
 	public boolean parseGeoJSON(File file){
+		return parseGeoJSON(file, null);
+	}
+
+	/**
+	 * Parse a GeoJSON File, in streaming mode. 
+	 * @param file
+	 * @param listener receiving each Feature. If null, all Features are kept. 
+	 * @return true if OK, false if any error. 
+	 * @see #parseGeoJSONStream(InputStream, FeatureListener)
+	 */
+	public boolean parseGeoJSON(File file, FeatureListener listener){
 		mLocalFile = file;
 		try {
 			FileInputStream input = new FileInputStream(mLocalFile);
-			boolean ok = parseGeoJSONStream(input);
+			boolean ok = parseGeoJSONStream(input, listener);
 			input.close();
 			return ok;
 		} catch (Exception e) {
@@ -922,6 +1435,97 @@ public class KmlDocument implements Parcelable {
 		}
 	}
 	
+	//Binary format ------------
+
+	/**
+	 * Write the whole document in a compact binary format. 
+	 * Reloading it with parseBinaryFile is much faster than parsing the original KML. 
+	 * Coordinates are rounded to 1E-7 degrees, and altitudes to the mm. 
+	 * @param out
+	 * @see KmlBinaryWriter
+	 */
+	public void writeBinary(KmlBinaryWriter out){
+		out.writeString(mLocalFile != null ? mLocalFile.getAbsolutePath() : null);
+		out.writeVarint(mMaxStyleId);
+		out.writeVarint(mStyles.size());
+		for (Map.Entry<String, StyleSelector> entry:mStyles.entrySet()){
+			out.writeString(entry.getKey());
+			out.writeStyleSelector(entry.getValue());
+		}
+		out.writeFeature(mKmlRoot);
+	}
+
+	/**
+	 * Save the whole document in a compact binary file. 
+	 * Images read from the KML or KMZ file are stored as they are in this file, other images as PNG. 
+	 * @param file
+	 * @return true if OK, false if any error. 
+	 * @see #writeBinary(KmlBinaryWriter)
+	 */
+	public boolean saveAsBinary(File file){
+		try {
+			KmlBinaryWriter writer = new KmlBinaryWriter();
+			ArrayList<Bitmap> bitmaps = new ArrayList<Bitmap>();
+			ArrayList<String> hrefs = new ArrayList<String>();
+			collectImages(bitmaps, hrefs);
+			ArrayList<byte[]> originals = readOriginalImages(hrefs);
+			for (int i=0; i<bitmaps.size(); i++)
+				writer.setOriginalImage(bitmaps.get(i), originals.get(i));
+			writeBinary(writer);
+			BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(file), 8192);
+			writer.writeTo(out);
+			out.close();
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Read a document written with writeBinary. Replaces the current content. 
+	 * @param in
+	 * @throws IOException if the content is invalid. 
+	 */
+	public void readBinary(KmlBinaryReader in) throws IOException {
+		String filePath = in.readString();
+		int maxStyleId = (int)in.readVarint();
+		int size = (int)in.readVarint();
+		HashMap<String, StyleSelector> styles = new HashMap<String, StyleSelector>(size*2);
+		for (int i=0; i<size; i++){
+			String key = in.readString();
+			styles.put(key, in.readStyleSelector());
+		}
+		KmlFeature root = in.readFeature();
+		if (!(root instanceof KmlFolder))
+			throw new IOException("Invalid KML binary root");
+		mLocalFile = (filePath != null ? new File(filePath) : null);
+		mMaxStyleId = maxStyleId;
+		mStyles = styles;
+		mKmlRoot = (KmlFolder)root;
+		mKmlRoot.getCachedBoundingBox();
+	}
+
+	/**
+	 * Parse a binary file written with saveAsBinary. 
+	 * @param file
+	 * @return true if OK, false if any error. 
+	 */
+	public boolean parseBinaryFile(File file){
+		Log.d(BonusPackHelper.LOG_TAG, "KmlProvider.parseBinaryFile:"+file.getAbsolutePath());
+		try {
+			InputStream stream = new FileInputStream(file);
+			KmlBinaryReader reader = new KmlBinaryReader(stream);
+			reader.setPackCoordinates(mPackCoordinates);
+			stream.close();
+			readBinary(reader);
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
 	//Parcelable implementation ------------
 
 	@Override public int describeContents() {
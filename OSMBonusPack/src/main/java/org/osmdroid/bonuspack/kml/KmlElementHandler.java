@@ -0,0 +1,44 @@
+package org.osmdroid.bonuspack.kml;
+
+import org.xml.sax.Attributes;
+
+/**
+ * Handler of a KML element, plugged in the KML parser with KmlDocument.registerElementHandler. <br>
+ * Allows to support elements ignored by the parser (gx:MultiTrack, ExtendedData/SchemaData details,
+ * application-specific elements...) without subclassing the whole SAX handler.
+ * For an element the parser already supports, the handler is called after the built-in processing. <br>
+ * A handler can be registered on several documents and used by concurrent parsings: it should not hold parsing state,
+ * or keep it in the current feature or geometry.
+ */
+public interface KmlElementHandler {
+
+	/** Access to the parsing state, given to the handlers */
+	interface Context {
+		/** @return the document being parsed */
+		KmlDocument getDocument();
+		/** @return the Feature being parsed (the root folder when outside any Feature) */
+		KmlFeature getCurrentFeature();
+		/** @return the Geometry being parsed, or null */
+		KmlGeometry getCurrentGeometry();
+		/** Start a new Geometry: it becomes the current one, and child Geometries will be added in it if it is a KmlMultiGeometry. */
+		void pushGeometry(KmlGeometry geometry);
+		/** End the current Geometry: add it in its parent KmlMultiGeometry, or set it as the geometry of the current Placemark. */
+		void popGeometry();
+	}
+
+	/**
+	 * Called at the start of the element.
+	 * @param context parsing state
+	 * @param name qualified name of the element, as found in the file (e.g. "gx:MultiTrack")
+	 * @param attributes of the element
+	 */
+	void onStartElement(Context context, String name, Attributes attributes);
+
+	/**
+	 * Called at the end of the element.
+	 * @param context parsing state
+	 * @param name qualified name of the element
+	 * @param text content of the element, only valid during this call. Only meaningful for elements without child elements.
+	 */
+	void onEndElement(Context context, String name, CharSequence text);
+}
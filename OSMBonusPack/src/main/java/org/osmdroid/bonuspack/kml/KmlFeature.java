@@ -2,7 +2,9 @@ package org.osmdroid.bonuspack.kml;
 
 import android.os.Parcel;
 import android.os.Parcelable;
+import com.google.gson.Gson;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.osmdroid.util.BoundingBox;
 import org.osmdroid.views.MapView;
@@ -53,7 +55,8 @@ public abstract class KmlFeature implements Parcelable, Cloneable {
 	//-----------------------------------------------------
 	//abstract methods
 	
-	/** @return the bounding box of all contained geometries - null if no geometry */
+	/** @return the bounding box of all contained geometries, computed each time - null if no geometry. 
+	 * See getCachedBoundingBox for repeated uses. */
 	public abstract BoundingBox getBoundingBox();
 	
 	/**
@@ -91,6 +94,17 @@ public abstract class KmlFeature implements Parcelable, Cloneable {
 
 	/** return this as GeoJSON object */
 	public abstract JsonObject asGeoJSON(boolean isRoot);
+
+	/** 
+	 * Write this as a GeoJSON object, streamed to the JsonWriter, without building the JsonObject. 
+	 * Nothing is written if this feature has no GeoJSON representation. 
+	 * Default implementation writes asGeoJSON, subclasses stream their content directly. 
+	 */
+	public void writeGeoJSON(JsonWriter out, boolean isRoot) throws IOException {
+		JsonObject json = asGeoJSON(isRoot);
+		if (json != null)
+			new Gson().toJson(json, out);
+	}
 	
 	//-----------------------------------------------------
 	
@@ -100,6 +114,36 @@ public abstract class KmlFeature implements Parcelable, Cloneable {
 		mOpen = true;
 	}
 
+	//Bounding box cache ------------
+
+	/** folder whose cached bounding box includes the bounding box of this feature - set when it is computed, null if none */
+	protected KmlFolder mBoundingBoxParent;
+
+	/** drop the cached bounding boxes including the bounding box of this feature, up in the hierarchy */
+	protected void notifyBoundingBoxChanged(){
+		KmlFolder parent = mBoundingBoxParent;
+		if (parent != null){
+			mBoundingBoxParent = null;
+			parent.notifyBoundingBoxChanged();
+		}
+	}
+
+	/** 
+	 * @return the bounding box, which may be cached: it must not be modified. null if no geometry. 
+	 * By default, this is getBoundingBox(). 
+	 */
+	public BoundingBox getCachedBoundingBox(){
+		return getBoundingBox();
+	}
+
+	/** 
+	 * Tell that the geometries or the items of this feature have been modified directly (not through their methods), 
+	 * so that its cached bounding box, and those of the folders containing it, are recomputed. 
+	 */
+	public void invalidateBoundingBox(){
+		notifyBoundingBoxChanged();
+	}
+
 	/**
 	 * @param C KmlGeometry subclass to compare
 	 * @return true if this a KML Placemark containing a KML Geometry of class C. 
@@ -252,9 +296,35 @@ public abstract class KmlFeature implements Parcelable, Cloneable {
 			kmlFeature.mExtendedData = new HashMap<String,String>(mExtendedData.size());
 			kmlFeature.mExtendedData.putAll(mExtendedData);
 		}
+		kmlFeature.mBoundingBoxParent = null;
 		return kmlFeature;
 	}
 
+	//Binary serialization ------------
+
+	/** Write this Feature in the binary format. Sub-classes must first call this method, then write their own attributes. 
+	 * @see KmlBinaryWriter */
+	public void writeBinary(KmlBinaryWriter out){
+		out.writeString(mId);
+		out.writeString(mName);
+		out.writeString(mDescription);
+		out.writeBoolean(mVisibility);
+		out.writeBoolean(mOpen);
+		out.writeString(mStyle);
+		out.writeStringMap(mExtendedData);
+	}
+
+	/** Binary constructor */
+	public KmlFeature(KmlBinaryReader in) throws IOException {
+		mId = in.readString();
+		mName = in.readString();
+		mDescription = in.readString();
+		mVisibility = in.readBoolean();
+		mOpen = in.readBoolean();
+		mStyle = in.readString();
+		mExtendedData = in.readStringMap();
+	}
+
 	//Parcelable implementation ------------
 	
 	@Override public int describeContents() {
@@ -6,10 +6,13 @@ import android.os.Parcelable;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 
 import org.osmdroid.bonuspack.clustering.MarkerClusterer;
 import org.osmdroid.bonuspack.overlays.GroundOverlay;
+import org.osmdroid.bonuspack.utils.RTree;
 import org.osmdroid.util.BoundingBox;
+import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.MapView;
 import org.osmdroid.views.overlay.FolderOverlay;
 import org.osmdroid.views.overlay.Marker;
@@ -30,6 +33,13 @@ public class KmlFolder extends KmlFeature implements Cloneable, Parcelable {
 
 	/** List of KML Features it contains */
 	public ArrayList<KmlFeature> mItems;
+	/** optional spatial index on the features - null if not built */
+	protected RTree<KmlFeature> mSpatialIndex;
+	/** if true, the spatial index contains the features of the sub-folders, instead of the sub-folders */
+	protected boolean mSpatialIndexRecursive;
+	/** cached bounding box, valid until a bounding box changes in the folder */
+	protected BoundingBox mBoundingBox;
+	protected boolean mBoundingBoxValid;
 
 	public KmlFolder(){
 		super();
@@ -64,6 +74,7 @@ public class KmlFolder extends KmlFeature implements Cloneable, Parcelable {
 		}
 	}
 	
+	/** @return the bounding box of all items, computed each time, so it reflects any modification. */
 	@Override public BoundingBox getBoundingBox(){
 		BoundingBox BB = null;
 		for (KmlFeature item:mItems) {
@@ -78,6 +89,38 @@ public class KmlFolder extends KmlFeature implements Cloneable, Parcelable {
 		}
 		return BB;
 	}
+
+	/** 
+	 * @return the bounding box of all items, computed from the cached bounding boxes of the items. 
+	 * It is cached until a bounding box changes in the folder: it must not be modified. 
+	 * Items added or removed directly in mItems require a call to invalidateBoundingBox. 
+	 */
+	@Override public BoundingBox getCachedBoundingBox(){
+		if (!mBoundingBoxValid){
+			double north = -Double.MAX_VALUE, east = -Double.MAX_VALUE, south = Double.MAX_VALUE, west = Double.MAX_VALUE;
+			boolean found = false;
+			for (KmlFeature item:mItems) {
+				item.mBoundingBoxParent = this;
+				BoundingBox itemBB = item.getCachedBoundingBox();
+				if (itemBB != null){
+					north = Math.max(north, itemBB.getLatNorth());
+					east = Math.max(east, itemBB.getLonEast());
+					south = Math.min(south, itemBB.getLatSouth());
+					west = Math.min(west, itemBB.getLonWest());
+					found = true;
+				}
+			}
+			mBoundingBox = (found ? new BoundingBox(north, east, south, west) : null);
+			mBoundingBoxValid = true;
+		}
+		return mBoundingBox;
+	}
+
+	@Override protected void notifyBoundingBoxChanged(){
+		mBoundingBoxValid = false;
+		mBoundingBox = null;
+		super.notifyBoundingBoxChanged();
+	}
 	
 	/** 
 	 * Converts the overlay to a KmlFeature and add it inside this. 
@@ -114,7 +157,7 @@ public class KmlFolder extends KmlFeature implements Cloneable, Parcelable {
 		} else {
 			return false;
 		}
-		mItems.add(kmlItem);
+		add(kmlItem);
 		return true;
 	}
 	
@@ -134,6 +177,21 @@ public class KmlFolder extends KmlFeature implements Cloneable, Parcelable {
 	/** Add an item in the KML Folder, at the end. */
 	public void add(KmlFeature item){
 		mItems.add(item);
+		notifyBoundingBoxChanged();
+		if (mSpatialIndex != null)
+			indexFeature(item);
+	}
+
+	/** 
+	 * Insert an item in the KML Folder, at itemPosition. No check for bad usage (itemPosition out of rank)
+	 * @param itemPosition position of the item, starting from 0. 
+	 * @param item
+	 */
+	public void add(int itemPosition, KmlFeature item){
+		mItems.add(itemPosition, item);
+		notifyBoundingBoxChanged();
+		if (mSpatialIndex != null)
+			indexFeature(item);
 	}
 	
 	/** 
@@ -142,7 +200,126 @@ public class KmlFolder extends KmlFeature implements Cloneable, Parcelable {
 	 * @return item removed
 	 */
 	public KmlFeature removeItem(int itemPosition){
-		return mItems.remove(itemPosition);
+		KmlFeature item = mItems.remove(itemPosition);
+		if (item.mBoundingBoxParent == this)
+			item.mBoundingBoxParent = null;
+		notifyBoundingBoxChanged();
+		if (mSpatialIndex != null)
+			unindexFeature(item);
+		return item;
+	}
+
+	//Spatial index ------------
+
+	/**
+	 * Build a spatial index (R-tree) on the features of this folder. 
+	 * Once built, the index is updated by add and removeItem. 
+	 * Features without bounding box are not indexed. 
+	 * Note that the index must be rebuilt if the geometries of indexed features are modified, 
+	 * or, in recursive mode, if features are added or removed directly in sub-folders. 
+	 * @param recurse if true, the features contained in sub-folders are indexed, instead of the sub-folders themselves. 
+	 */
+	public void buildSpatialIndex(boolean recurse){
+		mSpatialIndexRecursive = recurse;
+		ArrayList<KmlFeature> features = new ArrayList<KmlFeature>(mItems.size());
+		for (KmlFeature item:mItems)
+			collectIndexedFeatures(item, features);
+		ArrayList<BoundingBox> boxes = new ArrayList<BoundingBox>(features.size());
+		for (KmlFeature feature:features)
+			boxes.add(feature.getCachedBoundingBox());
+		mSpatialIndex = new RTree<KmlFeature>();
+		mSpatialIndex.load(features, boxes);
+	}
+
+	/** remove the spatial index, if any */
+	public void clearSpatialIndex(){
+		mSpatialIndex = null;
+	}
+
+	/** @return the spatial index, or null if it has not been built */
+	public RTree<KmlFeature> getSpatialIndex(){
+		return mSpatialIndex;
+	}
+
+	protected void collectIndexedFeatures(KmlFeature item, List<KmlFeature> features){
+		if (mSpatialIndexRecursive && item instanceof KmlFolder){
+			for (KmlFeature subItem:((KmlFolder)item).mItems)
+				collectIndexedFeatures(subItem, features);
+		} else
+			features.add(item);
+	}
+
+	protected void indexFeature(KmlFeature item){
+		ArrayList<KmlFeature> features = new ArrayList<KmlFeature>();
+		collectIndexedFeatures(item, features);
+		for (KmlFeature feature:features){
+			BoundingBox bb = feature.getCachedBoundingBox();
+			if (bb != null)
+				mSpatialIndex.insert(feature, bb);
+		}
+	}
+
+	protected void unindexFeature(KmlFeature item){
+		ArrayList<KmlFeature> features = new ArrayList<KmlFeature>();
+		collectIndexedFeatures(item, features);
+		for (KmlFeature feature:features){
+			BoundingBox bb = feature.getCachedBoundingBox();
+			if (bb != null)
+				mSpatialIndex.remove(feature, bb);
+		}
+	}
+
+	/**
+	 * @param bb area to search. It can cross the 180th meridian (west > east). 
+	 * @return the features whose bounding box intersects this area. 
+	 * Uses the spatial index if it has been built, else only the items of this folder are tested, one by one. 
+	 */
+	public ArrayList<KmlFeature> getFeaturesIn(BoundingBox bb){
+		if (mSpatialIndex != null)
+			return mSpatialIndex.search(bb);
+		boolean wrapped = (bb.getLonWest() > bb.getLonEast());
+		ArrayList<KmlFeature> result = new ArrayList<KmlFeature>();
+		for (KmlFeature item:mItems){
+			BoundingBox itemBB = item.getCachedBoundingBox();
+			if (itemBB == null || itemBB.getLatSouth() > bb.getLatNorth() || itemBB.getLatNorth() < bb.getLatSouth())
+				continue;
+			boolean intersects;
+			if (wrapped)
+				intersects = itemBB.getLonEast() >= bb.getLonWest() || itemBB.getLonWest() <= bb.getLonEast();
+			else
+				intersects = itemBB.getLonWest() <= bb.getLonEast() && itemBB.getLonEast() >= bb.getLonWest();
+			if (intersects)
+				result.add(item);
+		}
+		return result;
+	}
+
+	/**
+	 * @param position
+	 * @return the feature whose bounding box is the nearest from this position, or null if none. 
+	 * Uses the spatial index if it has been built, else the items of this folder are tested, one by one. 
+	 * As in the index, distances are approximated in the plane, with longitudes scaled by the cosine of the latitude. 
+	 */
+	public KmlFeature getNearestFeature(GeoPoint position){
+		double lat = position.getLatitude(), lon = position.getLongitude();
+		if (mSpatialIndex != null)
+			return mSpatialIndex.nearest(lat, lon);
+		double lonScale = Math.cos(Math.toRadians(lat));
+		KmlFeature nearest = null;
+		double nearestDistance = Double.MAX_VALUE;
+		for (KmlFeature item:mItems){
+			BoundingBox bb = item.getCachedBoundingBox();
+			if (bb == null)
+				continue;
+			double dLat = Math.max(0.0, Math.max(bb.getLatSouth() - lat, lat - bb.getLatNorth()));
+			double dLon = Math.max(0.0, Math.max(bb.getLonWest() - lon, lon - bb.getLonEast())) * lonScale;
+			double distance = dLat*dLat + dLon*dLon;
+			if (distance < nearestDistance){
+				nearest = item;
+				nearestDistance = distance;
+			}
+		}
+		return nearest;
 	}
 
 	/**
@@ -157,7 +334,7 @@ public class KmlFolder extends KmlFeature implements Cloneable, Parcelable {
 				return f;
 			if (recurse && f instanceof KmlFolder) {
 				//if it's a folder, search recursively inside:
-				KmlFeature ff = findFeatureId(id, recurse);
+				KmlFeature ff = ((KmlFolder)f).findFeatureId(id, recurse);
 				if (ff != null)
 					return ff;
 			}
@@ -242,11 +419,39 @@ public class KmlFolder extends KmlFeature implements Cloneable, Parcelable {
 		json.addProperty("type", "FeatureCollection");
 		return json;
 	}
+
+	/** Stream this as a GeoJSON FeatureCollection, flattened as in asGeoJSON. */
+	@Override public void writeGeoJSON(JsonWriter out, boolean isRoot) throws IOException {
+		out.beginObject();
+		if (isRoot){
+			out.name("crs").beginObject();
+			out.name("type").value("name");
+			out.name("properties").beginObject().name("name").value("urn:ogc:def:crs:OGC:1.3:CRS84").endObject();
+			out.endObject();
+		}
+		out.name("features").beginArray();
+		writeGeoJSONFeatures(out);
+		out.endArray();
+		out.name("type").value("FeatureCollection");
+		out.endObject();
+	}
+
+	/** write the GeoJSON Features of this folder and of its sub-folders, in a single list */
+	protected void writeGeoJSONFeatures(JsonWriter out) throws IOException {
+		for (KmlFeature item:mItems){
+			if (item instanceof KmlFolder)
+				((KmlFolder)item).writeGeoJSONFeatures(out);
+			else
+				item.writeGeoJSON(out, false);
+		}
+	}
 	
 	//Cloneable implementation ------------------------------------
 
 	public KmlFolder clone(){
 		KmlFolder kmlFolder = (KmlFolder)super.clone();
+		kmlFolder.mSpatialIndex = null;
+		kmlFolder.mBoundingBoxValid = false;
 		if (mItems != null){
 			kmlFolder.mItems = new ArrayList<KmlFeature>(mItems.size());
 			for (KmlFeature item:mItems)
@@ -255,6 +460,26 @@ public class KmlFolder extends KmlFeature implements Cloneable, Parcelable {
 		return kmlFolder;
 	}
 	
+	//Binary serialization ------------
+
+	@Override public void writeBinary(KmlBinaryWriter out){
+		super.writeBinary(out);
+		out.writeVarint(mItems.size());
+		for (KmlFeature item:mItems)
+			out.writeFeature(item);
+	}
+
+	public KmlFolder(KmlBinaryReader in) throws IOException {
+		super(in);
+		int n = (int)in.readVarint();
+		mItems = new ArrayList<KmlFeature>(n);
+		for (int i=0; i<n; i++){
+			KmlFeature item = in.readFeature();
+			if (item != null) //unsupported type
+				mItems.add(item);
+		}
+	}
+
 	//Parcelable implementation ------------
 	
 	@Override public int describeContents() {
@@ -4,8 +4,10 @@ import android.os.Parcel;
 import android.os.Parcelable;
 
 import com.google.gson.JsonArray;
+import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
 
 import org.osmdroid.bonuspack.kml.KmlFeature.Styler;
 import org.osmdroid.util.BoundingBox;
@@ -28,21 +30,276 @@ public abstract class KmlGeometry implements Cloneable, Parcelable {
 	
 	/** KML id attribute, if any. Null if none. */
 	public String mId;
-	/** coordinates of the geometry. If Point, one and only one entry. */
+	/** coordinates of the geometry. If Point, one and only one entry. 
+	 * When not null, this is the reference. 
+	 * @deprecated Null on geometries parsed by a KmlDocument with packed coordinates enabled (see KmlDocument.setPackCoordinates), 
+	 * and after pack(). Use getCoordinates(), setCoordinates() or getPackedCoordinates(). */
+	@Deprecated
 	public ArrayList<GeoPoint> mCoordinates;
+	/** coordinates in packed form - only used when mCoordinates is null */
+	protected PackedCoordinates mPackedCoordinates;
+	/** cached bounding box, valid while the coordinates holder and its size have not changed */
+	protected BoundingBox mBoundingBox;
+	protected boolean mBoundingBoxValid;
+	protected Object mBoundingBoxSource;
+	protected int mBoundingBoxSize;
+	/** placemark or multi-geometry whose bounding box includes the bounding box of this geometry - set when it is computed */
+	protected KmlPlacemark mParentPlacemark;
+	protected KmlMultiGeometry mParentGeometry;
+	/** cached levels of detail, valid while the coordinates holder and its size have not changed */
+	protected LevelsOfDetail mLevelsOfDetail;
+	protected Object mLevelsOfDetailSource;
+	protected int mLevelsOfDetailSize;
+
+	/** min number of points for a line or ring to be displayed with levels of detail */
+	protected static int sLevelsOfDetailMinPoints = 500;
+	/** max error of the simplified lines, in pixels */
+	protected static double sLevelsOfDetailTolerance = 1.0;
 	
 	//-----------------------------------------------------
 	// abstract methods
 	public abstract void saveAsKML(Writer writer);
 	public abstract JsonObject asGeoJSON();
 	public abstract Overlay buildOverlay(MapView map, Style defaultStyle, Styler styler, KmlPlacemark kmlPlacemark, KmlDocument kmlDocument);
-	public abstract BoundingBox getBoundingBox();
 
 	//-----------------------------------------------------
 	
 	public KmlGeometry(){
 	}
 
+	/**
+	 * Set the coordinates as a list of GeoPoints, which becomes the reference. 
+	 * @param coordinates
+	 */
+	public void setCoordinates(ArrayList<GeoPoint> coordinates){
+		mCoordinates = coordinates;
+		mPackedCoordinates = null;
+		invalidateBoundingBox();
+	}
+
+	/**
+	 * Set the coordinates in packed form. 
+	 * GeoPoints will only be materialized when they are actually needed. 
+	 * @param coordinates
+	 */
+	public void setPackedCoordinates(PackedCoordinates coordinates){
+		coordinates.trimToSize();
+		mPackedCoordinates = coordinates;
+		mCoordinates = null;
+		invalidateBoundingBox();
+	}
+
+	/** @return the coordinates in packed form (built if they are currently held as GeoPoints), or null if none. */
+	public PackedCoordinates getPackedCoordinates(){
+		if (mCoordinates != null)
+			return new PackedCoordinates(mCoordinates);
+		else 
+			return mPackedCoordinates;
+	}
+
+	/** Convert the coordinates to the packed form, releasing the GeoPoints. */
+	public void pack(){
+		if (mCoordinates != null){
+			boolean valid = isBoundingBoxValid();
+			setPackedCoordinates(new PackedCoordinates(mCoordinates));
+			if (valid)
+				keepBoundingBox();
+		}
+	}
+
+	/** Convert the packed coordinates to GeoPoints, so that the public fields are set. */
+	public void unpack(){
+		getCoordinates();
+	}
+
+	/** 
+	 * @return the coordinates as a list of GeoPoints, that can be modified. 
+	 * If coordinates were held in packed form, GeoPoints are materialized and become the reference. 
+	 */
+	public ArrayList<GeoPoint> getCoordinates(){
+		if (mCoordinates == null && mPackedCoordinates != null){
+			boolean valid = isBoundingBoxValid();
+			mCoordinates = mPackedCoordinates.toGeoPoints();
+			mPackedCoordinates = null;
+			if (valid)
+				keepBoundingBox();
+		}
+		return mCoordinates;
+	}
+
+	/** 
+	 * @return the coordinates as a list of GeoPoints, without changing how this geometry holds them. 
+	 * Typically to give them to an overlay. Can be null. 
+	 */
+	public ArrayList<GeoPoint> toGeoPoints(){
+		if (mCoordinates == null && mPackedCoordinates != null)
+			return mPackedCoordinates.toGeoPoints();
+		else
+			return mCoordinates;
+	}
+
+	/** @return the number of coordinates, without materializing them */
+	public int getCoordinatesCount(){
+		if (mCoordinates != null)
+			return mCoordinates.size();
+		else if (mPackedCoordinates != null)
+			return mPackedCoordinates.size();
+		else 
+			return 0;
+	}
+
+	/** @return the bounding box of the coordinates, or null if none */
+	protected BoundingBox getCoordinatesBoundingBox(){
+		if (mCoordinates != null)
+			return BoundingBox.fromGeoPoints(mCoordinates);
+		else if (mPackedCoordinates != null)
+			return mPackedCoordinates.getBoundingBox();
+		else 
+			return null;
+	}
+
+	/** @return the current holder of the coordinates */
+	protected Object getCoordinatesSource(){
+		return (mCoordinates != null ? mCoordinates : mPackedCoordinates);
+	}
+
+	protected boolean isBoundingBoxValid(){
+		return mBoundingBoxValid && mBoundingBoxSource == getCoordinatesSource() 
+			&& mBoundingBoxSize == getCoordinatesCount();
+	}
+
+	/** the coordinates holder changed, but not the coordinates: keep the cached bounding box */
+	protected void keepBoundingBox(){
+		mBoundingBoxValid = true;
+		mBoundingBoxSource = getCoordinatesSource();
+		mBoundingBoxSize = getCoordinatesCount();
+	}
+
+	/** @return the bounding box of this geometry, computed without cache. Null if no coordinates. */
+	protected BoundingBox computeBoundingBox(){
+		return getCoordinatesBoundingBox();
+	}
+
+	/** 
+	 * @return the bounding box of this geometry, or null if none. It is computed once, then cached: it must not be modified. 
+	 * The cache is refreshed when coordinates are set or added through the methods of this class, 
+	 * or when the coordinates list is replaced or changes its size. 
+	 * After any other modification of the coordinates, call invalidateBoundingBox, 
+	 * so that the cached bounding boxes of the placemark and folders containing this geometry are also refreshed. 
+	 */
+	public BoundingBox getCachedBoundingBox(){
+		if (!isBoundingBoxValid()){
+			if (mBoundingBoxValid)
+				notifyBoundingBoxChanged(); //coordinates list replaced or resized
+			mBoundingBox = computeBoundingBox();
+			keepBoundingBox();
+		}
+		return mBoundingBox;
+	}
+
+	/** set the placemark or the multi-geometry whose cached bounding box includes the bounding box of this geometry */
+	protected void setBoundingBoxParent(KmlPlacemark placemark, KmlMultiGeometry multiGeometry){
+		mParentPlacemark = placemark;
+		mParentGeometry = multiGeometry;
+	}
+
+	/** drop the cached bounding boxes including the bounding box of this geometry, up in the hierarchy */
+	protected void notifyBoundingBoxChanged(){
+		KmlPlacemark placemark = mParentPlacemark;
+		KmlMultiGeometry multiGeometry = mParentGeometry;
+		mParentPlacemark = null;
+		mParentGeometry = null;
+		if (placemark != null)
+			placemark.notifyBoundingBoxChanged();
+		if (multiGeometry != null)
+			multiGeometry.notifyBoundingBoxChanged();
+	}
+
+	/** @return the bounding box of this geometry, computed each time, so it reflects any modification. Null if none. */
+	public BoundingBox getBoundingBox(){
+		return getCoordinatesBoundingBox();
+	}
+
+	/** To call after a direct modification of the coordinates, so that cached bounding boxes and levels of detail are recomputed. */
+	public void invalidateBoundingBox(){
+		mLevelsOfDetail = null;
+		mBoundingBoxValid = false;
+		mBoundingBox = null;
+		notifyBoundingBoxChanged();
+	}
+
+	/**
+	 * Set how overlays of large lines and polygons are simplified according to the zoom level.
+	 * @param minPoints min number of points of a line or ring to use levels of detail. Integer.MAX_VALUE to disable them.
+	 * @param pixelTolerance max distance between the displayed line and the real one, in pixels. Default is 1.0.
+	 */
+	public static void setLevelsOfDetailParameters(int minPoints, double pixelTolerance){
+		sLevelsOfDetailMinPoints = minPoints;
+		sLevelsOfDetailTolerance = pixelTolerance;
+	}
+
+	/** @return the levels of detail of these coordinates, or null if they are too small to need them */
+	public static LevelsOfDetail buildLevelsOfDetail(PackedCoordinates coordinates){
+		if (coordinates == null || coordinates.size() < sLevelsOfDetailMinPoints)
+			return null;
+		return new LevelsOfDetail(coordinates, sLevelsOfDetailTolerance);
+	}
+
+	/**
+	 * @return the levels of detail of the coordinates, or null if there are too few coordinates. 
+	 * They are computed once, then cached with the same rules as the bounding box. 
+	 */
+	public LevelsOfDetail getLevelsOfDetail(){
+		if (getCoordinatesCount() < sLevelsOfDetailMinPoints)
+			return null;
+		if (mLevelsOfDetail == null || mLevelsOfDetailSource != getCoordinatesSource() 
+				|| mLevelsOfDetailSize != getCoordinatesCount()){
+			PackedCoordinates coordinates = (mCoordinates != null ? new PackedCoordinates(mCoordinates) : mPackedCoordinates);
+			mLevelsOfDetail = new LevelsOfDetail(coordinates, sLevelsOfDetailTolerance);
+			mLevelsOfDetailSource = getCoordinatesSource();
+			mLevelsOfDetailSize = getCoordinatesCount();
+		}
+		return mLevelsOfDetail;
+	}
+
+	/** write the coordinates of this geometry in KML format */
+	protected boolean writeKMLCoordinates(Writer writer){
+		if (mCoordinates != null)
+			return writeKMLCoordinates(writer, mCoordinates);
+		else if (mPackedCoordinates != null)
+			return writeKMLCoordinates(writer, mPackedCoordinates);
+		else 
+			return writeKMLCoordinates(writer, new ArrayList<GeoPoint>(0));
+	}
+
+	/** @return the coordinates of this geometry as a GeoJSON array of Positions */
+	protected JsonArray geoJSONCoordinates(){
+		if (mCoordinates != null)
+			return geoJSONCoordinates(mCoordinates);
+		else if (mPackedCoordinates != null)
+			return geoJSONCoordinates(mPackedCoordinates);
+		else 
+			return new JsonArray();
+	}
+
+	/** 
+	 * Write this as a GeoJSON geometry, streamed to the JsonWriter. 
+	 * Default implementation writes asGeoJSON, subclasses stream their coordinates directly. 
+	 */
+	public void writeGeoJSON(JsonWriter out) throws IOException {
+		new Gson().toJson(asGeoJSON(), out);
+	}
+
+	/** write the coordinates of this geometry as a GeoJSON array of Positions */
+	protected void writeGeoJSONCoordinates(JsonWriter out) throws IOException {
+		if (mCoordinates != null)
+			writeGeoJSONCoordinates(out, mCoordinates);
+		else if (mPackedCoordinates != null)
+			writeGeoJSONCoordinates(out, mPackedCoordinates);
+		else 
+			out.beginArray().endArray();
+	}
+
 	/**
 	 * Write a list of coordinates in KML format. 
 	 * @param writer
@@ -53,7 +310,53 @@ public abstract class KmlGeometry implements Cloneable, Parcelable {
 		try {
 			writer.write("<coordinates>");
 			for (GeoPoint coord:coordinates){
-				writer.write(coord.toInvertedDoubleString());
+				writeKMLCoordinate(writer, coord.getLongitude(), coord.getLatitude(), coord.getAltitude(), ',');
+				writer.write(' ');
+			}
+			writer.write("</coordinates>\n");
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/** 
+	 * Write a double in KML. If the writer is a KmlWriter, its fast fixed-precision formatting is used. 
+	 */
+	public static void writeKMLDouble(Writer writer, double value) throws IOException {
+		if (writer instanceof KmlWriter)
+			((KmlWriter)writer).writeDouble(value);
+		else
+			writer.write(Double.toString(value));
+	}
+
+	/** Write a coordinates tuple in KML: longitude, latitude and altitude, with the separator between values */
+	public static void writeKMLCoordinate(Writer writer, double longitude, double latitude, double altitude, 
+			char separator) throws IOException {
+		if (writer instanceof KmlWriter){
+			((KmlWriter)writer).writeCoordinates(longitude, latitude, altitude, separator);
+		} else {
+			writer.write(Double.toString(longitude));
+			writer.write(separator);
+			writer.write(Double.toString(latitude));
+			writer.write(separator);
+			writer.write(Double.toString(altitude));
+		}
+	}
+
+	/**
+	 * Write packed coordinates in KML format. 
+	 * @param writer
+	 * @param coordinates
+	 * @return false if error
+	 */
+	public static boolean writeKMLCoordinates(Writer writer, PackedCoordinates coordinates){
+		try {
+			writer.write("<coordinates>");
+			for (int i=0; i<coordinates.size(); i++){
+				writeKMLCoordinate(writer, coordinates.getLongitude(i), coordinates.getLatitude(i), 
+						coordinates.getAltitude(i), ',');
 				writer.write(' ');
 			}
 			writer.write("</coordinates>\n");
@@ -92,6 +395,50 @@ public abstract class KmlGeometry implements Cloneable, Parcelable {
 		return json;
 	}
 	
+	/**
+	 * Build an array of Positions in GeoJSON format, from packed coordinates. 
+	 * @param coordinates
+	 * @return the GeoJSON array of Positions. 
+	 */
+	public static JsonArray geoJSONCoordinates(PackedCoordinates coordinates){
+		JsonArray json = new JsonArray();
+		for (int i=0; i<coordinates.size(); i++){
+			JsonArray position = new JsonArray();
+			position.add(new JsonPrimitive(coordinates.getLongitude(i)));
+			position.add(new JsonPrimitive(coordinates.getLatitude(i)));
+			json.add(position);
+		}
+		return json;
+	}
+	
+	/** Write a Position in GeoJSON format. As in geoJSONPosition, altitude is not written. */
+	public static void writeGeoJSONPosition(JsonWriter out, GeoPoint position) throws IOException {
+		out.beginArray();
+		out.value(position.getLongitude());
+		out.value(position.getLatitude());
+		out.endArray();
+	}
+
+	/** Write an array of Positions in GeoJSON format. */
+	public static void writeGeoJSONCoordinates(JsonWriter out, ArrayList<GeoPoint> coordinates) throws IOException {
+		out.beginArray();
+		for (GeoPoint position:coordinates)
+			writeGeoJSONPosition(out, position);
+		out.endArray();
+	}
+
+	/** Write an array of Positions in GeoJSON format, from packed coordinates. */
+	public static void writeGeoJSONCoordinates(JsonWriter out, PackedCoordinates coordinates) throws IOException {
+		out.beginArray();
+		for (int i=0; i<coordinates.size(); i++){
+			out.beginArray();
+			out.value(coordinates.getLongitude(i));
+			out.value(coordinates.getLatitude(i));
+			out.endArray();
+		}
+		out.endArray();
+	}
+
 	public static ArrayList<GeoPoint> cloneArrayOfGeoPoint(ArrayList<GeoPoint> coords){
 		ArrayList<GeoPoint> result = new ArrayList<GeoPoint>(coords.size());
 		for (GeoPoint p:coords)
@@ -154,9 +501,32 @@ public abstract class KmlGeometry implements Cloneable, Parcelable {
 		}
 		if (mCoordinates != null)
 			kmlGeometry.mCoordinates = cloneArrayOfGeoPoint(mCoordinates);
+		if (mPackedCoordinates != null)
+			kmlGeometry.mPackedCoordinates = mPackedCoordinates.clone();
+		kmlGeometry.setBoundingBoxParent(null, null);
 		return kmlGeometry;
 	}
 	
+	//Binary serialization ------------
+
+	/** Write this Geometry in the binary format. Sub-classes must first call this method, then write their own attributes. 
+	 * @see KmlBinaryWriter */
+	public void writeBinary(KmlBinaryWriter out){
+		out.writeString(mId);
+		if (mCoordinates != null)
+			out.writeCoordinates(mCoordinates);
+		else
+			out.writeCoordinates(mPackedCoordinates);
+	}
+
+	/** Binary constructor. Coordinates are kept in packed form. */
+	public KmlGeometry(KmlBinaryReader in) throws IOException {
+		mId = in.readString();
+		PackedCoordinates coordinates = in.readCoordinates();
+		if (coordinates != null)
+			setPackedCoordinates(coordinates);
+	}
+
 	//Parcelable implementation ------------
 	
 	@Override public int describeContents() {
@@ -165,7 +535,7 @@ public abstract class KmlGeometry implements Cloneable, Parcelable {
 
 	@Override public void writeToParcel(Parcel out, int flags) {
 		out.writeString(mId);
-		out.writeList(mCoordinates);
+		out.writeList(toGeoPoints());
 	}
 	
 	public KmlGeometry(Parcel in){
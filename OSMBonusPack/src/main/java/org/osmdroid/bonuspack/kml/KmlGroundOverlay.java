@@ -6,6 +6,7 @@ import android.graphics.Color;
 import android.os.Parcel;
 import android.os.Parcelable;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.osmdroid.bonuspack.overlays.GroundOverlay;
 import org.osmdroid.bonuspack.utils.BonusPackHelper;
@@ -39,6 +40,10 @@ public class KmlGroundOverlay extends KmlFeature implements Cloneable, Parcelabl
 	public float mRotation;
 	/** if LatLonBox: NW and SE points - if gx:LatLonQuad: the 4 geopoints of the nonrectangular quadrilateral */
 	public ArrayList<GeoPoint> mCoordinates;
+	/** cached bounding box, valid while mCoordinates is the same list, with the same size */
+	protected BoundingBox mBoundingBox;
+	protected ArrayList<GeoPoint> mBoundingBoxSource;
+	protected int mBoundingBoxSize;
 
 	public KmlGroundOverlay(){
 		super();
@@ -57,7 +62,23 @@ public class KmlGroundOverlay extends KmlFeature implements Cloneable, Parcelabl
 	}
 	
 	@Override public BoundingBox getBoundingBox(){
-		return BoundingBox.fromGeoPoints(mCoordinates);
+		return (mCoordinates != null ? BoundingBox.fromGeoPoints(mCoordinates) : null);
+	}
+
+	@Override public BoundingBox getCachedBoundingBox(){
+		if (mCoordinates == null)
+			return null;
+		if (mBoundingBoxSource != mCoordinates || mBoundingBoxSize != mCoordinates.size()){
+			mBoundingBox = BoundingBox.fromGeoPoints(mCoordinates);
+			mBoundingBoxSource = mCoordinates;
+			mBoundingBoxSize = mCoordinates.size();
+		}
+		return mBoundingBox;
+	}
+
+	@Override public void invalidateBoundingBox(){
+		mBoundingBoxSource = null;
+		super.invalidateBoundingBox();
 	}
 	
 	/** load the icon from its href. 
@@ -86,16 +107,31 @@ public class KmlGroundOverlay extends KmlFeature implements Cloneable, Parcelabl
 		}
 	}
 	
+	/** load the icon from its href, from a url or from an entry of a KMZ container. 
+	 * @param href either the full url, or the name of an entry in the KMZ. 
+	 * @param kmzContainer current KMZ container
+	 */
+	public void setIcon(String href, KmzContainer kmzContainer){
+		mIconHref = href;
+		if (mIconHref.startsWith("http://") || mIconHref.startsWith("https://")){
+			mIcon = BonusPackHelper.loadBitmap(mIconHref);
+		} else {
+			mIcon = kmzContainer.getBitmap(mIconHref);
+		}
+	}
+	
 	public void setLatLonBox(double north, double south, double east, double west){
 		mCoordinates = new ArrayList<GeoPoint>(2);
 		mCoordinates.add(new GeoPoint(north, west));
 		mCoordinates.add(new GeoPoint(south, east));
+		invalidateBoundingBox();
 	}
 
 	public void setLatLonQuad(ArrayList<GeoPoint> coords){
 		mCoordinates = new ArrayList<GeoPoint>(coords.size());
 		for (GeoPoint g:coords)
 			mCoordinates.add(g.clone());
+		invalidateBoundingBox();
 	}
 
 	/** @return the corresponding GroundOverlay ready to display on the map */
@@ -138,15 +174,21 @@ public class KmlGroundOverlay extends KmlFeature implements Cloneable, Parcelabl
 	@Override public void writeKMLSpecifics(Writer writer){
 		try {
 			writer.write("<color>"+ColorStyle.colorAsKMLString(mColor)+"</color>\n");
-			writer.write("<Icon><href>"+StringEscapeUtils.escapeXml10(mIconHref)+"</href></Icon>\n");
+			String href = KmlWriter.getHref(writer, mIcon, mIconHref);
+			writer.write("<Icon><href>"+StringEscapeUtils.escapeXml10(href)+"</href></Icon>\n");
 			if (mCoordinates.size() == 2) {
 				writer.write("<LatLonBox>");
 				GeoPoint pNW = mCoordinates.get(0);
 				GeoPoint pSE = mCoordinates.get(1);
-				writer.write("<north>" + pNW.getLatitude() + "</north>");
-				writer.write("<south>" + pSE.getLatitude() + "</south>");
-				writer.write("<east>" + pSE.getLongitude() + "</east>");
-				writer.write("<west>" + pNW.getLongitude() + "</west>");
+				writer.write("<north>");
+				KmlGeometry.writeKMLDouble(writer, pNW.getLatitude());
+				writer.write("</north><south>");
+				KmlGeometry.writeKMLDouble(writer, pSE.getLatitude());
+				writer.write("</south><east>");
+				KmlGeometry.writeKMLDouble(writer, pSE.getLongitude());
+				writer.write("</east><west>");
+				KmlGeometry.writeKMLDouble(writer, pNW.getLongitude());
+				writer.write("</west>");
 				writer.write("<rotation>" + mRotation + "</rotation>");
 				writer.write("</LatLonBox>\n");
 			} else {
@@ -163,6 +205,10 @@ public class KmlGroundOverlay extends KmlFeature implements Cloneable, Parcelabl
 		//TODO: GroundOverlay is not supported by GeoJSON. Output enclosing polygon with mColor?
 		return null;
 	}
+
+	@Override public void writeGeoJSON(JsonWriter out, boolean isRoot){
+		//not supported by GeoJSON, see asGeoJSON
+	}
 	
 	//Cloneable implementation ------------------------------------
 
@@ -172,6 +218,26 @@ public class KmlGroundOverlay extends KmlFeature implements Cloneable, Parcelabl
 		return kmlGroundOverlay;
 	}
 	
+	//Binary serialization ------------
+
+	@Override public void writeBinary(KmlBinaryWriter out){
+		super.writeBinary(out);
+		out.writeString(mIconHref);
+		out.writeBitmap(mIcon);
+		out.writeInt(mColor);
+		out.writeFloat(mRotation);
+		out.writeCoordinates(mCoordinates);
+	}
+
+	public KmlGroundOverlay(KmlBinaryReader in) throws IOException {
+		super(in);
+		mIconHref = in.readString();
+		mIcon = in.readBitmap();
+		mColor = in.readInt();
+		mRotation = in.readFloat();
+		mCoordinates = in.readGeoPoints();
+	}
+
 	//Parcelable implementation ------------
 	
 	@Override public int describeContents() {
@@ -0,0 +1,463 @@
+package org.osmdroid.bonuspack.kml;
+
+import android.util.Log;
+
+import org.osmdroid.bonuspack.utils.BonusPackHelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads a local KML file in a KmlDocument, and reloads it incrementally after it has been modified. <br>
+ *
+ * The top-level Features of the file (the children of its Document, or of its kml element) are fingerprinted
+ * by id and by a hash of their byte range. On reload, the Features whose id and content are unchanged are kept as is
+ * (same KmlFeature objects, so their overlays can stay alive), and only the new or modified ones are parsed.
+ * The root Folder of the document is then patched in place. <br>
+ *
+ * Everything outside the top-level Features (Document properties, Shared Styles, ...) is also fingerprinted,
+ * ignoring whitespace. If it changed, the whole file is parsed again.
+ * @see KmlViewportOverlay#refresh()
+ */
+public class KmlIncrementalLoader {
+
+	/** byte range of a top-level Feature in the file */
+	protected static class Segment {
+		String mId;
+		int mStart, mEnd;
+		long mHash;
+		KmlFeature mFeature;
+
+		/** key for matching: unchanged if same id and same content */
+		String getKey(){
+			return mHash + ":" + mId;
+		}
+	}
+
+	protected static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	protected static final long FNV_PRIME = 0x100000001b3L;
+
+	protected KmlDocument mDocument;
+	protected File mFile;
+	/** top-level Features of the last loaded version - null if incremental reload is not possible */
+	protected ArrayList<Segment> mSegments;
+	protected long mHeaderHash;
+	/** scan results of the current content */
+	protected int mContentStart;
+	protected boolean mHasDocument;
+
+	protected boolean mFullReload;
+	protected ArrayList<KmlFeature> mAddedFeatures;
+	protected ArrayList<KmlFeature> mRemovedFeatures;
+
+	/**
+	 * @param document destination of the KML content
+	 * @param file local KML file
+	 */
+	public KmlIncrementalLoader(KmlDocument document, File file){
+		mDocument = document;
+		mFile = file;
+		mAddedFeatures = new ArrayList<KmlFeature>();
+		mRemovedFeatures = new ArrayList<KmlFeature>();
+	}
+
+	public KmlDocument getDocument(){
+		return mDocument;
+	}
+
+	/** @return true if the last load or reload parsed the whole file */
+	public boolean isFullReload(){
+		return mFullReload;
+	}
+
+	/** @return the top-level Features parsed by the last reload (all of them after a full reload) */
+	public List<KmlFeature> getAddedFeatures(){
+		return mAddedFeatures;
+	}
+
+	/** @return the top-level Features removed from the document by the last reload */
+	public List<KmlFeature> getRemovedFeatures(){
+		return mRemovedFeatures;
+	}
+
+	/**
+	 * Parse the whole file, replacing the content of the document.
+	 * @return true if OK
+	 */
+	public boolean load(){
+		byte[] data = readFile();
+		return (data != null && fullLoad(data));
+	}
+
+	/**
+	 * Reload the file, parsing only the top-level Features which changed since the last load or reload.
+	 * Falls back to a full parsing when this is not possible.
+	 * @return true if OK
+	 */
+	public boolean reload(){
+		byte[] data = readFile();
+		if (data == null)
+			return false;
+		//scan results of the current version, restored if the new one cannot be loaded:
+		long headerHash = mHeaderHash;
+		int contentStart = mContentStart;
+		boolean hasDocument = mHasDocument;
+		boolean ok = reload(data);
+		if (!ok){
+			mHeaderHash = headerHash;
+			mContentStart = contentStart;
+			mHasDocument = hasDocument;
+		}
+		return ok;
+	}
+
+	protected boolean reload(byte[] data){
+		long previousHeaderHash = mHeaderHash;
+		ArrayList<Segment> previous = mSegments;
+		ArrayList<Segment> segments = scan(data);
+		if (previous == null || segments == null || mHeaderHash != previousHeaderHash)
+			return fullLoad(data);
+
+		//match unchanged Features:
+		HashMap<String, ArrayDeque<Segment>> unchanged = new HashMap<String, ArrayDeque<Segment>>(previous.size()*2);
+		for (Segment segment:previous){
+			ArrayDeque<Segment> sameKey = unchanged.get(segment.getKey());
+			if (sameKey == null){
+				sameKey = new ArrayDeque<Segment>(1);
+				unchanged.put(segment.getKey(), sameKey);
+			}
+			sameKey.add(segment);
+		}
+		ArrayList<Segment> changed = new ArrayList<Segment>();
+		for (Segment segment:segments){
+			ArrayDeque<Segment> sameKey = unchanged.get(segment.getKey());
+			Segment old = (sameKey != null ? sameKey.poll() : null);
+			if (old != null)
+				segment.mFeature = old.mFeature;
+			else
+				changed.add(segment);
+		}
+
+		//parse the changed Features all together:
+		KmlDocument changes = null;
+		if (changed.size() > 0){
+			changes = parseSegments(data, changed);
+			if (changes == null || changes.mKmlRoot.mItems.size() != changed.size())
+				return fullLoad(data);
+			for (int i=0; i<changed.size(); i++)
+				changed.get(i).mFeature = changes.mKmlRoot.mItems.get(i);
+			mergeStyles(changes);
+		}
+
+		//patch the root Folder:
+		mFullReload = false;
+		mAddedFeatures.clear();
+		mRemovedFeatures.clear();
+		for (Segment segment:changed)
+			mAddedFeatures.add(segment.mFeature);
+		for (ArrayDeque<Segment> sameKey:unchanged.values()){
+			for (Segment old:sameKey)
+				mRemovedFeatures.add(old.mFeature);
+		}
+		KmlFolder root = mDocument.mKmlRoot;
+		root.mItems.clear();
+		for (Segment segment:segments)
+			root.mItems.add(segment.mFeature);
+		root.invalidateBoundingBox();
+		if (root.getSpatialIndex() != null)
+			root.buildSpatialIndex(root.mSpatialIndexRecursive);
+		mDocument.invalidateStyleCache();
+		mSegments = segments;
+		Log.d(BonusPackHelper.LOG_TAG, "KmlIncrementalLoader: " + changed.size() + " features parsed, "
+				+ mRemovedFeatures.size() + " removed, " + (segments.size() - changed.size()) + " kept");
+		return true;
+	}
+
+	protected byte[] readFile(){
+		try {
+			InputStream input = new FileInputStream(mFile);
+			ByteArrayOutputStream content = new ByteArrayOutputStream((int)mFile.length());
+			byte[] buffer = new byte[64*1024];
+			int n;
+			while ((n = input.read(buffer)) != -1)
+				content.write(buffer, 0, n);
+			input.close();
+			return content.toByteArray();
+		} catch (IOException e){
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/** 
+	 * Parse the whole file in a temporary document, then patch the root Folder of the document in place 
+	 * with the new content, and replace its styles. 
+	 * If the parsing fails (typically, a file being written), the document and the segments are not changed. 
+	 */
+	protected boolean fullLoad(byte[] data){
+		KmlDocument parsed = newDocument();
+		if (!parsed.parseKMLStream(new ByteArrayInputStream(data), (KmzContainer)null, null)){
+			mAddedFeatures.clear();
+			mRemovedFeatures.clear();
+			return false;
+		}
+		KmlFolder root = mDocument.mKmlRoot;
+		KmlFolder parsedRoot = parsed.mKmlRoot;
+		mRemovedFeatures.clear();
+		mRemovedFeatures.addAll(root.mItems);
+		root.mId = parsedRoot.mId;
+		root.mName = parsedRoot.mName;
+		root.mDescription = parsedRoot.mDescription;
+		root.mVisibility = parsedRoot.mVisibility;
+		root.mOpen = parsedRoot.mOpen;
+		root.mStyle = parsedRoot.mStyle;
+		root.mExtendedData = parsedRoot.mExtendedData;
+		root.mItems.clear();
+		root.mItems.addAll(parsedRoot.mItems);
+		root.invalidateBoundingBox();
+		root.getCachedBoundingBox();
+		if (root.getSpatialIndex() != null)
+			root.buildSpatialIndex(root.mSpatialIndexRecursive);
+		mDocument.mStyles = parsed.mStyles;
+		mDocument.mMaxStyleId = parsed.mMaxStyleId;
+		mDocument.mLocalFile = mFile;
+		mDocument.invalidateStyleCache();
+		mFullReload = true;
+		mAddedFeatures.clear();
+		mAddedFeatures.addAll(root.mItems);
+		ArrayList<Segment> segments = scan(data);
+		if (segments != null && segments.size() == root.mItems.size()){
+			for (int i=0; i<segments.size(); i++)
+				segments.get(i).mFeature = root.mItems.get(i);
+			mSegments = segments;
+		} else
+			mSegments = null; //next reload will be a full one
+		return true;
+	}
+
+	/** @return a temporary document to parse the file, with the same parsing settings as the document */
+	protected KmlDocument newDocument(){
+		KmlDocument document = new KmlDocument();
+		document.mLocalFile = mFile;
+		document.setNetworkLinkThreads(mDocument.getNetworkLinkThreads());
+		document.setPackCoordinates(mDocument.getPackCoordinates());
+		document.mElementHandlers = mDocument.mElementHandlers;
+		document.mUnknownElementHandler = mDocument.mUnknownElementHandler;
+		return document;
+	}
+
+	/** parse the changed segments in a temporary document, with the same prolog as the file */
+	protected KmlDocument parseSegments(byte[] data, List<Segment> changed){
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		content.write(data, 0, mContentStart);
+		for (Segment segment:changed){
+			content.write(data, segment.mStart, segment.mEnd - segment.mStart);
+			content.write('\n');
+		}
+		byte[] end = (mHasDocument ? "</Document></kml>" : "</kml>").getBytes();
+		content.write(end, 0, end.length);
+		KmlDocument changes = newDocument();
+		//generated style ids must not collide with the ids of the document:
+		changes.mMaxStyleId = mDocument.mMaxStyleId;
+		if (!changes.parseKMLStream(new ByteArrayInputStream(content.toByteArray()), (KmzContainer)null, null))
+			return null;
+		return changes;
+	}
+
+	/**
+	 * Add the styles defined in the changed Features in the document.
+	 * Generated (numeric) ids don't collide, as they follow the max style id of the document.
+	 */
+	protected void mergeStyles(KmlDocument changes){
+		for (Map.Entry<String, StyleSelector> entry:changes.mStyles.entrySet())
+			mDocument.putStyle(entry.getKey(), entry.getValue());
+	}
+
+	//Scanning ------------
+
+	protected static boolean isFeature(String name){
+		return "Placemark".equals(name) || "Folder".equals(name)
+				|| "GroundOverlay".equals(name) || "NetworkLink".equals(name);
+	}
+
+	/**
+	 * Find the byte ranges of the top-level Features, and compute the fingerprints.
+	 * Sets mHeaderHash, mContentStart and mHasDocument.
+	 * @return the segments, or null if the structure is not supported
+	 */
+	protected ArrayList<Segment> scan(byte[] data){
+		ArrayList<Segment> segments = new ArrayList<Segment>();
+		int n = data.length;
+		int pos = 0;
+		int depth = 0;
+		int containerDepth = -1;
+		boolean firstChild = true;
+		Segment current = null;
+		int headerFrom = 0;
+		long headerHash = FNV_OFFSET;
+		mHasDocument = false;
+		mContentStart = -1;
+		while (pos < n){
+			if (data[pos] != '<'){
+				pos++;
+				continue;
+			}
+			int tagStart = pos;
+			if (startsWith(data, pos, "<!--")){
+				pos = indexOf(data, pos+4, "-->") + 3;
+			} else if (startsWith(data, pos, "<![CDATA[")){
+				pos = indexOf(data, pos+9, "]]>") + 3;
+			} else if (startsWith(data, pos, "<?")){
+				pos = indexOf(data, pos+2, "?>") + 2;
+			} else if (startsWith(data, pos, "<!")){
+				pos = indexOf(data, pos+2, ">") + 1;
+			} else if (pos+1 < n && data[pos+1] == '/'){
+				pos = indexOf(data, pos+2, ">") + 1;
+				depth--;
+				if (current != null && depth == containerDepth){
+					current.mEnd = pos;
+					current.mHash = hash(FNV_OFFSET, data, current.mStart, current.mEnd, false);
+					segments.add(current);
+					current = null;
+					headerFrom = pos;
+				}
+			} else {
+				int tagEnd = endOfTag(data, pos+1);
+				if (tagEnd < 0)
+					return null;
+				pos = tagEnd + 1;
+				boolean selfClosing = (data[tagEnd-1] == '/');
+				String name = elementName(data, tagStart+1);
+				depth++;
+				if (depth == 1){
+					containerDepth = 1;
+					mContentStart = pos;
+				} else if (depth == 2 && containerDepth == 1 && firstChild){
+					firstChild = false;
+					if ("Document".equals(name) && !selfClosing){
+						containerDepth = 2;
+						mContentStart = pos;
+						mHasDocument = true;
+					}
+				}
+				if (current == null && depth == containerDepth+1 && isFeature(name)){
+					headerHash = hash(headerHash, data, headerFrom, tagStart, true);
+					current = new Segment();
+					current.mStart = tagStart;
+					current.mId = attributeValue(data, tagStart, tagEnd, "id");
+					if (selfClosing){
+						current.mEnd = pos;
+						current.mHash = hash(FNV_OFFSET, data, current.mStart, current.mEnd, false);
+						segments.add(current);
+						current = null;
+						headerFrom = pos;
+					}
+				}
+				if (selfClosing)
+					depth--;
+			}
+			if (pos < tagStart) //unterminated markup
+				return null;
+		}
+		if (current != null || mContentStart < 0)
+			return null;
+		mHeaderHash = hash(headerHash, data, headerFrom, n, true);
+		return segments;
+	}
+
+	/** FNV-1a hash of a byte range, optionally ignoring ASCII whitespace */
+	protected static long hash(long hash, byte[] data, int from, int to, boolean skipWhitespace){
+		for (int i=from; i<to; i++){
+			byte b = data[i];
+			if (skipWhitespace && (b == ' ' || b == '\n' || b == '\r' || b == '\t'))
+				continue;
+			hash ^= (b & 0xFF);
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+
+	protected static boolean startsWith(byte[] data, int pos, String s){
+		if (pos + s.length() > data.length)
+			return false;
+		for (int i=0; i<s.length(); i++){
+			if (data[pos+i] != s.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/** @return the position of s in data from pos, or -1 if not found */
+	protected static int indexOf(byte[] data, int pos, String s){
+		for (int i=pos; i+s.length()<=data.length; i++){
+			if (startsWith(data, i, s))
+				return i;
+		}
+		return -1;
+	}
+
+	/** @return the position of the '>' ending the tag, skipping quoted attribute values - or -1 */
+	protected static int endOfTag(byte[] data, int pos){
+		byte quote = 0;
+		for (int i=pos; i<data.length; i++){
+			byte b = data[i];
+			if (quote != 0){
+				if (b == quote)
+					quote = 0;
+			} else if (b == '"' || b == '\'')
+				quote = b;
+			else if (b == '>')
+				return i;
+		}
+		return -1;
+	}
+
+	protected static String elementName(byte[] data, int pos){
+		int end = pos;
+		while (end < data.length && data[end] != '>' && data[end] != '/'
+				&& data[end] != ' ' && data[end] != '\n' && data[end] != '\r' && data[end] != '\t')
+			end++;
+		return new String(data, pos, end-pos);
+	}
+
+	/** @return the value of the attribute in the start tag [tagStart, tagEnd], or null */
+	protected static String attributeValue(byte[] data, int tagStart, int tagEnd, String attribute){
+		String tag;
+		try {
+			tag = new String(data, tagStart, tagEnd - tagStart, "UTF-8");
+		} catch (IOException e){
+			return null;
+		}
+		int i = tag.indexOf(' ');
+		while (i >= 0 && i < tag.length()){
+			while (i < tag.length() && Character.isWhitespace(tag.charAt(i)))
+				i++;
+			int equal = tag.indexOf('=', i);
+			if (equal < 0)
+				return null;
+			String name = tag.substring(i, equal).trim();
+			int q = equal + 1;
+			while (q < tag.length() && Character.isWhitespace(tag.charAt(q)))
+				q++;
+			if (q >= tag.length())
+				return null;
+			char quote = tag.charAt(q);
+			int end = tag.indexOf(quote, q+1);
+			if (end < 0)
+				return null;
+			if (name.equals(attribute))
+				return tag.substring(q+1, end);
+			i = end + 1;
+		}
+		return null;
+	}
+}
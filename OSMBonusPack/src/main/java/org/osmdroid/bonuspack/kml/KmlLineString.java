@@ -1,10 +1,13 @@
 package org.osmdroid.bonuspack.kml;
 
 import android.content.Context;
+import android.graphics.Paint;
 import android.os.Parcel;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import org.osmdroid.bonuspack.kml.KmlFeature.Styler;
+import org.osmdroid.bonuspack.overlays.LodPolyline;
 import org.osmdroid.bonuspack.utils.BonusPackHelper;
 import org.osmdroid.util.BoundingBox;
 import org.osmdroid.util.GeoPoint;
@@ -43,11 +46,13 @@ public class KmlLineString extends KmlGeometry {
 		Context context = map.getContext();
 		Style style = kmlDocument.getStyle(kmlPlacemark.mStyle);
 		if (style != null){
-			lineStringOverlay.setColor(style.getOutlinePaint().getColor());
-			lineStringOverlay.setWidth(style.getOutlinePaint().getStrokeWidth());
+			Paint outlinePaint = style.getSharedOutlinePaint();
+			lineStringOverlay.setColor(outlinePaint.getColor());
+			lineStringOverlay.setWidth(outlinePaint.getStrokeWidth());
 		} else if (defaultStyle!=null && defaultStyle.mLineStyle!=null){ 
-			lineStringOverlay.setColor(defaultStyle.getOutlinePaint().getColor());
-			lineStringOverlay.setWidth(defaultStyle.getOutlinePaint().getStrokeWidth());
+			Paint outlinePaint = defaultStyle.getSharedOutlinePaint();
+			lineStringOverlay.setColor(outlinePaint.getColor());
+			lineStringOverlay.setWidth(outlinePaint.getStrokeWidth());
 		}
 		if ((kmlPlacemark.mName!=null && !"".equals(kmlPlacemark.mName)) 
 				|| (kmlPlacemark.mDescription!=null && !"".equals(kmlPlacemark.mDescription))
@@ -62,12 +67,18 @@ public class KmlLineString extends KmlGeometry {
 		lineStringOverlay.setEnabled(kmlPlacemark.mVisibility);
 	}
 	
-	/** Build the corresponding Polyline overlay */	
+	/** Build the corresponding Polyline overlay. For a large line, this is a LodPolyline, simplified according to the zoom level. */
 	@Override public Overlay buildOverlay(MapView map, Style defaultStyle, Styler styler, KmlPlacemark kmlPlacemark, 
 			KmlDocument kmlDocument){
-		Polyline lineStringOverlay = new Polyline();
-		lineStringOverlay.setGeodesic(true);
-		lineStringOverlay.setPoints(mCoordinates);
+		Polyline lineStringOverlay;
+		LevelsOfDetail levelsOfDetail = getLevelsOfDetail();
+		if (levelsOfDetail != null){
+			lineStringOverlay = new LodPolyline(levelsOfDetail, map.getZoomLevelDouble(), true);
+		} else {
+			lineStringOverlay = new Polyline();
+			lineStringOverlay.setGeodesic(true);
+			lineStringOverlay.setPoints(toGeoPoints());
+		}
 		lineStringOverlay.setTitle(kmlPlacemark.mName);
 		lineStringOverlay.setSnippet(kmlPlacemark.mDescription);
 		lineStringOverlay.setSubDescription(kmlPlacemark.getExtendedDataAsText());
@@ -84,7 +95,7 @@ public class KmlLineString extends KmlGeometry {
 	@Override public void saveAsKML(Writer writer){
 		try {
 			writer.write("<LineString>\n");
-			writeKMLCoordinates(writer, mCoordinates);
+			writeKMLCoordinates(writer);
 			writer.write("</LineString>\n");
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -94,15 +105,16 @@ public class KmlLineString extends KmlGeometry {
 	@Override public JsonObject asGeoJSON(){
 		JsonObject json = new JsonObject();
 		json.addProperty("type", "LineString");
-		json.add("coordinates", KmlGeometry.geoJSONCoordinates(mCoordinates));
+		json.add("coordinates", geoJSONCoordinates());
 		return json;
 	}
-	
-	@Override public BoundingBox getBoundingBox(){
-		if (mCoordinates!=null)
-			return BoundingBox.fromGeoPoints(mCoordinates);
-		else 
-			return null;
+
+	@Override public void writeGeoJSON(JsonWriter out) throws IOException {
+		out.beginObject();
+		out.name("type").value("LineString");
+		out.name("coordinates");
+		writeGeoJSONCoordinates(out);
+		out.endObject();
 	}
 	
 	//Cloneable implementation ------------------------------------
@@ -111,6 +123,12 @@ public class KmlLineString extends KmlGeometry {
 		return (KmlLineString)super.clone();
 	}
 	
+	//Binary serialization ------------
+
+	public KmlLineString(KmlBinaryReader in) throws IOException {
+		super(in);
+	}
+
 	//Parcelable implementation ------------
 	
 	@Override public int describeContents() {
@@ -6,6 +6,7 @@ import android.os.Parcelable;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 
 import org.osmdroid.bonuspack.kml.KmlFeature.Styler;
 import org.osmdroid.bonuspack.utils.BonusPackHelper;
@@ -28,7 +29,7 @@ public class KmlMultiGeometry extends KmlGeometry implements Cloneable, Parcelab
 
 	/** list of KmlGeometry items. Can be empty if none, but is not null */
 	public ArrayList<KmlGeometry> mItems;
-	
+
 	public KmlMultiGeometry(){
 		super();
 		mItems = new ArrayList<KmlGeometry>();
@@ -71,6 +72,12 @@ public class KmlMultiGeometry extends KmlGeometry implements Cloneable, Parcelab
 	
 	public void addItem(KmlGeometry item){
 		mItems.add(item);
+		invalidateBoundingBox();
+	}
+
+	@Override public void unpack(){
+		for (KmlGeometry item:mItems)
+			item.unpack();
 	}
 	
 	/** Build a FolderOverlay containing all overlays from this MultiGeometry items */
@@ -105,6 +112,33 @@ public class KmlMultiGeometry extends KmlGeometry implements Cloneable, Parcelab
 		return json;
 	}
 
+	@Override public void writeGeoJSON(JsonWriter out) throws IOException {
+		out.beginObject();
+		out.name("type").value("GeometryCollection");
+		out.name("geometries").beginArray();
+		for (KmlGeometry item:mItems)
+			item.writeGeoJSON(out);
+		out.endArray();
+		out.endObject();
+	}
+
+	@Override protected BoundingBox computeBoundingBox(){
+		double north = -Double.MAX_VALUE, east = -Double.MAX_VALUE, south = Double.MAX_VALUE, west = Double.MAX_VALUE;
+		boolean found = false;
+		for (KmlGeometry item:mItems){
+			item.setBoundingBoxParent(null, this);
+			BoundingBox itemBB = item.getCachedBoundingBox();
+			if (itemBB != null){
+				north = Math.max(north, itemBB.getLatNorth());
+				east = Math.max(east, itemBB.getLonEast());
+				south = Math.min(south, itemBB.getLatSouth());
+				west = Math.min(west, itemBB.getLonWest());
+				found = true;
+			}
+		}
+		return (found ? new BoundingBox(north, east, south, west) : null);
+	}
+
 	@Override public BoundingBox getBoundingBox(){
 		BoundingBox finalBB = null;
 		for (KmlGeometry item:mItems){
@@ -119,17 +153,54 @@ public class KmlMultiGeometry extends KmlGeometry implements Cloneable, Parcelab
 		}
 		return finalBB;
 	}
+
+	/** The cached bounding box of a MultiGeometry is valid until the bounding box of one of its items changes. 
+	 * Items added or removed directly in mItems require a call to invalidateBoundingBox. */
+	@Override public BoundingBox getCachedBoundingBox(){
+		if (!mBoundingBoxValid){
+			mBoundingBox = computeBoundingBox();
+			mBoundingBoxValid = true;
+		}
+		return mBoundingBox;
+	}
+
+	@Override protected void notifyBoundingBoxChanged(){
+		mBoundingBoxValid = false;
+		mBoundingBox = null;
+		super.notifyBoundingBoxChanged();
+	}
 	
 	//Cloneable implementation ------------------------------------
 	
 	@Override public KmlMultiGeometry clone(){
 		KmlMultiGeometry kmlMultiGeometry = (KmlMultiGeometry)super.clone();
+		kmlMultiGeometry.mBoundingBoxValid = false;
 		kmlMultiGeometry.mItems = new ArrayList<KmlGeometry>(mItems.size());
 		for (KmlGeometry item:mItems)
 			kmlMultiGeometry.mItems.add(item.clone());
 		return kmlMultiGeometry;
 	}
 	
+	//Binary serialization ------------
+
+	@Override public void writeBinary(KmlBinaryWriter out){
+		super.writeBinary(out);
+		out.writeVarint(mItems.size());
+		for (KmlGeometry item:mItems)
+			out.writeGeometry(item);
+	}
+
+	public KmlMultiGeometry(KmlBinaryReader in) throws IOException {
+		super(in);
+		int n = (int)in.readVarint();
+		mItems = new ArrayList<KmlGeometry>(n);
+		for (int i=0; i<n; i++){
+			KmlGeometry item = in.readGeometry();
+			if (item != null) //unsupported type
+				mItems.add(item);
+		}
+	}
+
 	//Parcelable implementation ------------
 	
 	@Override public int describeContents() {
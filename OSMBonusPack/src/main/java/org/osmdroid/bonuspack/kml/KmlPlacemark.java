@@ -6,6 +6,7 @@ import android.os.Parcelable;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 
 import org.osmdroid.util.BoundingBox;
 import org.osmdroid.util.GeoPoint;
@@ -15,6 +16,7 @@ import org.osmdroid.views.overlay.Overlay;
 import org.osmdroid.views.overlay.Polygon;
 import org.osmdroid.views.overlay.Polyline;
 
+import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
@@ -59,19 +61,16 @@ public class KmlPlacemark extends KmlFeature implements Cloneable, Parcelable {
 		this();
 		mName = polygon.getTitle();
 		mDescription = polygon.getSnippet();
-		mGeometry = new KmlPolygon();
-		mGeometry.mCoordinates = (ArrayList<GeoPoint>)polygon.getPoints();
-		/*DEBUG DEBUG DEBUG
-		We just want to do that:
-		//((KmlPolygon)mGeometry).mHoles = (ArrayList<ArrayList<GeoPoint>>)polygon.getHoles();
-		And we have to do that:
-		List<List<GeoPoint>> lh = polygon.getHoles();
-		((KmlPolygon)mGeometry).mHoles = new ArrayList<ArrayList<GeoPoint>>(lh.size());
-		for (List<GeoPoint> h:lh){
-			((KmlPolygon)mGeometry).mHoles.add(h);
-			now copy every fucking point...
+		KmlPolygon kmlPolygon = new KmlPolygon();
+		kmlPolygon.setCoordinates((ArrayList<GeoPoint>)polygon.getPoints());
+		List<List<GeoPoint>> holes = polygon.getHoles();
+		if (holes != null && holes.size() > 0){
+			ArrayList<ArrayList<GeoPoint>> kmlHoles = new ArrayList<ArrayList<GeoPoint>>(holes.size());
+			for (List<GeoPoint> hole:holes)
+				kmlHoles.add(new ArrayList<GeoPoint>(hole));
+			kmlPolygon.setHoles(kmlHoles);
 		}
-		*/
+		mGeometry = kmlPolygon;
 		mVisibility = polygon.isEnabled();
 		mId = polygon.getId();
 		//Style:
@@ -87,7 +86,7 @@ public class KmlPlacemark extends KmlFeature implements Cloneable, Parcelable {
 		mName = polyline.getTitle();
 		mDescription = polyline.getSnippet();
 		mGeometry = new KmlLineString();
-		mGeometry.mCoordinates = (ArrayList<GeoPoint>)polyline.getPoints();
+		mGeometry.setCoordinates((ArrayList<GeoPoint>)polyline.getPoints());
 		mVisibility = polyline.isEnabled();
 		mId = polyline.getId();
 		//Style:
@@ -139,6 +138,20 @@ public class KmlPlacemark extends KmlFeature implements Cloneable, Parcelable {
 		else
 			return null;
 	}
+
+	@Override public BoundingBox getCachedBoundingBox(){
+		if (mGeometry != null){
+			mGeometry.setBoundingBoxParent(this, null);
+			return mGeometry.getCachedBoundingBox();
+		} else
+			return null;
+	}
+
+	@Override public void invalidateBoundingBox(){
+		if (mGeometry != null)
+			mGeometry.invalidateBoundingBox();
+		super.invalidateBoundingBox();
+	}
 	
 	@Override public Overlay buildOverlay(MapView map, Style defaultStyle, Styler styler, KmlDocument kmlDocument){
 		if (mGeometry != null)
@@ -185,6 +198,36 @@ public class KmlPlacemark extends KmlFeature implements Cloneable, Parcelable {
 		json.add("properties", geoJSONProperties());
 		return json;
 	}
+
+	@Override public void writeGeoJSON(JsonWriter out, boolean isRoot) throws IOException {
+		out.beginObject();
+		out.name("type").value("Feature");
+		if (mId != null)
+			out.name("id").value(mId);
+		out.name("geometry");
+		if (mGeometry != null)
+			mGeometry.writeGeoJSON(out);
+		else
+			out.nullValue();
+		out.name("properties").beginObject();
+		//same as geoJSONProperties: an ExtendedData "name" replaces the name, at its place
+		boolean hasName = (mName != null);
+		if (hasName){
+			if (mExtendedData != null && mExtendedData.containsKey("name"))
+				out.name("name").value(mExtendedData.get("name"));
+			else
+				out.name("name").value(mName);
+		}
+		if (mExtendedData != null){
+			for (Map.Entry<String, String> entry : mExtendedData.entrySet()){
+				if (hasName && "name".equals(entry.getKey()))
+					continue;
+				out.name(entry.getKey()).value(entry.getValue());
+			}
+		}
+		out.endObject();
+		out.endObject();
+	}
 	
 	//Cloneable implementation ------------------------------------
 
@@ -195,6 +238,18 @@ public class KmlPlacemark extends KmlFeature implements Cloneable, Parcelable {
 		return kmlPlacemark;
 	}
 	
+	//Binary serialization ------------
+
+	@Override public void writeBinary(KmlBinaryWriter out){
+		super.writeBinary(out);
+		out.writeGeometry(mGeometry);
+	}
+
+	public KmlPlacemark(KmlBinaryReader in) throws IOException {
+		super(in);
+		mGeometry = in.readGeometry();
+	}
+
 	//Parcelable implementation ------------
 	
 	@Override public int describeContents() {
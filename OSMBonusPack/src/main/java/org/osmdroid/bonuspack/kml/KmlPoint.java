@@ -6,6 +6,7 @@ import android.os.Parcelable;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import org.osmdroid.bonuspack.kml.KmlFeature.Styler;
 import org.osmdroid.util.BoundingBox;
 import org.osmdroid.util.GeoPoint;
@@ -42,15 +43,17 @@ public class KmlPoint extends KmlGeometry implements Parcelable, Cloneable {
 	}
 	
 	public void setPosition(GeoPoint position){
-		if (mCoordinates == null){
+		ArrayList<GeoPoint> coordinates = getCoordinates();
+		if (coordinates == null){
 			mCoordinates = new ArrayList<GeoPoint>(1);
 			mCoordinates.add(position);
 		} else
-			mCoordinates.set(0, position);
+			coordinates.set(0, position);
+		invalidateBoundingBox();
 	}
 	
 	public GeoPoint getPosition(){
-		return mCoordinates.get(0);
+		return getCoordinates().get(0);
 	}
 	
 	/** default listener for dragging a Marker built from a KML Point */
@@ -102,7 +105,7 @@ public class KmlPoint extends KmlGeometry implements Parcelable, Cloneable {
 	@Override public void saveAsKML(Writer writer){
 		try {
 			writer.write("<Point>\n");
-			writeKMLCoordinates(writer, mCoordinates);
+			writeKMLCoordinates(writer);
 			writer.write("</Point>\n");
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -112,20 +115,30 @@ public class KmlPoint extends KmlGeometry implements Parcelable, Cloneable {
 	@Override public JsonObject asGeoJSON(){
 		JsonObject json = new JsonObject();
 		json.addProperty("type", "Point");
-		json.add("coordinates", KmlGeometry.geoJSONPosition(mCoordinates.get(0)));
+		json.add("coordinates", KmlGeometry.geoJSONPosition(getPosition()));
 		return json;
 	}
 
-	@Override public BoundingBox getBoundingBox(){
-		return BoundingBox.fromGeoPoints(mCoordinates);
+	@Override public void writeGeoJSON(JsonWriter out) throws IOException {
+		out.beginObject();
+		out.name("type").value("Point");
+		out.name("coordinates");
+		KmlGeometry.writeGeoJSONPosition(out, getPosition());
+		out.endObject();
 	}
-	
+
 	//Cloneable implementation ------------------------------------
 	
 	@Override public KmlPoint clone(){
 		return (KmlPoint)super.clone();
 	}
 	
+	//Binary serialization ------------
+
+	public KmlPoint(KmlBinaryReader in) throws IOException {
+		super(in);
+	}
+
 	//Parcelable implementation ------------
 	
 	@Override public int describeContents() {
@@ -6,7 +6,9 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import org.osmdroid.bonuspack.kml.KmlFeature.Styler;
+import org.osmdroid.bonuspack.overlays.LodPolygon;
 import org.osmdroid.bonuspack.utils.BonusPackHelper;
 import org.osmdroid.util.BoundingBox;
 import org.osmdroid.util.GeoPoint;
@@ -24,21 +26,123 @@ import java.util.ArrayList;
  */
 public class KmlPolygon extends KmlGeometry {
 	
-	/** Polygon holes (can be null if none) */
+	/** Polygon holes (can be null if none). 
+	 * When not null, this is the reference. 
+	 * @deprecated Null on polygons parsed by a KmlDocument with packed coordinates enabled (see KmlDocument.setPackCoordinates), 
+	 * and after pack(). Use getHoles(), setHoles() or getPackedHoles(). */
+	@Deprecated
 	public ArrayList<ArrayList<GeoPoint>> mHoles;
+	/** holes in packed form - only used when mHoles is null */
+	protected ArrayList<PackedCoordinates> mPackedHoles;
+	/** cached levels of detail of the holes, valid while the holes holder and its size have not changed */
+	protected ArrayList<Object> mHolesLevelsOfDetail;
+	protected Object mHolesLevelsOfDetailSource;
+	protected int mHolesLevelsOfDetailSize;
 	
 	static int mDefaultLayoutResId = BonusPackHelper.UNDEFINED_RES_ID; 
 	
 	public KmlPolygon(){
 		super();
 	}
+
+	/** Add a hole, given in packed form */
+	public void addHole(PackedCoordinates hole){
+		if (mHoles != null){
+			mHoles.add(hole.toGeoPoints());
+		} else {
+			if (mPackedHoles == null)
+				mPackedHoles = new ArrayList<PackedCoordinates>();
+			hole.trimToSize();
+			mPackedHoles.add(hole);
+		}
+	}
+
+	/** Set the holes as lists of GeoPoints, which become the reference - null if none */
+	public void setHoles(ArrayList<ArrayList<GeoPoint>> holes){
+		mHoles = holes;
+		mPackedHoles = null;
+	}
+
+	/** @return the holes as lists of GeoPoints, that can be modified - null if none.
+	 * If holes were held in packed form, GeoPoints are materialized and become the reference. */
+	public ArrayList<ArrayList<GeoPoint>> getHoles(){
+		if (mHoles == null && mPackedHoles != null){
+			mHoles = holesToGeoPoints();
+			mPackedHoles = null;
+		}
+		return mHoles;
+	}
+
+	/** @return the holes as lists of GeoPoints, without changing how this polygon holds them - null if none */
+	public ArrayList<ArrayList<GeoPoint>> holesToGeoPoints(){
+		if (mHoles != null || mPackedHoles == null)
+			return mHoles;
+		ArrayList<ArrayList<GeoPoint>> holes = new ArrayList<ArrayList<GeoPoint>>(mPackedHoles.size());
+		for (PackedCoordinates hole:mPackedHoles)
+			holes.add(hole.toGeoPoints());
+		return holes;
+	}
+
+	/** @return the holes in packed form (built if they are currently held as GeoPoints) - null if none */
+	public ArrayList<PackedCoordinates> getPackedHoles(){
+		if (mHoles == null)
+			return mPackedHoles;
+		ArrayList<PackedCoordinates> holes = new ArrayList<PackedCoordinates>(mHoles.size());
+		for (ArrayList<GeoPoint> hole:mHoles)
+			holes.add(new PackedCoordinates(hole));
+		return holes;
+	}
+
+	/** Convert the coordinates and the holes to the packed form, releasing the GeoPoints. */
+	@Override public void pack(){
+		super.pack();
+		if (mHoles != null){
+			mPackedHoles = getPackedHoles();
+			mHoles = null;
+		}
+	}
+
+	@Override public void unpack(){
+		super.unpack();
+		getHoles();
+	}
 	
+	/**
+	 * @return for each hole, its levels of detail, or its points if it is too small to need them - null if no hole. 
+	 * Computed once, then cached while the holes list is not replaced or resized. 
+	 */
+	protected ArrayList<Object> getHolesLevelsOfDetail(){
+		Object source = (mHoles != null ? mHoles : mPackedHoles);
+		if (source == null)
+			return null;
+		int size = (mHoles != null ? mHoles.size() : mPackedHoles.size());
+		if (mHolesLevelsOfDetail == null || mHolesLevelsOfDetailSource != source || mHolesLevelsOfDetailSize != size){
+			ArrayList<PackedCoordinates> holes = getPackedHoles();
+			mHolesLevelsOfDetail = new ArrayList<Object>(holes.size());
+			for (PackedCoordinates hole:holes){
+				LevelsOfDetail levelsOfDetail = buildLevelsOfDetail(hole);
+				if (levelsOfDetail != null)
+					mHolesLevelsOfDetail.add(levelsOfDetail);
+				else
+					mHolesLevelsOfDetail.add(hole.toGeoPoints());
+			}
+			mHolesLevelsOfDetailSource = source;
+			mHolesLevelsOfDetailSize = size;
+		}
+		return mHolesLevelsOfDetail;
+	}
+
+	@Override public void invalidateBoundingBox(){
+		mHolesLevelsOfDetail = null;
+		super.invalidateBoundingBox();
+	}
+
 	public void applyDefaultStyling(Polygon polygonOverlay, Style defaultStyle, KmlPlacemark kmlPlacemark,
 			KmlDocument kmlDocument, MapView map){
 		Context context = map.getContext();
 		Style style = kmlDocument.getStyle(kmlPlacemark.mStyle);
 		if (style != null){
-			Paint outlinePaint = style.getOutlinePaint();
+			Paint outlinePaint = style.getSharedOutlinePaint();
 			polygonOverlay.setStrokeColor(outlinePaint.getColor());
 			polygonOverlay.setStrokeWidth(outlinePaint.getStrokeWidth());
 			if (style.mPolyStyle != null){
@@ -46,7 +150,7 @@ public class KmlPolygon extends KmlGeometry {
 				polygonOverlay.setFillColor(fillColor);
 			}
 		} else if (defaultStyle!=null){
-			Paint outlinePaint = defaultStyle.getOutlinePaint();
+			Paint outlinePaint = defaultStyle.getSharedOutlinePaint();
 			polygonOverlay.setStrokeColor(outlinePaint.getColor());
 			polygonOverlay.setStrokeWidth(outlinePaint.getStrokeWidth());
 			int fillColor = defaultStyle.mPolyStyle.getFinalColor();
@@ -65,13 +169,20 @@ public class KmlPolygon extends KmlGeometry {
 		polygonOverlay.setEnabled(kmlPlacemark.mVisibility);
 	}
 	
-	/** Build the corresponding Polygon overlay */
+	/** Build the corresponding Polygon overlay. For a large polygon, this is a LodPolygon, simplified according to the zoom level. */
 	@Override public Overlay buildOverlay(MapView map, Style defaultStyle, Styler styler, KmlPlacemark kmlPlacemark, 
 			KmlDocument kmlDocument){
-		Polygon polygonOverlay = new Polygon();
-		polygonOverlay.setPoints(mCoordinates);
-		if (mHoles != null)
-			polygonOverlay.setHoles(mHoles);
+		Polygon polygonOverlay;
+		LevelsOfDetail levelsOfDetail = getLevelsOfDetail();
+		if (levelsOfDetail != null){
+			polygonOverlay = new LodPolygon(levelsOfDetail, getHolesLevelsOfDetail(), map.getZoomLevelDouble());
+		} else {
+			polygonOverlay = new Polygon();
+			polygonOverlay.setPoints(toGeoPoints());
+			ArrayList<ArrayList<GeoPoint>> holes = holesToGeoPoints();
+			if (holes != null)
+				polygonOverlay.setHoles(holes);
+		}
 		polygonOverlay.setTitle(kmlPlacemark.mName);
 		polygonOverlay.setSnippet(kmlPlacemark.mDescription);
 		polygonOverlay.setSubDescription(kmlPlacemark.getExtendedDataAsText());
@@ -109,7 +220,7 @@ public class KmlPolygon extends KmlGeometry {
 		try {
 			writer.write("<Polygon>\n");
 			writer.write("<outerBoundaryIs>\n<LinearRing>\n");
-			writeKMLCoordinates(writer, mCoordinates);
+			writeKMLCoordinates(writer);
 			writer.write("</LinearRing>\n</outerBoundaryIs>\n");
 			if (mHoles != null){
 				for (ArrayList<GeoPoint> hole:mHoles){
@@ -117,6 +228,12 @@ public class KmlPolygon extends KmlGeometry {
 					writeKMLCoordinates(writer, hole);
 					writer.write("</LinearRing>\n</innerBoundaryIs>\n");
 				}
+			} else if (mPackedHoles != null){
+				for (PackedCoordinates hole:mPackedHoles){
+					writer.write("<innerBoundaryIs>\n<LinearRing>\n");
+					writeKMLCoordinates(writer, hole);
+					writer.write("</LinearRing>\n</innerBoundaryIs>\n");
+				}
 			}
 			writer.write("</Polygon>\n");
 		} catch (IOException e) {
@@ -128,21 +245,34 @@ public class KmlPolygon extends KmlGeometry {
 		JsonObject json = new JsonObject();
 		json.addProperty("type", "Polygon");
 		JsonArray coords = new JsonArray();
-		coords.add(KmlGeometry.geoJSONCoordinates(mCoordinates));
+		coords.add(geoJSONCoordinates());
 		if (mHoles != null) {
 			for (ArrayList<GeoPoint> hole:mHoles){
 				coords.add(KmlGeometry.geoJSONCoordinates(hole));
 			}
+		} else if (mPackedHoles != null) {
+			for (PackedCoordinates hole:mPackedHoles){
+				coords.add(KmlGeometry.geoJSONCoordinates(hole));
+			}
 		}
 		json.add("coordinates", coords);
 		return json;
 	}
-	
-	@Override public BoundingBox getBoundingBox(){
-		if (mCoordinates!=null)
-			return BoundingBox.fromGeoPoints(mCoordinates);
-		else 
-			return null;
+
+	@Override public void writeGeoJSON(JsonWriter out) throws IOException {
+		out.beginObject();
+		out.name("type").value("Polygon");
+		out.name("coordinates").beginArray();
+		writeGeoJSONCoordinates(out);
+		if (mHoles != null) {
+			for (ArrayList<GeoPoint> hole:mHoles)
+				KmlGeometry.writeGeoJSONCoordinates(out, hole);
+		} else if (mPackedHoles != null) {
+			for (PackedCoordinates hole:mPackedHoles)
+				KmlGeometry.writeGeoJSONCoordinates(out, hole);
+		}
+		out.endArray();
+		out.endObject();
 	}
 	
 	//Cloneable implementation ------------------------------------
@@ -155,9 +285,38 @@ public class KmlPolygon extends KmlGeometry {
 				kmlPolygon.mHoles.add(cloneArrayOfGeoPoint(hole));
 			}
 		}
+		if (mPackedHoles != null){
+			kmlPolygon.mPackedHoles = new ArrayList<PackedCoordinates>(mPackedHoles.size());
+			for (PackedCoordinates hole:mPackedHoles){
+				kmlPolygon.mPackedHoles.add(hole.clone());
+			}
+		}
 		return kmlPolygon;
 	}
 	
+	//Binary serialization ------------
+
+	@Override public void writeBinary(KmlBinaryWriter out){
+		super.writeBinary(out);
+		if (mHoles != null){
+			out.writeVarint(mHoles.size());
+			for (ArrayList<GeoPoint> hole:mHoles)
+				out.writeCoordinates(hole);
+		} else if (mPackedHoles != null){
+			out.writeVarint(mPackedHoles.size());
+			for (PackedCoordinates hole:mPackedHoles)
+				out.writeCoordinates(hole);
+		} else
+			out.writeVarint(0);
+	}
+
+	public KmlPolygon(KmlBinaryReader in) throws IOException {
+		super(in);
+		int holes = (int)in.readVarint();
+		for (int i=0; i<holes; i++)
+			addHole(in.readCoordinates());
+	}
+
 	//Parcelable implementation ------------
 	
 	@Override public int describeContents() {
@@ -166,9 +325,10 @@ public class KmlPolygon extends KmlGeometry {
 
 	@Override public void writeToParcel(Parcel out, int flags) {
 		super.writeToParcel(out, flags);
-		if (mHoles != null){
-			out.writeInt(mHoles.size());
-			for (ArrayList<GeoPoint> l:mHoles)
+		ArrayList<ArrayList<GeoPoint>> holes = holesToGeoPoints();
+		if (holes != null){
+			out.writeInt(holes.size());
+			for (ArrayList<GeoPoint> l:holes)
 				out.writeList(l);
 		} else 
 			out.writeInt(0);
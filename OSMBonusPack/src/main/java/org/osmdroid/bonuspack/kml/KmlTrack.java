@@ -1,8 +1,10 @@
 package org.osmdroid.bonuspack.kml;
 
 import android.content.Context;
+import android.graphics.Paint;
 import android.os.Parcel;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import org.osmdroid.bonuspack.kml.KmlFeature.Styler;
 import org.osmdroid.bonuspack.utils.BonusPackHelper;
 import org.osmdroid.util.BoundingBox;
@@ -13,9 +15,9 @@ import org.osmdroid.views.overlay.Polyline;
 import org.osmdroid.views.overlay.infowindow.BasicInfoWindow;
 import java.io.IOException;
 import java.io.Writer;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 
 /**
@@ -25,13 +27,27 @@ import java.util.Date;
 public class KmlTrack extends KmlGeometry {
 	static int mDefaultLayoutResId = BonusPackHelper.UNDEFINED_RES_ID;
 
+	/** times of the track, as Dates. A null Date is an undefined time. 
+	 * When not null, this is the reference. 
+	 * @deprecated Null on tracks parsed by a KmlDocument with packed coordinates enabled (see KmlDocument.setPackCoordinates), 
+	 * and after pack(), as times are then held as epoch milliseconds. Use getWhen(), setWhen() or getTimes(). */
+	@Deprecated
 	public ArrayList<Date> mWhen;
+	/** times in milliseconds since the epoch, KmlDateTime.UNDEFINED if undefined - only used when mWhen is null */
+	protected long[] mTimes;
+	protected int mTimesCount;
+	/** time index: times of the valid samples (defined time and coord), sorted, and their sample indexes */
+	protected long[] mIndexTimes;
+	protected int[] mIndexSamples;
+	protected Object mIndexCoordinatesSource, mIndexTimesSource;
+	protected int mIndexCoordinatesCount, mIndexTimesCount;
 	//public ArrayList<GeoPoint> mAngles; //TODO later...
 
 	public KmlTrack(){
 		super();
-		mCoordinates = new ArrayList<>();
-		mWhen = new ArrayList<>();
+		mPackedCoordinates = new PackedCoordinates();
+		mTimes = new long[16];
+		mTimesCount = 0;
 	}
 
 	/**
@@ -54,45 +70,121 @@ public class KmlTrack extends KmlGeometry {
 	}
 
 	public void addGxCoord(String sGxCoord){
-		mCoordinates.add(parseKmlGxCoord(sGxCoord));
+		GeoPoint coord = parseKmlGxCoord(sGxCoord);
+		if (mCoordinates != null)
+			mCoordinates.add(coord);
+		else
+			mPackedCoordinates.add(coord);
+		invalidateBoundingBox();
 	}
 
 	/**
-	 * @param sWhen "when" string, in one of the KML dateTime formats. Local time format not supported yet.
+	 * @param sWhen "when" string, in one of the KML dateTime formats. 
 	 * @return java Date if success, or null
+	 * @see KmlDateTime#parse(CharSequence)
      */
 	public static Date parseKmlWhen(String sWhen) {
-		SimpleDateFormat ft;
-		switch (sWhen.length()) {
-			case 4: ft = new SimpleDateFormat("yyyy"); break;
-			case 7:
-				ft = new SimpleDateFormat("yyyy-MM");
-				break;
-			case 10:
-				ft = new SimpleDateFormat("yyyy-MM-dd");
-				break;
-			case 19:
-				ft = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-				break;
-			case 20:
-				ft = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-				break;
-			default:
-				return null;
-		}
-		Date when;
-		try {
-			when = ft.parse(sWhen);
-			return when;
-		} catch (ParseException e) {
-			return null;
+		long time = KmlDateTime.parse(sWhen);
+		return (time != KmlDateTime.UNDEFINED ? new Date(time) : null);
+	}
+
+	/** @param sWhen "when" value, in one of the KML dateTime formats. Added as undefined if it cannot be parsed. */
+	public void addWhen(CharSequence sWhen){
+		addTime(KmlDateTime.parse(sWhen));
+	}
+
+	/** @param time in milliseconds since the epoch, or KmlDateTime.UNDEFINED */
+	public void addTime(long time){
+		if (mWhen != null){
+			mWhen.add(time != KmlDateTime.UNDEFINED ? new Date(time) : null);
+			return;
+		}
+		if (mTimes == null)
+			mTimes = new long[16];
+		else if (mTimesCount == mTimes.length)
+			mTimes = Arrays.copyOf(mTimes, mTimesCount*2);
+		mTimes[mTimesCount++] = time;
+	}
+
+	/** @return the number of times, without materializing Dates */
+	public int getWhenCount(){
+		if (mWhen != null)
+			return mWhen.size();
+		else 
+			return mTimesCount;
+	}
+
+	/** @return the time at index, in milliseconds since the epoch, or KmlDateTime.UNDEFINED */
+	public long getTime(int index){
+		if (mWhen != null){
+			Date when = mWhen.get(index);
+			return (when != null ? when.getTime() : KmlDateTime.UNDEFINED);
 		}
+		if (index >= mTimesCount)
+			throw new IndexOutOfBoundsException("Invalid index "+index+", size is "+mTimesCount);
+		return mTimes[index];
 	}
 
-	public void addWhen(String sWhen){
+	/** @return a copy of all times, in milliseconds since the epoch (KmlDateTime.UNDEFINED for undefined ones) */
+	public long[] getTimes(){
+		int n = getWhenCount();
 		if (mWhen == null)
-			mWhen = new ArrayList<>();
-		mWhen.add(parseKmlWhen(sWhen));
+			return (mTimes != null ? Arrays.copyOf(mTimes, n) : new long[0]);
+		long[] times = new long[n];
+		for (int i=0; i<n; i++)
+			times[i] = getTime(i);
+		return times;
+	}
+
+	/** 
+	 * @return the times as a list of Dates, that can be modified. 
+	 * If times were held as epoch milliseconds, Dates are materialized and become the reference. 
+	 */
+	public ArrayList<Date> getWhen(){
+		if (mWhen == null){
+			mWhen = whenToDates();
+			mTimes = null;
+			mTimesCount = 0;
+		}
+		return mWhen;
+	}
+
+	/** 
+	 * Set the times as a list of Dates, which becomes the reference. A null Date is an undefined time. 
+	 * @param when
+	 */
+	public void setWhen(ArrayList<Date> when){
+		mWhen = when;
+		mTimes = null;
+		mTimesCount = 0;
+		invalidateBoundingBox();
+	}
+
+	/** @return the times as a new list of Dates, without changing how this track holds them */
+	public ArrayList<Date> whenToDates(){
+		int n = getWhenCount();
+		ArrayList<Date> dates = new ArrayList<>(n);
+		for (int i=0; i<n; i++){
+			long time = getTime(i);
+			dates.add(time != KmlDateTime.UNDEFINED ? new Date(time) : null);
+		}
+		return dates;
+	}
+
+	/** Convert the coordinates to the packed form, and the times to epoch milliseconds, releasing the GeoPoints and the Dates. */
+	@Override public void pack(){
+		super.pack();
+		if (mWhen != null){
+			mTimes = getTimes();
+			mTimesCount = mTimes.length;
+			mWhen = null;
+		}
+	}
+
+	/** Convert the coordinates to GeoPoints and the times to Dates, so that the public fields are set. */
+	@Override public void unpack(){
+		super.unpack();
+		getWhen();
 	}
 
 	/**
@@ -102,11 +194,227 @@ public class KmlTrack extends KmlGeometry {
 	 * @param when
 	 */
 	public void add(GeoPoint coord, Date when) {
-		if (coord == null)
+		add(coord, when != null ? when.getTime() : KmlDateTime.UNDEFINED);
+	}
+
+	/**
+	 * Add a time element (coord+when) to the track.
+	 *
+	 * @param coord
+	 * @param time in milliseconds since the epoch, or KmlDateTime.UNDEFINED
+	 */
+	public void add(GeoPoint coord, long time) {
+		if (mCoordinates == null)
+			mPackedCoordinates.add(coord);
+		else if (coord == null)
 			mCoordinates.add(coord);
 		else
 			mCoordinates.add(coord.clone());
-		mWhen.add(when);
+		addTime(time);
+		invalidateBoundingBox();
+	}
+
+	//Time index ------------
+
+	/** To call after a direct modification of the coordinates or of the times, so that caches and the time index are rebuilt. */
+	@Override public void invalidateBoundingBox(){
+		mIndexTimes = null;
+		super.invalidateBoundingBox();
+	}
+
+	protected Object getTimesSource(){
+		return (mWhen != null ? mWhen : mTimes);
+	}
+
+	/** 
+	 * Build the time index if needed: computed once, then cached while coordinates and times are not replaced or resized. 
+	 * Samples with an undefined time or coord are not indexed. If the track is not in time order, samples are sorted. 
+	 */
+	protected void ensureTimeIndex(){
+		if (mIndexTimes != null && mIndexCoordinatesSource == getCoordinatesSource() && mIndexTimesSource == getTimesSource()
+				&& mIndexCoordinatesCount == getCoordinatesCount() && mIndexTimesCount == getWhenCount())
+			return;
+		int n = Math.min(getCoordinatesCount(), getWhenCount());
+		long[] times = new long[n];
+		int[] samples = new int[n];
+		int count = 0;
+		boolean sorted = true;
+		for (int i=0; i<n; i++){
+			long time = getTime(i);
+			if (time == KmlDateTime.UNDEFINED || !isCoordDefined(i))
+				continue;
+			if (count > 0 && time < times[count-1])
+				sorted = false;
+			times[count] = time;
+			samples[count] = i;
+			count++;
+		}
+		if (!sorted){
+			//sort sample indexes by time (stable, so samples with the same time keep the track order):
+			Integer[] order = new Integer[count];
+			for (int i=0; i<count; i++)
+				order[i] = i;
+			final long[] unsortedTimes = times;
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override public int compare(Integer i1, Integer i2){
+					long t1 = unsortedTimes[i1], t2 = unsortedTimes[i2];
+					return (t1 < t2 ? -1 : (t1 == t2 ? 0 : 1));
+				}
+			});
+			long[] sortedTimes = new long[count];
+			int[] sortedSamples = new int[count];
+			for (int i=0; i<count; i++){
+				sortedTimes[i] = times[order[i]];
+				sortedSamples[i] = samples[order[i]];
+			}
+			times = sortedTimes;
+			samples = sortedSamples;
+		}
+		mIndexTimes = Arrays.copyOf(times, count);
+		mIndexSamples = Arrays.copyOf(samples, count);
+		mIndexCoordinatesSource = getCoordinatesSource();
+		mIndexTimesSource = getTimesSource();
+		mIndexCoordinatesCount = getCoordinatesCount();
+		mIndexTimesCount = getWhenCount();
+	}
+
+	protected boolean isCoordDefined(int index){
+		if (mCoordinates != null)
+			return mCoordinates.get(index) != null;
+		else
+			return mPackedCoordinates.isDefined(index);
+	}
+
+	/** get the coord at index in position, as (latitude, longitude, altitude) */
+	protected void getCoord(int index, double[] position){
+		if (mCoordinates != null){
+			GeoPoint p = mCoordinates.get(index);
+			position[0] = p.getLatitude();
+			position[1] = p.getLongitude();
+			position[2] = p.getAltitude();
+		} else {
+			position[0] = mPackedCoordinates.getLatitude(index);
+			position[1] = mPackedCoordinates.getLongitude(index);
+			position[2] = mPackedCoordinates.getAltitude(index);
+		}
+	}
+
+	/** @return the position in the time index of the first sample at or after this time, or the number of samples if none */
+	protected int lowerBound(long time){
+		int low = 0, high = mIndexTimes.length;
+		while (low < high){
+			int middle = (low + high) >>> 1;
+			if (mIndexTimes[middle] < time)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/** @return the position in the time index of the first sample after this time, or the number of samples if none */
+	protected int upperBound(long time){
+		int low = 0, high = mIndexTimes.length;
+		while (low < high){
+			int middle = (low + high) >>> 1;
+			if (mIndexTimes[middle] <= time)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/** @return the time of the first sample, or KmlDateTime.UNDEFINED if the track has no valid sample */
+	public long getStartTime(){
+		ensureTimeIndex();
+		return (mIndexTimes.length > 0 ? mIndexTimes[0] : KmlDateTime.UNDEFINED);
+	}
+
+	/** @return the time of the last sample, or KmlDateTime.UNDEFINED if the track has no valid sample */
+	public long getEndTime(){
+		ensureTimeIndex();
+		return (mIndexTimes.length > 0 ? mIndexTimes[mIndexTimes.length-1] : KmlDateTime.UNDEFINED);
+	}
+
+	/** @return the index of the last sample at or before this time, or -1 if none */
+	public int getSampleIndexAt(long time){
+		ensureTimeIndex();
+		int i = upperBound(time) - 1;
+		return (i >= 0 ? mIndexSamples[i] : -1);
+	}
+
+	/** interpolate linearly between index positions i1 and i2 of the time index, at this time */
+	protected GeoPoint interpolate(int i1, int i2, long time){
+		double[] p1 = new double[3], p2 = new double[3];
+		getCoord(mIndexSamples[i1], p1);
+		getCoord(mIndexSamples[i2], p2);
+		long t1 = mIndexTimes[i1], t2 = mIndexTimes[i2];
+		double ratio = (t2 == t1 ? 0.0 : (double)(time - t1) / (double)(t2 - t1));
+		double dLon = p2[1] - p1[1];
+		//shortest way when crossing the antimeridian:
+		if (dLon > 180.0)
+			dLon -= 360.0;
+		else if (dLon < -180.0)
+			dLon += 360.0;
+		double lon = p1[1] + dLon*ratio;
+		if (lon > 180.0)
+			lon -= 360.0;
+		else if (lon < -180.0)
+			lon += 360.0;
+		return new GeoPoint(p1[0] + (p2[0] - p1[0])*ratio, lon, p1[2] + (p2[2] - p1[2])*ratio);
+	}
+
+	/**
+	 * @param time in milliseconds since the epoch
+	 * @return the position at this time, interpolated between the samples around it, 
+	 * or null if time is out of the track time span. 
+	 */
+	public GeoPoint getPositionAt(long time){
+		ensureTimeIndex();
+		int n = mIndexTimes.length;
+		if (n == 0 || time < mIndexTimes[0] || time > mIndexTimes[n-1])
+			return null;
+		int i = lowerBound(time);
+		if (mIndexTimes[i] == time)
+			return interpolate(i, i, time);
+		return interpolate(i-1, i, time);
+	}
+
+	/**
+	 * @param from start time, in milliseconds since the epoch
+	 * @param to end time, in milliseconds since the epoch
+	 * @return the part of the track between from and to: the samples in this time window, 
+	 * with interpolated positions at from and to when they are inside the track time span. 
+	 * Empty if the window does not intersect the track time span. 
+	 */
+	public ArrayList<GeoPoint> getPointsBetween(long from, long to){
+		ensureTimeIndex();
+		int n = mIndexTimes.length;
+		if (n == 0 || to < from || to < mIndexTimes[0] || from > mIndexTimes[n-1])
+			return new ArrayList<GeoPoint>(0);
+		int first = lowerBound(from);
+		int last = upperBound(to); //exclusive
+		ArrayList<GeoPoint> points = new ArrayList<GeoPoint>(last - first + 2);
+		if (first > 0 && mIndexTimes[first] != from)
+			points.add(interpolate(first-1, first, from));
+		double[] position = new double[3];
+		for (int i=first; i<last; i++){
+			getCoord(mIndexSamples[i], position);
+			points.add(new GeoPoint(position[0], position[1], position[2]));
+		}
+		if (last < n && mIndexTimes[last-1] != to)
+			points.add(interpolate(last-1, last, to));
+		return points;
+	}
+
+	/**
+	 * Set the points of the polyline to the part of the track between from and to. 
+	 * Only this part is materialized, so it can be called on each frame of an animation. 
+	 * @see #getPointsBetween(long, long)
+	 */
+	public void setSlice(Polyline polyline, long from, long to){
+		polyline.setPoints(getPointsBetween(from, to));
 	}
 
 	public void applyDefaultStyling(Polyline lineStringOverlay, Style defaultStyle, KmlPlacemark kmlPlacemark,
@@ -114,11 +422,13 @@ public class KmlTrack extends KmlGeometry {
 		Context context = map.getContext();
 		Style style = kmlDocument.getStyle(kmlPlacemark.mStyle);
 		if (style != null){
-			lineStringOverlay.setColor(style.getOutlinePaint().getColor());
-			lineStringOverlay.setWidth(style.getOutlinePaint().getStrokeWidth());
+			Paint outlinePaint = style.getSharedOutlinePaint();
+			lineStringOverlay.setColor(outlinePaint.getColor());
+			lineStringOverlay.setWidth(outlinePaint.getStrokeWidth());
 		} else if (defaultStyle!=null && defaultStyle.mLineStyle!=null){
-			lineStringOverlay.setColor(defaultStyle.getOutlinePaint().getColor());
-			lineStringOverlay.setWidth(defaultStyle.getOutlinePaint().getStrokeWidth());
+			Paint outlinePaint = defaultStyle.getSharedOutlinePaint();
+			lineStringOverlay.setColor(outlinePaint.getColor());
+			lineStringOverlay.setWidth(outlinePaint.getStrokeWidth());
 		}
 		if ((kmlPlacemark.mName!=null && !"".equals(kmlPlacemark.mName))
 				|| (kmlPlacemark.mDescription!=null && !"".equals(kmlPlacemark.mDescription))
@@ -139,7 +449,24 @@ public class KmlTrack extends KmlGeometry {
 			KmlDocument kmlDocument){
 		Polyline lineStringOverlay = new Polyline();
 		lineStringOverlay.setGeodesic(true);
-		lineStringOverlay.setPoints(mCoordinates);
+		lineStringOverlay.setPoints(toGeoPoints());
+		return setupOverlay(lineStringOverlay, map, defaultStyle, styler, kmlPlacemark, kmlDocument);
+	}
+
+	/**
+	 * Build a Polyline of the part of the track between from and to, styled as the full track overlay. 
+	 * To animate it, update it with setSlice. 
+	 */
+	public Polyline buildSliceOverlay(MapView map, Style defaultStyle, Styler styler, KmlPlacemark kmlPlacemark,
+			KmlDocument kmlDocument, long from, long to){
+		Polyline lineStringOverlay = new Polyline();
+		lineStringOverlay.setGeodesic(true);
+		setSlice(lineStringOverlay, from, to);
+		return setupOverlay(lineStringOverlay, map, defaultStyle, styler, kmlPlacemark, kmlDocument);
+	}
+
+	protected Polyline setupOverlay(Polyline lineStringOverlay, MapView map, Style defaultStyle, Styler styler, KmlPlacemark kmlPlacemark,
+			KmlDocument kmlDocument){
 		lineStringOverlay.setTitle(kmlPlacemark.mName);
 		lineStringOverlay.setSnippet(kmlPlacemark.mDescription);
 		lineStringOverlay.setSubDescription(kmlPlacemark.getExtendedDataAsText());
@@ -153,23 +480,24 @@ public class KmlTrack extends KmlGeometry {
 		return lineStringOverlay;
 	}
 
-	static final SimpleDateFormat KML_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-
 	@Override public void saveAsKML(Writer writer){
 		try {
 			writer.write("<gx:Track>\n");
 			//write when:
-			for (Date when:mWhen){
+			int n = getWhenCount();
+			for (int i=0; i<n; i++){
 				writer.write("<when>");
-				if (when != null)
-					writer.write(KML_DATE_FORMAT.format(when));
+				long time = getTime(i);
+				if (time != KmlDateTime.UNDEFINED)
+					KmlDateTime.format(writer, time);
 				writer.write("</when>\n");
 			}
 			//write coords:
-			for (GeoPoint coord:mCoordinates){
+			PackedCoordinates coords = getPackedCoordinates();
+			for (int i=0; i<coords.size(); i++){
 				writer.write("<gx:coord>");
-				if (coord != null)
-					writer.write(coord.getLongitude() + " " + coord.getLatitude() + " " + coord.getAltitude());
+				if (coords.isDefined(i))
+					KmlGeometry.writeKMLCoordinate(writer, coords.getLongitude(i), coords.getLatitude(i), coords.getAltitude(i), ' ');
 				writer.write("</gx:coord>\n");
 			}
 			writer.write("</gx:Track>\n");
@@ -181,24 +509,53 @@ public class KmlTrack extends KmlGeometry {
 	@Override public JsonObject asGeoJSON(){
 		JsonObject json = new JsonObject();
 		json.addProperty("type", "LineString");
-		json.add("coordinates", KmlGeometry.geoJSONCoordinates(mCoordinates));
+		json.add("coordinates", geoJSONCoordinates());
 		return json;
 	}
 
-	@Override public BoundingBox getBoundingBox() {
-		return BoundingBox.fromGeoPoints(mCoordinates);
+	@Override public void writeGeoJSON(JsonWriter out) throws IOException {
+		out.beginObject();
+		out.name("type").value("LineString");
+		out.name("coordinates");
+		writeGeoJSONCoordinates(out);
+		out.endObject();
 	}
 
 	//Cloneable implementation ------------------------------------
 
 	@Override public KmlTrack clone(){
 		KmlTrack cloned = (KmlTrack) super.clone();
-		cloned.mWhen = new ArrayList<>(mWhen.size());
-		for (Date d : mWhen)
-			cloned.mWhen.add((Date) d.clone());
+		if (mWhen != null){
+			cloned.mWhen = new ArrayList<>(mWhen.size());
+			for (Date d : mWhen)
+				cloned.mWhen.add(d != null ? (Date) d.clone() : null);
+		}
+		if (mTimes != null)
+			cloned.mTimes = mTimes.clone();
 		return cloned;
 	}
 
+	//Binary serialization ------------
+
+	@Override public void writeBinary(KmlBinaryWriter out){
+		super.writeBinary(out);
+		if (mWhen != null)
+			out.writeDates(mWhen);
+		else
+			out.writeTimes(mTimes, mTimesCount);
+	}
+
+	public KmlTrack(KmlBinaryReader in) throws IOException {
+		super(in);
+		if (mPackedCoordinates == null && mCoordinates == null)
+			mPackedCoordinates = new PackedCoordinates();
+		mTimes = in.readTimes();
+		if (mTimes == null)
+			mTimes = new long[16];
+		else
+			mTimesCount = mTimes.length;
+	}
+
 	//Parcelable implementation ------------
 
 	@Override public int describeContents() {
@@ -207,7 +564,7 @@ public class KmlTrack extends KmlGeometry {
 
 	@Override public void writeToParcel(Parcel out, int flags) {
 		super.writeToParcel(out, flags);
-		out.writeList(mWhen);
+		out.writeLongArray(getTimes());
 	}
 
 	public static final Creator<KmlTrack> CREATOR = new Creator<KmlTrack>() {
@@ -221,6 +578,9 @@ public class KmlTrack extends KmlGeometry {
 
 	public KmlTrack(Parcel in){
 		super(in);
-		mWhen = in.readArrayList(Date.class.getClassLoader());
+		mTimes = in.createLongArray();
+		mTimesCount = mTimes.length;
+		//coordinates are GeoPoints: set the times as Dates too
+		getWhen();
 	}
 }
@@ -0,0 +1,299 @@
+package org.osmdroid.bonuspack.kml;
+
+import android.graphics.Canvas;
+import android.view.MotionEvent;
+
+import org.osmdroid.bonuspack.utils.BonusPackHelper;
+import org.osmdroid.bonuspack.utils.RTree;
+import org.osmdroid.util.BoundingBox;
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.overlay.Overlay;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Overlay displaying the content of a KML Folder, building osmdroid overlays only for the features
+ * in or near the current map view. <br>
+ * Features are found with a spatial index of the displayable features, owned by this overlay
+ * (the spatial index of the folder, if any, is neither used nor modified).
+ * Overlays are built with KmlFeature.buildOverlay, so the default styling and the Styler apply as usual.
+ * Overlays of features leaving the view are kept in a limited cache, and reused if these features come back. <br>
+ *
+ * When there is no Styler, features inside an invisible folder are not displayed.
+ * Folder overlays are not built, so Styler.onFeature is only called for GroundOverlays. <br>
+ *
+ * If the content of the folder changes, call invalidate - or refresh, if only features have been added or removed.
+ */
+public class KmlViewportOverlay extends Overlay {
+
+	protected MapView mMapView;
+	protected KmlFolder mFolder;
+	protected KmlDocument mKmlDocument;
+	protected Style mDefaultStyle;
+	protected KmlFeature.Styler mStyler;
+	protected String mName, mDescription;
+
+	/** margin around the view, as a fraction of the view size */
+	protected float mMargin;
+	/** max number of overlays kept out of the view */
+	protected int mCacheSize;
+
+	/** document order of displayable features */
+	protected IdentityHashMap<KmlFeature, Integer> mOrder;
+	/** spatial index of the displayable features */
+	protected RTree<KmlFeature> mIndex;
+	/** area covered by mActive: the view, with the margin */
+	protected BoundingBox mCoveredArea;
+	/** overlays of the features in the covered area, in document order */
+	protected LinkedHashMap<KmlFeature, Overlay> mActive;
+	/** overlays of features out of the covered area, least recently used first */
+	protected LinkedHashMap<KmlFeature, Overlay> mCache;
+
+	/**
+	 * @param map
+	 * @param folder KML content to display - typically the root of the KML document.
+	 * @param defaultStyle to apply when a feature has no Style defined.
+	 * @param styler to apply - can be null.
+	 * @param kmlDocument for Styles
+	 */
+	public KmlViewportOverlay(MapView map, KmlFolder folder, Style defaultStyle, KmlFeature.Styler styler, KmlDocument kmlDocument){
+		super();
+		mMapView = map;
+		mFolder = folder;
+		mDefaultStyle = defaultStyle;
+		mStyler = styler;
+		mKmlDocument = kmlDocument;
+		mName = folder.mName;
+		mDescription = folder.mDescription;
+		mMargin = 0.5f;
+		mCacheSize = 200;
+		mActive = new LinkedHashMap<KmlFeature, Overlay>();
+		mCache = new LinkedHashMap<KmlFeature, Overlay>(16, 0.75f, true);
+		invalidate();
+	}
+
+	public void setName(String name){
+		mName = name;
+	}
+
+	public String getName(){
+		return mName;
+	}
+
+	public void setDescription(String description){
+		mDescription = description;
+	}
+
+	public String getDescription(){
+		return mDescription;
+	}
+
+	/**
+	 * @param margin area around the view where overlays are also built, as a fraction of the view size.
+	 * A larger margin means less rebuilding while panning, but more overlays alive. Default is 0.5.
+	 */
+	public void setMargin(float margin){
+		mMargin = margin;
+		mCoveredArea = null;
+	}
+
+	/** @param cacheSize max number of overlays kept for features out of the view. Default is 200. */
+	public void setCacheSize(int cacheSize){
+		mCacheSize = cacheSize;
+		trimCache();
+	}
+
+	/** @return the overlays currently built for the features in or near the view */
+	public List<Overlay> getActiveOverlays(){
+		return new ArrayList<Overlay>(mActive.values());
+	}
+
+	/**
+	 * Drop all built overlays, and refresh the spatial index.
+	 * To call after a change in the KML content or in its styles.
+	 */
+	public void invalidate(){
+		mOrder = new IdentityHashMap<KmlFeature, Integer>();
+		collectDisplayable(mFolder);
+		buildIndex();
+		for (Overlay overlay:mActive.values())
+			overlay.onDetach(mMapView);
+		for (Overlay overlay:mCache.values())
+			overlay.onDetach(mMapView);
+		mActive.clear();
+		mCache.clear();
+		mCoveredArea = null;
+	}
+
+	/**
+	 * Refresh the spatial index after features have been added to or removed from the folder
+	 * (typically by KmlIncrementalLoader.reload), keeping the overlays of the features still displayable.
+	 * Contrary to invalidate, features which have been modified in place are not rebuilt.
+	 */
+	public void refresh(){
+		mOrder = new IdentityHashMap<KmlFeature, Integer>();
+		collectDisplayable(mFolder);
+		buildIndex();
+		dropRemoved(mActive);
+		dropRemoved(mCache);
+		mCoveredArea = null;
+	}
+
+	protected void dropRemoved(LinkedHashMap<KmlFeature, Overlay> overlays){
+		Iterator<Map.Entry<KmlFeature, Overlay>> iterator = overlays.entrySet().iterator();
+		while (iterator.hasNext()){
+			Map.Entry<KmlFeature, Overlay> entry = iterator.next();
+			if (!mOrder.containsKey(entry.getKey())){
+				entry.getValue().onDetach(mMapView);
+				iterator.remove();
+			}
+		}
+	}
+
+	protected void collectDisplayable(KmlFolder folder){
+		for (KmlFeature item:folder.mItems){
+			if (item instanceof KmlFolder){
+				if (mStyler != null || item.mVisibility)
+					collectDisplayable((KmlFolder)item);
+			} else
+				mOrder.put(item, mOrder.size());
+		}
+	}
+
+	/** build the spatial index of the displayable features */
+	protected void buildIndex(){
+		ArrayList<KmlFeature> features = new ArrayList<KmlFeature>(mOrder.keySet());
+		ArrayList<BoundingBox> boxes = new ArrayList<BoundingBox>(features.size());
+		for (KmlFeature feature:features)
+			boxes.add(feature.getCachedBoundingBox());
+		mIndex = new RTree<KmlFeature>();
+		mIndex.load(features, boxes);
+	}
+
+	protected boolean contains(BoundingBox outer, BoundingBox inner){
+		return BonusPackHelper.containsWithDateLine(outer, inner);
+	}
+
+	/** @return true if the covered area must be rebuilt for this view: not covered, or much too large after zooming in. */
+	protected boolean needsUpdate(BoundingBox view){
+		if (mCoveredArea == null || !contains(mCoveredArea, view))
+			return true;
+		double maxSpan = view.getLatitudeSpan() * (1.0 + 2.0*mMargin) * 2.0;
+		return mCoveredArea.getLatitudeSpan() > maxSpan;
+	}
+
+	/** build the overlays of the features in the view and its margin, reusing existing ones */
+	protected void update(BoundingBox view){
+		BoundingBox area = BonusPackHelper.increaseByScaleWithDateLine(view, 1.0f + 2.0f*mMargin);
+		ArrayList<KmlFeature> features = mIndex.search(area);
+		Collections.sort(features, new Comparator<KmlFeature>() {
+			@Override public int compare(KmlFeature f1, KmlFeature f2){
+				return mOrder.get(f1) - mOrder.get(f2);
+			}
+		});
+		LinkedHashMap<KmlFeature, Overlay> active = new LinkedHashMap<KmlFeature, Overlay>(features.size()*2);
+		for (KmlFeature feature:features){
+			Overlay overlay = mActive.remove(feature);
+			if (overlay == null)
+				overlay = mCache.remove(feature);
+			if (overlay == null)
+				overlay = feature.buildOverlay(mMapView, mDefaultStyle, mStyler, mKmlDocument);
+			if (overlay != null)
+				active.put(feature, overlay);
+		}
+		//features leaving the covered area go to the cache:
+		for (Map.Entry<KmlFeature, Overlay> entry:mActive.entrySet())
+			mCache.put(entry.getKey(), entry.getValue());
+		mActive = active;
+		mCoveredArea = area;
+		trimCache();
+	}
+
+	protected void trimCache(){
+		while (mCache.size() > mCacheSize){
+			Map.Entry<KmlFeature, Overlay> eldest = mCache.entrySet().iterator().next();
+			eldest.getValue().onDetach(mMapView);
+			mCache.remove(eldest.getKey());
+		}
+	}
+
+	@Override public BoundingBox getBounds(){
+		return mFolder.getCachedBoundingBox();
+	}
+
+	@Override public void draw(Canvas canvas, MapView mapView, boolean shadow){
+		if (shadow)
+			return;
+		BoundingBox view = mapView.getBoundingBox();
+		if (needsUpdate(view))
+			update(view);
+		for (Overlay overlay:mActive.values()){
+			if (overlay.isEnabled())
+				overlay.draw(canvas, mapView, false);
+		}
+	}
+
+	/** @return the active overlays, topmost first, for events handling */
+	protected List<Overlay> getOverlaysForEvents(){
+		ArrayList<Overlay> overlays = new ArrayList<Overlay>(mActive.values());
+		Collections.reverse(overlays);
+		return overlays;
+	}
+
+	@Override public boolean onSingleTapConfirmed(MotionEvent e, MapView mapView){
+		if (!isEnabled())
+			return false;
+		for (Overlay overlay:getOverlaysForEvents()){
+			if (overlay.isEnabled() && overlay.onSingleTapConfirmed(e, mapView))
+				return true;
+		}
+		return false;
+	}
+
+	@Override public boolean onLongPress(MotionEvent e, MapView mapView){
+		if (!isEnabled())
+			return false;
+		for (Overlay overlay:getOverlaysForEvents()){
+			if (overlay.isEnabled() && overlay.onLongPress(e, mapView))
+				return true;
+		}
+		return false;
+	}
+
+	@Override public boolean onTouchEvent(MotionEvent e, MapView mapView){
+		if (!isEnabled())
+			return false;
+		for (Overlay overlay:getOverlaysForEvents()){
+			if (overlay.isEnabled() && overlay.onTouchEvent(e, mapView))
+				return true;
+		}
+		return false;
+	}
+
+	@Override public boolean onDoubleTap(MotionEvent e, MapView mapView){
+		if (!isEnabled())
+			return false;
+		for (Overlay overlay:getOverlaysForEvents()){
+			if (overlay.isEnabled() && overlay.onDoubleTap(e, mapView))
+				return true;
+		}
+		return false;
+	}
+
+	@Override public void onDetach(MapView mapView){
+		for (Overlay overlay:mActive.values())
+			overlay.onDetach(mapView);
+		for (Overlay overlay:mCache.values())
+			overlay.onDetach(mapView);
+		mActive.clear();
+		mCache.clear();
+		mCoveredArea = null;
+	}
+}
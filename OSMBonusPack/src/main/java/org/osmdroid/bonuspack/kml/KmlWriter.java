@@ -0,0 +1,353 @@
+package org.osmdroid.bonuspack.kml;
+
+import android.graphics.Bitmap;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Output engine for KML: a large char buffer on top of an UTF-8 stream,
+ * which can be plain, gzip-compressed, or the "doc.kml" entry of a KMZ file. <br>
+ *
+ * Coordinates and other doubles written through writeDouble are formatted without any String allocation,
+ * rounded to a fixed number of decimals (trailing zeros removed).
+ * With FULL_PRECISION, doubles are written exactly as Double.toString does. <br>
+ *
+ * KML writers (KmlDocument.saveAsKML, KmlGeometry.writeKMLCoordinates, ...) use these features
+ * when they are given a KmlWriter, and work as before with any other Writer. <br>
+ *
+ * In KMZ format, bitmaps can be embedded in the KMZ file (see embedBitmap). 
+ * They are deduplicated by content, and written after the KML entry, when closing. 
+ * This class is not thread-safe.
+ */
+public class KmlWriter extends Writer {
+
+	/** output formats */
+	public static final int FORMAT_KML=0, FORMAT_GZIP=1, FORMAT_KMZ=2;
+	/** number of decimals to write doubles exactly as Double.toString */
+	public static final int FULL_PRECISION = -1;
+	/** max number of decimals supported in fixed precision */
+	public static final int MAX_DECIMALS = 12;
+	/** name of the KML entry in a KMZ file */
+	public static final String KMZ_ROOT_ENTRY = "doc.kml";
+	/** folder of the embedded files in a KMZ file */
+	public static final String KMZ_FILES_FOLDER = "files/";
+
+	protected static final int BUFFER_SIZE = 64*1024;
+
+	protected Writer mOut;
+	protected ZipOutputStream mZip;
+	protected char[] mBuffer;
+	protected int mCount;
+	protected int mDecimals;
+	protected long mScale;
+	protected char[] mDigits;
+	/** KMZ entry name of each embedded bitmap */
+	protected IdentityHashMap<Bitmap, String> mEmbeddedBitmaps;
+	/** content of the embedded files, by entry name */
+	protected LinkedHashMap<String, byte[]> mEmbeddedFiles;
+
+	/**
+	 * @param out destination stream. It will be closed when closing this writer.
+	 * @param format FORMAT_KML, FORMAT_GZIP or FORMAT_KMZ
+	 * @param decimals number of decimals of doubles, or FULL_PRECISION
+	 * @throws IOException
+	 */
+	public KmlWriter(OutputStream out, int format, int decimals) throws IOException {
+		OutputStream stream;
+		switch (format){
+			case FORMAT_GZIP:
+				stream = new GZIPOutputStream(out, BUFFER_SIZE);
+				break;
+			case FORMAT_KMZ:
+				mZip = new ZipOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+				mZip.putNextEntry(new ZipEntry(KMZ_ROOT_ENTRY));
+				stream = mZip;
+				break;
+			default:
+				stream = new BufferedOutputStream(out, BUFFER_SIZE);
+		}
+		mOut = new OutputStreamWriter(stream, "UTF-8");
+		mBuffer = new char[BUFFER_SIZE];
+		mCount = 0;
+		mDigits = new char[20];
+		mEmbeddedBitmaps = new IdentityHashMap<Bitmap, String>();
+		mEmbeddedFiles = new LinkedHashMap<String, byte[]>();
+		setDecimals(decimals);
+	}
+
+	/** Open a KmlWriter on a file */
+	public KmlWriter(File file, int format, int decimals) throws IOException {
+		this(new FileOutputStream(file), format, decimals);
+	}
+
+	/** @param decimals number of decimals of doubles (0 to MAX_DECIMALS), or FULL_PRECISION */
+	public void setDecimals(int decimals){
+		if (decimals > MAX_DECIMALS)
+			throw new IllegalArgumentException("Too many decimals: "+decimals);
+		mDecimals = (decimals < 0 ? FULL_PRECISION : decimals);
+		mScale = 1;
+		for (int i=0; i<mDecimals; i++)
+			mScale *= 10;
+	}
+
+	public int getDecimals(){
+		return mDecimals;
+	}
+
+	//Writer implementation ------------
+
+	protected void flushBuffer() throws IOException {
+		if (mCount > 0){
+			mOut.write(mBuffer, 0, mCount);
+			mCount = 0;
+		}
+	}
+
+	/** make room for length chars in the buffer - length must not exceed the buffer size */
+	protected void ensureRoom(int length) throws IOException {
+		if (mCount + length > mBuffer.length)
+			flushBuffer();
+	}
+
+	@Override public void write(int c) throws IOException {
+		ensureRoom(1);
+		mBuffer[mCount++] = (char)c;
+	}
+
+	@Override public void write(char[] chars, int offset, int length) throws IOException {
+		if (length > mBuffer.length){
+			flushBuffer();
+			mOut.write(chars, offset, length);
+			return;
+		}
+		ensureRoom(length);
+		System.arraycopy(chars, offset, mBuffer, mCount, length);
+		mCount += length;
+	}
+
+	@Override public void write(String s, int offset, int length) throws IOException {
+		if (length > mBuffer.length){
+			flushBuffer();
+			mOut.write(s, offset, length);
+			return;
+		}
+		ensureRoom(length);
+		s.getChars(offset, offset+length, mBuffer, mCount);
+		mCount += length;
+	}
+
+	@Override public void write(String s) throws IOException {
+		write(s, 0, s.length());
+	}
+
+	@Override public void flush() throws IOException {
+		flushBuffer();
+		mOut.flush();
+	}
+
+	@Override public void close() throws IOException {
+		flushBuffer();
+		if (mZip != null){
+			mOut.flush();
+			mZip.closeEntry();
+			writeEmbeddedFiles();
+		}
+		mOut.close();
+	}
+
+	//Embedded files ------------
+
+	/**
+	 * Embed a bitmap in the KMZ file, as a PNG. Identical bitmaps are embedded only once. 
+	 * @param bitmap
+	 * @return the name of its entry in the KMZ, to use as href - or null if this is not a KMZ writer. 
+	 */
+	public String embedBitmap(Bitmap bitmap){
+		return embedImage(bitmap, null, null);
+	}
+
+	/**
+	 * Embed an image in the KMZ file. Identical images are embedded only once. 
+	 * @param bitmap the decoded image
+	 * @param original content of the image file (JPEG, PNG...), embedded as is. 
+	 * null if not available: the bitmap is then embedded as a PNG. 
+	 * @param href of the image file, giving the extension of the original content - can be null
+	 * @return the name of its entry in the KMZ, to use as href - or null if this is not a KMZ writer. 
+	 */
+	public String embedImage(Bitmap bitmap, byte[] original, String href){
+		if (mZip == null || bitmap == null)
+			return null;
+		String name = mEmbeddedBitmaps.get(bitmap);
+		if (name != null)
+			return name;
+		byte[] content;
+		String extension;
+		if (original != null){
+			content = original;
+			extension = getExtension(href);
+		} else {
+			ByteArrayOutputStream png = new ByteArrayOutputStream();
+			bitmap.compress(Bitmap.CompressFormat.PNG, 100, png);
+			content = png.toByteArray();
+			extension = ".png";
+		}
+		name = KMZ_FILES_FOLDER + contentHash(content) + extension;
+		if (!mEmbeddedFiles.containsKey(name))
+			mEmbeddedFiles.put(name, content);
+		mEmbeddedBitmaps.put(bitmap, name);
+		return name;
+	}
+
+	/** @return the KMZ entry name of this bitmap if it has been embedded, else null */
+	public String getEmbeddedName(Bitmap bitmap){
+		return (bitmap != null ? mEmbeddedBitmaps.get(bitmap) : null);
+	}
+
+	/**
+	 * @return the href to write for an image: its KMZ entry name if the writer is a KmlWriter which embedded it, 
+	 * else the original href. 
+	 */
+	public static String getHref(Writer writer, Bitmap bitmap, String href){
+		if (writer instanceof KmlWriter){
+			String name = ((KmlWriter)writer).getEmbeddedName(bitmap);
+			if (name != null)
+				return name;
+		}
+		return href;
+	}
+
+	/** @return the extension of the file name, with the dot, in lower case - "" if none */
+	protected static String getExtension(String href){
+		if (href == null)
+			return "";
+		int dot = href.lastIndexOf('.');
+		if (dot < 0 || dot < href.lastIndexOf('/') || href.length() - dot > 6)
+			return "";
+		for (int i=dot+1; i<href.length(); i++){
+			if (!Character.isLetterOrDigit(href.charAt(i)))
+				return "";
+		}
+		return href.substring(dot).toLowerCase();
+	}
+
+	protected static String contentHash(byte[] content){
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e){
+			//always available on Android
+			throw new IllegalStateException(e);
+		}
+		byte[] hash = digest.digest(content);
+		StringBuilder hex = new StringBuilder(hash.length*2);
+		for (byte b:hash){
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/** write the embedded files as STORED entries, as PNG content is already compressed */
+	protected void writeEmbeddedFiles() throws IOException {
+		for (Map.Entry<String, byte[]> file:mEmbeddedFiles.entrySet()){
+			byte[] content = file.getValue();
+			ZipEntry entry = new ZipEntry(file.getKey());
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(content.length);
+			entry.setCompressedSize(content.length);
+			CRC32 crc = new CRC32();
+			crc.update(content);
+			entry.setCrc(crc.getValue());
+			mZip.putNextEntry(entry);
+			mZip.write(content);
+			mZip.closeEntry();
+		}
+		mEmbeddedFiles.clear();
+	}
+
+	//Numbers ------------
+
+	/** write a long value, without String allocation */
+	public void writeLong(long value) throws IOException {
+		if (value == Long.MIN_VALUE){
+			write(Long.toString(value));
+			return;
+		}
+		ensureRoom(20);
+		if (value < 0){
+			mBuffer[mCount++] = '-';
+			value = -value;
+		}
+		int n = 0;
+		do {
+			mDigits[n++] = (char)('0' + (value % 10));
+			value /= 10;
+		} while (value != 0);
+		while (n > 0)
+			mBuffer[mCount++] = mDigits[--n];
+	}
+
+	/**
+	 * Write a double, rounded to the number of decimals of this writer, trailing zeros removed.
+	 * NaN, infinite and very large values, or all values in FULL_PRECISION, are written with Double.toString.
+	 */
+	public void writeDouble(double value) throws IOException {
+		if (mDecimals == FULL_PRECISION || Double.isNaN(value) || Double.isInfinite(value)){
+			write(Double.toString(value));
+			return;
+		}
+		double scaled = Math.abs(value) * mScale;
+		if (scaled >= 1E15){
+			write(Double.toString(value));
+			return;
+		}
+		long units = Math.round(scaled);
+		if (units == 0){
+			write('0');
+			return;
+		}
+		if (value < 0)
+			write('-');
+		writeLong(units / mScale);
+		long fraction = units % mScale;
+		if (fraction == 0)
+			return;
+		int digits = mDecimals;
+		while (fraction % 10 == 0){
+			fraction /= 10;
+			digits--;
+		}
+		ensureRoom(digits+1);
+		mBuffer[mCount++] = '.';
+		for (int i=digits-1; i>=0; i--){
+			mBuffer[mCount+i] = (char)('0' + (fraction % 10));
+			fraction /= 10;
+		}
+		mCount += digits;
+	}
+
+	/** write a KML coordinates tuple: longitude, latitude and altitude, with the separator between values */
+	public void writeCoordinates(double longitude, double latitude, double altitude, char separator) throws IOException {
+		writeDouble(longitude);
+		write(separator);
+		writeDouble(latitude);
+		write(separator);
+		writeDouble(altitude);
+	}
+}
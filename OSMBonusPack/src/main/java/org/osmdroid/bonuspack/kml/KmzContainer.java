@@ -0,0 +1,293 @@
+package org.osmdroid.bonuspack.kml;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import org.osmdroid.bonuspack.utils.BonusPackHelper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Read-only access to a KMZ file, memory-mapped once. <br>
+ * The central directory of the archive is indexed when opening,
+ * then entries are served directly from the mapped memory, either as streams or as decoded Bitmaps.
+ * Decoded Bitmaps are cached, so an icon shared by many styles is decoded only once. <br>
+ *
+ * Supports stored and deflated entries. ZIP64 archives are not supported. <br>
+ * Can be used by multiple threads.
+ */
+public class KmzContainer implements Closeable {
+
+	protected static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	protected static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	protected static final int END_HEADER_SIGNATURE = 0x06054b50;
+	protected static final int END_HEADER_SIZE = 22;
+	protected static final int METHOD_STORED = 0;
+	protected static final int METHOD_DEFLATED = 8;
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** An entry of the archive, as described in its central directory */
+	public static class Entry {
+		public final String mName;
+		public final int mMethod;
+		public final int mCompressedSize;
+		public final int mSize;
+		/** position of the entry data in the file */
+		protected int mDataOffset;
+
+		Entry(String name, int method, int compressedSize, int size){
+			mName = name;
+			mMethod = method;
+			mCompressedSize = compressedSize;
+			mSize = size;
+		}
+	}
+
+	protected File mFile;
+	/** only accessed with absolute gets, so it can be shared by all threads */
+	protected ByteBuffer mBuffer;
+	protected HashMap<String, Entry> mEntries;
+	/** entry names, in the order of the central directory */
+	protected ArrayList<String> mEntryNames;
+	protected final HashMap<String, Bitmap> mBitmapCache;
+
+	/**
+	 * Open and index a KMZ file.
+	 * @param file the KMZ file
+	 * @throws IOException if the file cannot be read, or is not a valid zip archive.
+	 */
+	public KmzContainer(File file) throws IOException {
+		mFile = file;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			mBuffer = buffer;
+		} finally {
+			raf.close(); //the mapping stays valid
+		}
+		mEntries = new HashMap<String, Entry>();
+		mEntryNames = new ArrayList<String>();
+		mBitmapCache = new HashMap<String, Bitmap>();
+		readCentralDirectory();
+	}
+
+	protected int findEndHeader() throws IOException {
+		int limit = mBuffer.limit();
+		int min = Math.max(0, limit - END_HEADER_SIZE - 0xFFFF); //the archive comment is at most 64KB
+		for (int pos = limit - END_HEADER_SIZE; pos >= min; pos--){
+			if (mBuffer.getInt(pos) == END_HEADER_SIGNATURE)
+				return pos;
+		}
+		throw new IOException("Not a zip archive: "+mFile);
+	}
+
+	protected void readCentralDirectory() throws IOException {
+		int end = findEndHeader();
+		int count = mBuffer.getShort(end+10) & 0xFFFF;
+		long directoryOffset = mBuffer.getInt(end+16) & 0xFFFFFFFFL;
+		if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL)
+			throw new IOException("ZIP64 archives are not supported: "+mFile);
+		int pos = (int)directoryOffset;
+		for (int i=0; i<count; i++){
+			if (mBuffer.getInt(pos) != CENTRAL_HEADER_SIGNATURE)
+				throw new IOException("Invalid zip central directory: "+mFile);
+			int method = mBuffer.getShort(pos+10) & 0xFFFF;
+			int compressedSize = mBuffer.getInt(pos+20);
+			int size = mBuffer.getInt(pos+24);
+			int nameLength = mBuffer.getShort(pos+28) & 0xFFFF;
+			int extraLength = mBuffer.getShort(pos+30) & 0xFFFF;
+			int commentLength = mBuffer.getShort(pos+32) & 0xFFFF;
+			int localHeaderOffset = mBuffer.getInt(pos+42);
+			byte[] nameBytes = new byte[nameLength];
+			for (int b=0; b<nameLength; b++)
+				nameBytes[b] = mBuffer.get(pos+46+b);
+			String name = new String(nameBytes, UTF8);
+			Entry entry = new Entry(name, method, compressedSize, size);
+			//the local header has its own name and extra field lengths:
+			if (mBuffer.getInt(localHeaderOffset) != LOCAL_HEADER_SIGNATURE)
+				throw new IOException("Invalid zip local header for "+name);
+			entry.mDataOffset = localHeaderOffset + 30
+					+ (mBuffer.getShort(localHeaderOffset+26) & 0xFFFF)
+					+ (mBuffer.getShort(localHeaderOffset+28) & 0xFFFF);
+			mEntries.put(name, entry);
+			mEntryNames.add(name);
+			pos += 46 + nameLength + extraLength + commentLength;
+		}
+	}
+
+	/** @return the KMZ file */
+	public File getFile(){
+		return mFile;
+	}
+
+	/** @return the names of all entries, in the archive order */
+	public List<String> getEntryNames(){
+		return mEntryNames;
+	}
+
+	/** @return the entry with this name, or null if there is no such entry */
+	public Entry getEntry(String name){
+		return mEntries.get(name);
+	}
+
+	/** @return the name of the root KML document: the first .kml entry at the top level of the archive, or null if none. */
+	public String getRootKmlName(){
+		for (String name:mEntryNames){
+			if (name.endsWith(".kml") && !name.contains("/"))
+				return name;
+		}
+		return null;
+	}
+
+	/** @return a view on the raw (possibly compressed) data of this entry */
+	protected ByteBuffer getRawData(Entry entry){
+		ByteBuffer data = mBuffer.duplicate();
+		data.limit(entry.mDataOffset + entry.mCompressedSize);
+		data.position(entry.mDataOffset);
+		return data.slice();
+	}
+
+	/**
+	 * @param name entry name
+	 * @return a stream on the uncompressed content of this entry, or null if there is no such entry.
+	 */
+	public InputStream getInputStream(String name){
+		Entry entry = mEntries.get(name);
+		if (entry == null)
+			return null;
+		InputStream stream = new ByteBufferInputStream(getRawData(entry));
+		switch (entry.mMethod){
+			case METHOD_STORED:
+				return stream;
+			case METHOD_DEFLATED:
+				return new InflaterInputStream(stream, new Inflater(true), 8192){
+					@Override public void close() throws IOException {
+						super.close();
+						inf.end();
+					}
+				};
+			default:
+				Log.e(BonusPackHelper.LOG_TAG, "KmzContainer - unsupported compression method for "+name);
+				return null;
+		}
+	}
+
+	/**
+	 * @param name entry name
+	 * @return the uncompressed content of this entry, or null if there is no such entry or if it cannot be read.
+	 */
+	public byte[] getBytes(String name){
+		Entry entry = mEntries.get(name);
+		if (entry == null)
+			return null;
+		ByteBuffer data = getRawData(entry);
+		byte[] raw = new byte[entry.mCompressedSize];
+		data.get(raw);
+		if (entry.mMethod == METHOD_STORED)
+			return raw;
+		if (entry.mMethod != METHOD_DEFLATED)
+			return null;
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(raw);
+			byte[] content = new byte[entry.mSize];
+			int length = 0;
+			while (length < content.length && !inflater.finished()){
+				int n = inflater.inflate(content, length, content.length - length);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				length += n;
+			}
+			return (length == content.length ? content : null);
+		} catch (DataFormatException e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Get an image entry, decoding it only on the first call.
+	 * @param name entry name
+	 * @return the decoded Bitmap, or null if there is no such entry or if it is not an image.
+	 * The Bitmap is shared by all callers: it must not be modified or recycled.
+	 */
+	public Bitmap getBitmap(String name){
+		synchronized (mBitmapCache){
+			if (mBitmapCache.containsKey(name))
+				return mBitmapCache.get(name);
+		}
+		Bitmap bitmap = null;
+		byte[] content = getBytes(name);
+		if (content != null)
+			bitmap = BitmapFactory.decodeByteArray(content, 0, content.length);
+		synchronized (mBitmapCache){
+			//if another thread decoded it meanwhile, keep the first one:
+			if (mBitmapCache.containsKey(name))
+				return mBitmapCache.get(name);
+			mBitmapCache.put(name, bitmap);
+		}
+		return bitmap;
+	}
+
+	/** Release the decoded Bitmaps. The mapping itself is released when this object is garbage collected. */
+	@Override public void close(){
+		synchronized (mBitmapCache){
+			mBitmapCache.clear();
+		}
+	}
+
+	/** InputStream reading a ByteBuffer, from its position to its limit */
+	protected static class ByteBufferInputStream extends InputStream {
+		protected final ByteBuffer mData;
+
+		public ByteBufferInputStream(ByteBuffer data){
+			mData = data;
+		}
+
+		@Override public int read(){
+			if (!mData.hasRemaining())
+				return -1;
+			return mData.get() & 0xFF;
+		}
+
+		@Override public int read(byte[] b, int off, int len){
+			if (len == 0)
+				return 0;
+			if (!mData.hasRemaining())
+				return -1;
+			int n = Math.min(len, mData.remaining());
+			mData.get(b, off, n);
+			return n;
+		}
+
+		@Override public long skip(long n){
+			int skipped = (int)Math.max(0, Math.min(n, mData.remaining()));
+			mData.position(mData.position() + skipped);
+			return skipped;
+		}
+
+		@Override public int available(){
+			return mData.remaining();
+		}
+	}
+}
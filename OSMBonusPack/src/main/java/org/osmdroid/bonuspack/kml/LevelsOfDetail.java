@@ -0,0 +1,116 @@
+package org.osmdroid.bonuspack.kml;
+
+import org.osmdroid.util.GeoPoint;
+
+import java.util.ArrayList;
+
+/**
+ * Multi-resolution pyramid of a line or ring: simplified versions of its coordinates, one per band of zoom levels. <br>
+ * Level i is simplified with a tolerance of mPixelTolerance at zoom ZOOM_BANDS[i], and is used up to this zoom.
+ * Above the last band, the full coordinates are used. <br>
+ * Levels are computed once, each one from the previous finer level. A level which would not remove
+ * enough points shares the coordinates of the finer level.
+ * @see PackedCoordinates#simplify(double)
+ */
+public class LevelsOfDetail {
+
+	/** upper zoom level of each band, from coarsest to finest */
+	public static final int[] ZOOM_BANDS = {4, 7, 10, 13, 16};
+	/** a simplified level is kept only if it has less than this ratio of the points of the finer level */
+	protected static final double MIN_REDUCTION = 0.8;
+
+	protected PackedCoordinates mFull;
+	/** simplified coordinates of each band */
+	protected PackedCoordinates[] mLevels;
+	protected double mPixelTolerance;
+
+	/**
+	 * @param coordinates full resolution coordinates
+	 * @param pixelTolerance max distance between the displayed line and the real one, in pixels. Typically 1.0.
+	 */
+	public LevelsOfDetail(PackedCoordinates coordinates, double pixelTolerance){
+		mFull = coordinates;
+		mPixelTolerance = pixelTolerance;
+		mLevels = new PackedCoordinates[ZOOM_BANDS.length];
+		PackedCoordinates finer = coordinates;
+		for (int i=ZOOM_BANDS.length-1; i>=0; i--){
+			PackedCoordinates level = finer.simplify(getTolerance(ZOOM_BANDS[i], pixelTolerance));
+			if (level.size() > finer.size()*MIN_REDUCTION)
+				level = finer;
+			else
+				level.trimToSize();
+			mLevels[i] = level;
+			finer = level;
+		}
+	}
+
+	/** @return the tolerance in degrees of longitude corresponding to this number of pixels at this zoom level (256 pixels tiles) */
+	public static double getTolerance(double zoom, double pixels){
+		return pixels * 360.0 / (256.0 * Math.pow(2.0, zoom));
+	}
+
+	/** @return the index of the level to use at this zoom level, or -1 for the full coordinates */
+	public int getLevelIndex(double zoom){
+		for (int i=0; i<ZOOM_BANDS.length; i++){
+			if (zoom <= ZOOM_BANDS[i])
+				return i;
+		}
+		return -1;
+	}
+
+	/** @return the coordinates of this level, or the full coordinates if level is -1 */
+	public PackedCoordinates getLevel(int level){
+		return (level >= 0 ? mLevels[level] : mFull);
+	}
+
+	/** @return the coordinates to display at this zoom level */
+	public PackedCoordinates getCoordinates(double zoom){
+		return getLevel(getLevelIndex(zoom));
+	}
+
+	/** @return the number of points of the full coordinates */
+	public int getFullSize(){
+		return mFull.size();
+	}
+
+	/**
+	 * Helper for overlays: materialize each level as GeoPoints only once, when it is needed.
+	 * Levels sharing the same coordinates share the same list.
+	 */
+	public static class GeoPointsCache {
+		protected LevelsOfDetail mLevelsOfDetail;
+		protected ArrayList<GeoPoint>[] mPoints;
+		protected ArrayList<GeoPoint> mFullPoints;
+
+		@SuppressWarnings("unchecked")
+		public GeoPointsCache(LevelsOfDetail levelsOfDetail, ArrayList<GeoPoint> fullPoints){
+			mLevelsOfDetail = levelsOfDetail;
+			mPoints = new ArrayList[ZOOM_BANDS.length];
+			mFullPoints = fullPoints;
+		}
+
+		public LevelsOfDetail getLevelsOfDetail(){
+			return mLevelsOfDetail;
+		}
+
+		/** @return the points of this level, -1 for the full coordinates */
+		public ArrayList<GeoPoint> getPoints(int level){
+			if (level < 0 || mLevelsOfDetail.mLevels[level] == mLevelsOfDetail.mFull){
+				if (mFullPoints == null)
+					mFullPoints = mLevelsOfDetail.mFull.toGeoPoints();
+				return mFullPoints;
+			}
+			if (mPoints[level] == null){
+				//reuse the list of another level with the same coordinates:
+				PackedCoordinates coordinates = mLevelsOfDetail.mLevels[level];
+				for (int i=0; i<mPoints.length && mPoints[level] == null; i++){
+					if (mLevelsOfDetail.mLevels[i] == coordinates)
+						mPoints[level] = mPoints[i];
+				}
+				if (mPoints[level] == null)
+					mPoints[level] = coordinates.toGeoPoints();
+			}
+			return mPoints[level];
+		}
+	}
+}
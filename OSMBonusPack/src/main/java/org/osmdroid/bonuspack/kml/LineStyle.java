@@ -10,6 +10,11 @@ import java.io.Writer;
 /** Handling of KML LineStyle */
 public class LineStyle extends ColorStyle implements Parcelable {
 	public float mWidth;
+	/** Paint shared by all overlays using this LineStyle */
+	protected Paint mSharedPaint;
+	/** values mSharedPaint has been built with */
+	protected int mSharedColor, mSharedColorMode;
+	protected float mSharedWidth;
 
 	public LineStyle(){
 		this(0, 1.0f);
@@ -30,6 +35,30 @@ public class LineStyle extends ColorStyle implements Parcelable {
 		outlinePaint.setStyle(Paint.Style.STROKE);
 		return outlinePaint;
 	}
+
+	/** 
+	 * @return the outline Paint, shared: it must not be modified. 
+	 * It is rebuilt when the color, color mode or width changed. 
+	 * In random color mode, a new Paint is returned each time. 
+	 */
+	public Paint getSharedOutlinePaint(){
+		if (mColorMode == MODE_RANDOM)
+			return getOutlinePaint();
+		Paint paint = mSharedPaint;
+		if (paint == null || mSharedColor != mColor || mSharedColorMode != mColorMode || mSharedWidth != mWidth){
+			paint = getOutlinePaint();
+			mSharedColor = mColor;
+			mSharedColorMode = mColorMode;
+			mSharedWidth = mWidth;
+			mSharedPaint = paint;
+		}
+		return paint;
+	}
+
+	/** release the shared Paint, so that it is rebuilt after a change of color or width */
+	public void invalidateSharedObjects(){
+		mSharedPaint = null;
+	}
 	
 	public void writeAsKML(Writer writer){
 		try {
@@ -43,6 +72,18 @@ public class LineStyle extends ColorStyle implements Parcelable {
 		}
 	}
 	
+	//Binary serialization ------------
+
+	@Override public void writeBinary(KmlBinaryWriter out){
+		super.writeBinary(out);
+		out.writeFloat(mWidth);
+	}
+
+	public LineStyle(KmlBinaryReader in) throws IOException {
+		super(in);
+		mWidth = in.readFloat();
+	}
+
 	//Parcelable implementation ------------
 	
 	@Override public int describeContents() {
@@ -0,0 +1,233 @@
+package org.osmdroid.bonuspack.kml;
+
+import org.osmdroid.util.BoundingBox;
+import org.osmdroid.util.GeoPoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Growable array of coordinates, packed in a single double[] as (latitude, longitude, altitude) triplets.
+ * Avoids one GeoPoint object per vertex for large geometries. <br>
+ * A null GeoPoint can be stored: it is kept as an undefined point (NaN values), and given back as null.
+ */
+public class PackedCoordinates implements Cloneable {
+
+	/** number of doubles per point */
+	protected static final int STRIDE = 3;
+
+	protected double[] mData;
+	/** number of points */
+	protected int mSize;
+
+	public PackedCoordinates(){
+		this(16);
+	}
+
+	/** @param capacity initial capacity, in number of points */
+	public PackedCoordinates(int capacity){
+		mData = new double[Math.max(capacity, 1)*STRIDE];
+		mSize = 0;
+	}
+
+	/** constructs a packed copy of this list of GeoPoints */
+	public PackedCoordinates(List<GeoPoint> points){
+		this(points.size());
+		for (GeoPoint p:points)
+			add(p);
+	}
+
+	/** @return the number of points */
+	public int size(){
+		return mSize;
+	}
+
+	public boolean isEmpty(){
+		return mSize == 0;
+	}
+
+	public void clear(){
+		mSize = 0;
+	}
+
+	protected void ensureCapacity(int minCapacity){
+		if (minCapacity*STRIDE > mData.length){
+			int newCapacity = Math.max(minCapacity, (mData.length/STRIDE)*2);
+			mData = Arrays.copyOf(mData, newCapacity*STRIDE);
+		}
+	}
+
+	/** Add a point at the end */
+	public void add(double latitude, double longitude, double altitude){
+		ensureCapacity(mSize+1);
+		int i = mSize*STRIDE;
+		mData[i] = latitude;
+		mData[i+1] = longitude;
+		mData[i+2] = altitude;
+		mSize++;
+	}
+
+	/** Add a point at the end. A null point is stored as undefined. */
+	public void add(GeoPoint p){
+		if (p != null)
+			add(p.getLatitude(), p.getLongitude(), p.getAltitude());
+		else
+			add(Double.NaN, Double.NaN, Double.NaN);
+	}
+
+	/** @return true if the point at index is defined (has not been added as a null GeoPoint) */
+	public boolean isDefined(int index){
+		return !Double.isNaN(mData[index*STRIDE]);
+	}
+
+	public double getLatitude(int index){
+		return mData[index*STRIDE];
+	}
+
+	public double getLongitude(int index){
+		return mData[index*STRIDE+1];
+	}
+
+	public double getAltitude(int index){
+		return mData[index*STRIDE+2];
+	}
+
+	/** @return a new GeoPoint for the point at index, or null if this point is undefined */
+	public GeoPoint getGeoPoint(int index){
+		int i = index*STRIDE;
+		if (Double.isNaN(mData[i]))
+			return null;
+		return new GeoPoint(mData[i], mData[i+1], mData[i+2]);
+	}
+
+	/** @return all points, as a new list of GeoPoints */
+	public ArrayList<GeoPoint> toGeoPoints(){
+		ArrayList<GeoPoint> points = new ArrayList<GeoPoint>(mSize);
+		for (int i=0; i<mSize; i++)
+			points.add(getGeoPoint(i));
+		return points;
+	}
+
+	/** @return the bounding box of all defined points, or null if there is none */
+	public BoundingBox getBoundingBox(){
+		double north = -Double.MAX_VALUE, south = Double.MAX_VALUE;
+		double east = -Double.MAX_VALUE, west = Double.MAX_VALUE;
+		boolean found = false;
+		for (int i=0; i<mSize*STRIDE; i+=STRIDE){
+			double lat = mData[i];
+			if (Double.isNaN(lat))
+				continue;
+			double lon = mData[i+1];
+			north = Math.max(north, lat);
+			south = Math.min(south, lat);
+			east = Math.max(east, lon);
+			west = Math.min(west, lon);
+			found = true;
+		}
+		if (!found)
+			return null;
+		return new BoundingBox(north, east, south, west);
+	}
+
+	/**
+	 * Simplify the line with the Douglas-Peucker algorithm.
+	 * Distances are measured in the Web Mercator projection, so that the tolerance can be derived from a pixel size on the map.
+	 * First and last points are always kept.
+	 * @param tolerance max distance between the line and its simplified version, in degrees of longitude.
+	 * @return the simplified copy of these coordinates, or this if no point can be removed
+	 * or if some points are undefined.
+	 */
+	public PackedCoordinates simplify(double tolerance){
+		if (mSize <= 2)
+			return this;
+		double[] x = new double[mSize];
+		double[] y = new double[mSize];
+		for (int i=0; i<mSize; i++){
+			double lat = mData[i*STRIDE];
+			if (Double.isNaN(lat))
+				return this;
+			lat = Math.max(-85.05112878, Math.min(85.05112878, lat));
+			x[i] = mData[i*STRIDE+1];
+			y[i] = Math.toDegrees(Math.log(Math.tan(Math.PI/4 + Math.toRadians(lat)/2)));
+		}
+		boolean[] kept = new boolean[mSize];
+		kept[0] = kept[mSize-1] = true;
+		int keptCount = 2;
+		double squaredTolerance = tolerance*tolerance;
+		//iterative version, ranges to process on a stack:
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = mSize-1;
+		while (top > 0){
+			int last = stack[--top];
+			int first = stack[--top];
+			double maxDistance = -1.0;
+			int farthest = -1;
+			for (int i=first+1; i<last; i++){
+				double d = squaredSegmentDistance(x[i], y[i], x[first], y[first], x[last], y[last]);
+				if (d > maxDistance){
+					maxDistance = d;
+					farthest = i;
+				}
+			}
+			if (farthest >= 0 && maxDistance > squaredTolerance){
+				kept[farthest] = true;
+				keptCount++;
+				if (top + 4 > stack.length)
+					stack = Arrays.copyOf(stack, stack.length*2);
+				stack[top++] = first;
+				stack[top++] = farthest;
+				stack[top++] = farthest;
+				stack[top++] = last;
+			}
+		}
+		if (keptCount == mSize)
+			return this;
+		PackedCoordinates simplified = new PackedCoordinates(keptCount);
+		for (int i=0; i<mSize; i++){
+			if (kept[i])
+				simplified.add(mData[i*STRIDE], mData[i*STRIDE+1], mData[i*STRIDE+2]);
+		}
+		return simplified;
+	}
+
+	/** @return the squared distance between point p and segment [a, b] */
+	protected static double squaredSegmentDistance(double px, double py, double ax, double ay, double bx, double by){
+		double dx = bx - ax, dy = by - ay;
+		if (dx != 0.0 || dy != 0.0){
+			double t = ((px - ax)*dx + (py - ay)*dy) / (dx*dx + dy*dy);
+			if (t > 1.0){
+				ax = bx;
+				ay = by;
+			} else if (t > 0.0){
+				ax += dx*t;
+				ay += dy*t;
+			}
+		}
+		dx = px - ax;
+		dy = py - ay;
+		return dx*dx + dy*dy;
+	}
+
+	/** Release unused capacity */
+	public void trimToSize(){
+		if (mData.length > mSize*STRIDE)
+			mData = Arrays.copyOf(mData, Math.max(mSize, 1)*STRIDE);
+	}
+
+	//Cloneable implementation ------------------------------------
+
+	@Override public PackedCoordinates clone(){
+		PackedCoordinates packed;
+		try {
+			packed = (PackedCoordinates)super.clone();
+		} catch (CloneNotSupportedException e){
+			e.printStackTrace();
+			return null;
+		}
+		packed.mData = Arrays.copyOf(mData, Math.max(mSize, 1)*STRIDE);
+		return packed;
+	}
+}
@@ -21,6 +21,8 @@ public class Style extends StyleSelector implements Parcelable {
 	public ColorStyle mPolyStyle;
 	public LineStyle mLineStyle;
 	public IconStyle mIconStyle;
+	/** outline Paint shared by overlays, when there is no LineStyle */
+	protected Paint mSharedDefaultPaint;
 	
 	/** default constructor */
 	public Style(){
@@ -42,6 +44,12 @@ public class Style extends StyleSelector implements Parcelable {
 		mIconStyle.setIcon(iconHref, containerFile, kmzContainer);
 	}
 	
+	public void setIcon(String iconHref, KmzContainer kmzContainer){
+		if (mIconStyle == null)
+			mIconStyle = new IconStyle();
+		mIconStyle.setIcon(iconHref, kmzContainer);
+	}
+	
 	public BitmapDrawable getFinalIcon(Context context){
 		if (mIconStyle != null)
 			return mIconStyle.getFinalIcon(context);
@@ -59,6 +67,27 @@ public class Style extends StyleSelector implements Parcelable {
 		}
 	}
 	
+	/** 
+	 * @return the outline Paint, shared by all overlays using this Style: it must not be modified. 
+	 * @see LineStyle#getSharedOutlinePaint()
+	 */
+	public Paint getSharedOutlinePaint(){
+		if (mLineStyle != null)
+			return mLineStyle.getSharedOutlinePaint();
+		if (mSharedDefaultPaint == null)
+			mSharedDefaultPaint = getOutlinePaint();
+		return mSharedDefaultPaint;
+	}
+
+	/** release the shared Paints and icon, so that they are rebuilt after a change in this Style */
+	public void invalidateSharedObjects(){
+		mSharedDefaultPaint = null;
+		if (mLineStyle != null)
+			mLineStyle.invalidateSharedObjects();
+		if (mIconStyle != null)
+			mIconStyle.invalidateSharedObjects();
+	}
+
 	protected void writePolyStyle(Writer writer, ColorStyle colorStyle){
 		try {
 			writer.write("<PolyStyle>\n");
@@ -84,6 +113,29 @@ public class Style extends StyleSelector implements Parcelable {
 		}
 	}
 	
+	//Binary serialization ------------
+
+	@Override public void writeBinary(KmlBinaryWriter out){
+		out.writeBoolean(mLineStyle != null);
+		if (mLineStyle != null)
+			mLineStyle.writeBinary(out);
+		out.writeBoolean(mPolyStyle != null);
+		if (mPolyStyle != null)
+			mPolyStyle.writeBinary(out);
+		out.writeBoolean(mIconStyle != null);
+		if (mIconStyle != null)
+			mIconStyle.writeBinary(out);
+	}
+
+	public Style(KmlBinaryReader in) throws IOException {
+		if (in.readBoolean())
+			mLineStyle = new LineStyle(in);
+		if (in.readBoolean())
+			mPolyStyle = new ColorStyle(in);
+		if (in.readBoolean())
+			mIconStyle = new IconStyle(in);
+	}
+
 	//Parcelable implementation ------------
 	
 	@Override public int describeContents() {
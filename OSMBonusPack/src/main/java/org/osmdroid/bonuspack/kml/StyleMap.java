@@ -49,6 +49,18 @@ public class StyleMap extends StyleSelector implements Parcelable {
 		}
 	}
 
+	//Binary serialization ------------
+
+	@Override public void writeBinary(KmlBinaryWriter out){
+		out.writeStringMap(mPairs);
+	}
+
+	public StyleMap(KmlBinaryReader in) throws IOException {
+		mPairs = in.readStringMap();
+		if (mPairs == null)
+			mPairs = new HashMap<String, String>();
+	}
+
 	//Parcelable implementation ------------
 	
 	@Override public int describeContents() {
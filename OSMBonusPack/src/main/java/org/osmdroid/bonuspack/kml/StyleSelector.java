@@ -15,6 +15,11 @@ public abstract class StyleSelector implements Parcelable {
 	}
 	
 	abstract public void writeAsKML(Writer writer, String styleId);
+
+	/** Write this StyleSelector in the binary format. 
+	 * @see KmlBinaryWriter */
+	public void writeBinary(KmlBinaryWriter out){
+	}
 	
 	//TODO: need to implement Parcelable?
 }
@@ -239,10 +239,10 @@ public class OverpassAPIProvider {
 			ArrayList<GeoPoint> coords = parseGeometry(jo);
 			if (isAnArea(coords)){
 				geometry = new KmlPolygon();
-				geometry.mCoordinates = coords;
+				geometry.setCoordinates(coords);
 			} else {
 				geometry = new KmlLineString();
-				geometry.mCoordinates = coords;
+				geometry.setCoordinates(coords);
 			}
 		} else { //relation:
 			JsonArray jMembers = jo.get("members").getAsJsonArray();
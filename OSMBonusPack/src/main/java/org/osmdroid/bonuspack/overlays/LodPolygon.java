@@ -0,0 +1,77 @@
+package org.osmdroid.bonuspack.overlays;
+
+import android.graphics.Canvas;
+
+import org.osmdroid.bonuspack.kml.LevelsOfDetail;
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.views.Projection;
+import org.osmdroid.views.overlay.Polygon;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Polygon displaying a simplified version of its outline and holes, according to the zoom level. 
+ * The points are switched to the right level of detail before drawing, only when the zoom band changes. 
+ * Holes too small to be displayed at a level (less than 4 points once simplified) are skipped. 
+ * @see LevelsOfDetail
+ */
+public class LodPolygon extends Polygon {
+
+	protected LevelsOfDetail.GeoPointsCache mPoints;
+	/** for each hole: its levels of detail, or its points when it is small enough to be kept as is */
+	protected ArrayList<Object> mHoles;
+	/** level currently set as points of the polygon */
+	protected int mLevel;
+
+	/**
+	 * @param levelsOfDetail of the outline
+	 * @param holes for each hole, its levels of detail (LevelsOfDetail) or its full points (List of GeoPoints). Can be null. 
+	 * @param zoom initial zoom level of the map
+	 */
+	public LodPolygon(LevelsOfDetail levelsOfDetail, List<Object> holes, double zoom){
+		super();
+		mPoints = new LevelsOfDetail.GeoPointsCache(levelsOfDetail, null);
+		mHoles = new ArrayList<Object>();
+		if (holes != null){
+			for (Object hole:holes){
+				if (hole instanceof LevelsOfDetail)
+					mHoles.add(new LevelsOfDetail.GeoPointsCache((LevelsOfDetail)hole, null));
+				else
+					mHoles.add(hole);
+			}
+		}
+		setLevel(levelsOfDetail.getLevelIndex(zoom));
+	}
+
+	/** @return the level of detail currently displayed, -1 for full resolution */
+	public int getLevel(){
+		return mLevel;
+	}
+
+	@SuppressWarnings("unchecked")
+	protected void setLevel(int level){
+		mLevel = level;
+		setPoints(mPoints.getPoints(level));
+		if (mHoles.size() == 0)
+			return;
+		ArrayList<List<GeoPoint>> holes = new ArrayList<List<GeoPoint>>(mHoles.size());
+		for (Object hole:mHoles){
+			List<GeoPoint> points;
+			if (hole instanceof LevelsOfDetail.GeoPointsCache)
+				points = ((LevelsOfDetail.GeoPointsCache)hole).getPoints(level);
+			else
+				points = (List<GeoPoint>)hole;
+			if (points.size() >= 4)
+				holes.add(points);
+		}
+		setHoles(holes);
+	}
+
+	@Override public void draw(Canvas canvas, Projection projection){
+		int level = mPoints.getLevelsOfDetail().getLevelIndex(projection.getZoomLevel());
+		if (level != mLevel)
+			setLevel(level);
+		super.draw(canvas, projection);
+	}
+}
@@ -0,0 +1,54 @@
+package org.osmdroid.bonuspack.overlays;
+
+import android.graphics.Canvas;
+
+import org.osmdroid.bonuspack.kml.LevelsOfDetail;
+import org.osmdroid.views.Projection;
+import org.osmdroid.views.overlay.Polyline;
+
+/**
+ * Polyline displaying a simplified version of its line, according to the zoom level. 
+ * The points are switched to the right level of detail before drawing, only when the zoom band changes. 
+ * @see LevelsOfDetail
+ */
+public class LodPolyline extends Polyline {
+
+	protected LevelsOfDetail.GeoPointsCache mPoints;
+	/** level currently set as points of the polyline */
+	protected int mLevel;
+
+	/**
+	 * @param levelsOfDetail of the line
+	 * @param zoom initial zoom level of the map
+	 */
+	public LodPolyline(LevelsOfDetail levelsOfDetail, double zoom){
+		this(levelsOfDetail, zoom, false);
+	}
+
+	/**
+	 * @param levelsOfDetail of the line
+	 * @param zoom initial zoom level of the map
+	 * @param geodesic true to draw the segments as great circles - set before the points, as it applies when they are set
+	 */
+	public LodPolyline(LevelsOfDetail levelsOfDetail, double zoom, boolean geodesic){
+		super();
+		setGeodesic(geodesic);
+		mPoints = new LevelsOfDetail.GeoPointsCache(levelsOfDetail, null);
+		mLevel = levelsOfDetail.getLevelIndex(zoom);
+		setPoints(mPoints.getPoints(mLevel));
+	}
+
+	/** @return the level of detail currently displayed, -1 for full resolution */
+	public int getLevel(){
+		return mLevel;
+	}
+
+	@Override public void draw(Canvas canvas, Projection projection){
+		int level = mPoints.getLevelsOfDetail().getLevelIndex(projection.getZoomLevel());
+		if (level != mLevel){
+			mLevel = level;
+			setPoints(mPoints.getPoints(level));
+		}
+		super.draw(canvas, projection);
+	}
+}
@@ -12,6 +12,8 @@ import androidx.core.content.ContextCompat;
 import androidx.core.graphics.drawable.DrawableCompat;
 
 import org.osmdroid.util.BoundingBox;
+import org.osmdroid.util.TileSystem;
+import org.osmdroid.views.MapView;
 
 import java.io.FilterInputStream;
 import java.io.IOException;
@@ -33,6 +35,42 @@ public class BonusPackHelper {
 	/**	User agent sent to services by default */
 	public static final String DEFAULT_USER_AGENT = "OsmBonusPack/1";
 	
+	/**
+	 * @param view area, which can cross the 180th meridian
+	 * @param scale
+	 * @return the area increased by this scale, as BoundingBox.increaseByScale, except that when it would cover 
+	 * all longitudes, it is the whole longitude range instead of wrapping. It can cross the 180th meridian (west > east). 
+	 */
+	public static BoundingBox increaseByScaleWithDateLine(BoundingBox view, float scale){
+		BoundingBox area = view.increaseByScale(scale);
+		if (view.getLongitudeSpanWithDateLine() * scale >= 360.0){
+			TileSystem tileSystem = MapView.getTileSystem();
+			area = new BoundingBox(area.getLatNorth(), tileSystem.getMaxLongitude(), 
+					area.getLatSouth(), tileSystem.getMinLongitude());
+		}
+		return area;
+	}
+
+	/** @return true if the outer area contains the inner one. Both can cross the 180th meridian (west > east). */
+	public static boolean containsWithDateLine(BoundingBox outer, BoundingBox inner){
+		if (outer.getLatNorth() < inner.getLatNorth() || outer.getLatSouth() > inner.getLatSouth())
+			return false;
+		//compare longitudes unwrapped at the 180th meridian:
+		double west = outer.getLonWest(), east = outer.getLonEast();
+		if (east < west)
+			east += 360.0;
+		if (east - west >= 360.0)
+			return true;
+		double innerWest = inner.getLonWest(), innerEast = inner.getLonEast();
+		if (innerEast < innerWest)
+			innerEast += 360.0;
+		if (innerWest < west){
+			innerWest += 360.0;
+			innerEast += 360.0;
+		}
+		return innerEast <= east;
+	}
+
 	/** @return true if the device is the emulator, false if actual device. 
 	 */
 	public static boolean isEmulator(){
@@ -0,0 +1,423 @@
+package org.osmdroid.bonuspack.utils;
+
+import org.osmdroid.util.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * R-tree spatial index of items having a bounding box, in geographic coordinates. <br>
+ * Can be bulk-loaded with the Sort-Tile-Recursive (STR) algorithm, then receive incremental inserts and removes. <br>
+ * Supports bounding box queries and nearest item queries. <br>
+ * Bounding boxes crossing the 180th meridian are not handled. <br>
+ * Not thread-safe.
+ *
+ * @param <T> type of indexed items
+ */
+public class RTree<T> {
+
+	public static final int DEFAULT_MAX_ENTRIES = 16;
+
+	/** a rectangle, either of a node or of an item */
+	protected static class Bounds {
+		double mNorth, mEast, mSouth, mWest;
+
+		void set(double north, double east, double south, double west){
+			mNorth = north;
+			mEast = east;
+			mSouth = south;
+			mWest = west;
+		}
+
+		void extend(Bounds b){
+			mNorth = Math.max(mNorth, b.mNorth);
+			mEast = Math.max(mEast, b.mEast);
+			mSouth = Math.min(mSouth, b.mSouth);
+			mWest = Math.min(mWest, b.mWest);
+		}
+
+		boolean intersects(double north, double east, double south, double west){
+			return mSouth <= north && mNorth >= south && mWest <= east && mEast >= west;
+		}
+
+		boolean contains(Bounds b){
+			return mSouth <= b.mSouth && mNorth >= b.mNorth && mWest <= b.mWest && mEast >= b.mEast;
+		}
+
+		double area(){
+			return (mNorth - mSouth) * (mEast - mWest);
+		}
+
+		double enlargedArea(Bounds b){
+			return (Math.max(mNorth, b.mNorth) - Math.min(mSouth, b.mSouth))
+				* (Math.max(mEast, b.mEast) - Math.min(mWest, b.mWest));
+		}
+
+		double centerLat(){
+			return (mNorth + mSouth)/2;
+		}
+
+		double centerLon(){
+			return (mEast + mWest)/2;
+		}
+
+		/** squared distance from a point, with longitudes scaled by the cosine of the latitude */
+		double distanceSq(double lat, double lon, double lonScale){
+			double dLat = Math.max(0.0, Math.max(mSouth - lat, lat - mNorth));
+			double dLon = Math.max(0.0, Math.max(mWest - lon, lon - mEast)) * lonScale;
+			return dLat*dLat + dLon*dLon;
+		}
+	}
+
+	protected static class Entry<T> extends Bounds {
+		final T mItem;
+
+		Entry(T item, double north, double east, double south, double west){
+			mItem = item;
+			set(north, east, south, west);
+		}
+	}
+
+	protected static class Node extends Bounds {
+		final boolean mLeaf;
+		/** entries if leaf, sub-nodes otherwise */
+		final ArrayList<Bounds> mChildren;
+
+		Node(boolean leaf, int capacity){
+			mLeaf = leaf;
+			mChildren = new ArrayList<Bounds>(capacity+1);
+		}
+
+		void add(Bounds child){
+			if (mChildren.isEmpty())
+				set(child.mNorth, child.mEast, child.mSouth, child.mWest);
+			else
+				extend(child);
+			mChildren.add(child);
+		}
+
+		void updateBounds(){
+			if (mChildren.isEmpty())
+				return;
+			Bounds first = mChildren.get(0);
+			set(first.mNorth, first.mEast, first.mSouth, first.mWest);
+			for (Bounds child:mChildren)
+				extend(child);
+		}
+	}
+
+	protected final int mMaxEntries;
+	protected Node mRoot;
+	protected int mSize;
+
+	public RTree(){
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	/** @param maxEntries max number of children per node */
+	public RTree(int maxEntries){
+		mMaxEntries = Math.max(maxEntries, 4);
+		clear();
+	}
+
+	public void clear(){
+		mRoot = new Node(true, mMaxEntries);
+		mSize = 0;
+	}
+
+	/** @return the number of items */
+	public int size(){
+		return mSize;
+	}
+
+	/** @return the bounding box of all items, or null if empty */
+	public BoundingBox getBoundingBox(){
+		if (mSize == 0)
+			return null;
+		return new BoundingBox(mRoot.mNorth, mRoot.mEast, mRoot.mSouth, mRoot.mWest);
+	}
+
+	//Bulk loading ------------
+
+	/**
+	 * Replace the content of the tree by these items, packed with the STR algorithm.
+	 * This is much faster, and gives a better tree, than successive inserts.
+	 * @param items
+	 * @param boxes bounding box of each item. Items with a null bounding box are ignored.
+	 */
+	public void load(List<T> items, List<BoundingBox> boxes){
+		ArrayList<Bounds> entries = new ArrayList<Bounds>(items.size());
+		for (int i=0; i<items.size(); i++){
+			BoundingBox bb = boxes.get(i);
+			if (bb != null)
+				entries.add(new Entry<T>(items.get(i), bb.getLatNorth(), bb.getLonEast(), bb.getLatSouth(), bb.getLonWest()));
+		}
+		clear();
+		mSize = entries.size();
+		if (entries.isEmpty())
+			return;
+		List<Node> level = pack(entries, true);
+		while (level.size() > 1)
+			level = pack(new ArrayList<Bounds>(level), false);
+		mRoot = level.get(0);
+	}
+
+	/**
+	 * Replace the content of the tree by these point items, packed with the STR algorithm.
+	 * Same as load, without a BoundingBox object per item.
+	 * @param items
+	 * @param latitudes latitude of each item
+	 * @param longitudes longitude of each item
+	 */
+	public void loadPoints(List<T> items, double[] latitudes, double[] longitudes){
+		ArrayList<Bounds> entries = new ArrayList<Bounds>(items.size());
+		for (int i=0; i<items.size(); i++)
+			entries.add(new Entry<T>(items.get(i), latitudes[i], longitudes[i], latitudes[i], longitudes[i]));
+		clear();
+		mSize = entries.size();
+		if (entries.isEmpty())
+			return;
+		List<Node> level = pack(entries, true);
+		while (level.size() > 1)
+			level = pack(new ArrayList<Bounds>(level), false);
+		mRoot = level.get(0);
+	}
+
+	protected static final Comparator<Bounds> LON_COMPARATOR = new Comparator<Bounds>() {
+		@Override public int compare(Bounds a, Bounds b){
+			return Double.compare(a.centerLon(), b.centerLon());
+		}
+	};
+
+	protected static final Comparator<Bounds> LAT_COMPARATOR = new Comparator<Bounds>() {
+		@Override public int compare(Bounds a, Bounds b){
+			return Double.compare(a.centerLat(), b.centerLat());
+		}
+	};
+
+	/** pack one level of the tree: sort in vertical slices by longitude, then by latitude inside each slice */
+	protected List<Node> pack(ArrayList<Bounds> children, boolean leaves){
+		int n = children.size();
+		int nodeCount = (n + mMaxEntries - 1) / mMaxEntries;
+		int sliceCount = (int)Math.ceil(Math.sqrt(nodeCount));
+		int sliceSize = sliceCount * mMaxEntries;
+		Collections.sort(children, LON_COMPARATOR);
+		ArrayList<Node> nodes = new ArrayList<Node>(nodeCount);
+		for (int start=0; start<n; start+=sliceSize){
+			List<Bounds> slice = children.subList(start, Math.min(start+sliceSize, n));
+			Collections.sort(slice, LAT_COMPARATOR);
+			Node node = null;
+			for (Bounds child:slice){
+				if (node == null || node.mChildren.size() == mMaxEntries){
+					node = new Node(leaves, mMaxEntries);
+					nodes.add(node);
+				}
+				node.add(child);
+			}
+		}
+		return nodes;
+	}
+
+	//Incremental updates ------------
+
+	public void insert(T item, BoundingBox bb){
+		insert(item, bb.getLatNorth(), bb.getLonEast(), bb.getLatSouth(), bb.getLonWest());
+	}
+
+	public void insert(T item, double north, double east, double south, double west){
+		Entry<T> entry = new Entry<T>(item, north, east, south, west);
+		//choose the leaf needing the least enlargement, keeping the path:
+		ArrayList<Node> path = new ArrayList<Node>();
+		Node node = mRoot;
+		path.add(node);
+		while (!node.mLeaf){
+			Node best = null;
+			double bestEnlargement = Double.MAX_VALUE, bestArea = Double.MAX_VALUE;
+			for (Bounds child:node.mChildren){
+				double area = child.area();
+				double enlargement = child.enlargedArea(entry) - area;
+				if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)){
+					best = (Node)child;
+					bestEnlargement = enlargement;
+					bestArea = area;
+				}
+			}
+			node = best;
+			path.add(node);
+		}
+		node.add(entry);
+		mSize++;
+		//split overflowing nodes, and extend bounds, up to the root:
+		for (int level=path.size()-1; level>=0; level--){
+			Node current = path.get(level);
+			if (level < path.size()-1)
+				current.extend(entry);
+			if (current.mChildren.size() > mMaxEntries){
+				Node sibling = split(current);
+				if (level == 0){
+					Node newRoot = new Node(false, mMaxEntries);
+					newRoot.add(current);
+					newRoot.add(sibling);
+					mRoot = newRoot;
+				} else
+					path.get(level-1).mChildren.add(sibling);
+			}
+		}
+	}
+
+	/** split the node in 2 halves along its largest dimension. The node keeps the first half.
+	 * @return the new node with the second half */
+	protected Node split(Node node){
+		ArrayList<Bounds> children = new ArrayList<Bounds>(node.mChildren);
+		boolean byLon = (node.mEast - node.mWest) > (node.mNorth - node.mSouth);
+		Collections.sort(children, byLon ? LON_COMPARATOR : LAT_COMPARATOR);
+		int half = children.size()/2;
+		node.mChildren.clear();
+		Node sibling = new Node(node.mLeaf, mMaxEntries);
+		for (int i=0; i<children.size(); i++){
+			if (i < half)
+				node.mChildren.add(children.get(i));
+			else
+				sibling.add(children.get(i));
+		}
+		node.updateBounds();
+		return sibling;
+	}
+
+	/**
+	 * Remove an item.
+	 * @param item
+	 * @param bb its bounding box, as given when inserting it
+	 * @return true if the item has been found and removed
+	 */
+	public boolean remove(T item, BoundingBox bb){
+		Entry<T> target = new Entry<T>(item, bb.getLatNorth(), bb.getLonEast(), bb.getLatSouth(), bb.getLonWest());
+		if (remove(mRoot, target)){
+			mSize--;
+			if (!mRoot.mLeaf && mRoot.mChildren.size() == 1)
+				mRoot = (Node)mRoot.mChildren.get(0);
+			else if (mRoot.mChildren.isEmpty())
+				clear();
+			return true;
+		}
+		return false;
+	}
+
+	protected boolean remove(Node node, Entry<T> target){
+		for (int i=0; i<node.mChildren.size(); i++){
+			Bounds child = node.mChildren.get(i);
+			if (!child.contains(target))
+				continue;
+			boolean removed;
+			if (node.mLeaf){
+				Object item = ((Entry<?>)child).mItem;
+				removed = (item == null ? target.mItem == null : item.equals(target.mItem));
+				if (removed)
+					node.mChildren.remove(i);
+			} else {
+				removed = remove((Node)child, target);
+				if (removed && ((Node)child).mChildren.isEmpty())
+					node.mChildren.remove(i);
+			}
+			if (removed){
+				node.updateBounds();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	//Queries ------------
+
+	/** @return all items whose bounding box intersects this one, which can cross the 180th meridian (west > east) */
+	public ArrayList<T> search(BoundingBox bb){
+		ArrayList<T> result = new ArrayList<T>();
+		search(bb, result);
+		return result;
+	}
+
+	/** Add in result all items whose bounding box intersects this one, which can cross the 180th meridian (west > east). 
+	 * Each item is added once. */
+	public void search(BoundingBox bb, List<T> result){
+		double west = bb.getLonWest(), east = bb.getLonEast();
+		if (west <= east){
+			search(bb.getLatNorth(), east, bb.getLatSouth(), west, result);
+		} else if (mSize > 0){
+			search(mRoot, bb.getLatNorth(), 180.0, bb.getLatSouth(), west, result);
+			//items spanning both parts have already been found:
+			searchWestOf(mRoot, bb.getLatNorth(), east, bb.getLatSouth(), -180.0, west, result);
+		}
+	}
+
+	/** Add in result all items whose bounding box intersects this rectangle */
+	public void search(double north, double east, double south, double west, List<T> result){
+		if (mSize > 0)
+			search(mRoot, north, east, south, west, result);
+	}
+
+	@SuppressWarnings("unchecked")
+	protected void search(Node node, double north, double east, double south, double west, List<T> result){
+		for (Bounds child:node.mChildren){
+			if (child.intersects(north, east, south, west)){
+				if (node.mLeaf)
+					result.add(((Entry<T>)child).mItem);
+				else
+					search((Node)child, north, east, south, west, result);
+			}
+		}
+	}
+
+	/** same as search, ignoring the items whose bounding box reaches the excluded longitude */
+	@SuppressWarnings("unchecked")
+	protected void searchWestOf(Node node, double north, double east, double south, double west, double excluded, List<T> result){
+		for (Bounds child:node.mChildren){
+			if (child.intersects(north, east, south, west)){
+				if (!node.mLeaf)
+					searchWestOf((Node)child, north, east, south, west, excluded, result);
+				else if (child.mEast < excluded)
+					result.add(((Entry<T>)child).mItem);
+			}
+		}
+	}
+
+	/** @return the item whose bounding box is the nearest from this point, or null if the tree is empty */
+	public T nearest(double latitude, double longitude){
+		ArrayList<T> result = nearest(latitude, longitude, 1);
+		return (result.isEmpty() ? null : result.get(0));
+	}
+
+	/**
+	 * Best-first search of the nearest items.
+	 * Distances are approximated in the plane, with longitudes scaled by the cosine of the latitude.
+	 * @param latitude
+	 * @param longitude
+	 * @param count max number of items
+	 * @return the nearest items, the nearest first. A point inside an item bounding box is at distance 0 from this item.
+	 */
+	@SuppressWarnings("unchecked")
+	public ArrayList<T> nearest(final double latitude, final double longitude, int count){
+		ArrayList<T> result = new ArrayList<T>(count);
+		if (mSize == 0 || count <= 0)
+			return result;
+		final double lonScale = Math.cos(Math.toRadians(latitude));
+		PriorityQueue<Object[]> queue = new PriorityQueue<Object[]>(64, new Comparator<Object[]>() {
+			@Override public int compare(Object[] a, Object[] b){
+				return Double.compare((Double)a[0], (Double)b[0]);
+			}
+		});
+		queue.add(new Object[]{mRoot.distanceSq(latitude, longitude, lonScale), mRoot});
+		while (!queue.isEmpty() && result.size() < count){
+			Bounds bounds = (Bounds)queue.poll()[1];
+			if (bounds instanceof Entry){
+				result.add(((Entry<T>)bounds).mItem);
+			} else {
+				for (Bounds child:((Node)bounds).mChildren)
+					queue.add(new Object[]{child.distanceSq(latitude, longitude, lonScale), child});
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,169 @@
+package org.osmdroid.bonuspack.kml;
+
+import org.junit.Test;
+import org.osmdroid.util.GeoPoint;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Round trip of a KmlDocument through KmlBinaryWriter and KmlBinaryReader.
+ */
+public class KmlBinaryTest {
+
+	/** precision of the coordinates in the binary format */
+	protected static final double COORD_DELTA = 1E-7;
+
+	protected static KmlDocument roundTrip(KmlDocument document, boolean pack) throws IOException {
+		KmlBinaryWriter writer = new KmlBinaryWriter();
+		document.writeBinary(writer);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.writeTo(out);
+		KmlBinaryReader reader = new KmlBinaryReader(new ByteArrayInputStream(out.toByteArray()));
+		reader.setPackCoordinates(pack);
+		KmlDocument result = new KmlDocument();
+		result.readBinary(reader);
+		return result;
+	}
+
+	protected static ArrayList<GeoPoint> points(double... latLons){
+		ArrayList<GeoPoint> points = new ArrayList<GeoPoint>(latLons.length/2);
+		for (int i=0; i<latLons.length; i+=2)
+			points.add(new GeoPoint(latLons[i], latLons[i+1]));
+		return points;
+	}
+
+	protected static void assertPoints(ArrayList<GeoPoint> expected, ArrayList<GeoPoint> actual){
+		assertEquals(expected.size(), actual.size());
+		for (int i=0; i<expected.size(); i++){
+			assertEquals(expected.get(i).getLatitude(), actual.get(i).getLatitude(), COORD_DELTA);
+			assertEquals(expected.get(i).getLongitude(), actual.get(i).getLongitude(), COORD_DELTA);
+			assertEquals(expected.get(i).getAltitude(), actual.get(i).getAltitude(), 1E-3);
+		}
+	}
+
+	protected static KmlDocument buildDocument(){
+		KmlDocument document = new KmlDocument();
+		Style style = new Style();
+		style.mLineStyle = new LineStyle(0xFF00FF00, 3.5f);
+		style.mPolyStyle = new ColorStyle(0x800000FF);
+		String styleId = document.addStyle(style);
+
+		KmlPlacemark point = new KmlPlacemark(new GeoPoint(48.85661234, 2.35221234, 35.125));
+		point.mId = "paris";
+		point.mName = "Paris";
+		point.mDescription = "<b>Capital</b> \u00e9";
+		point.mStyle = styleId;
+		point.setExtendedData("population", "2161000");
+		document.mKmlRoot.add(point);
+
+		KmlFolder folder = new KmlFolder();
+		folder.mName = "Sub-folder";
+		folder.mVisibility = false;
+		KmlPlacemark line = new KmlPlacemark();
+		KmlLineString lineString = new KmlLineString();
+		lineString.setCoordinates(points(0.0, 0.0, -33.8688, 151.2093, 84.9999999, -179.9999999));
+		line.mGeometry = lineString;
+		folder.add(line);
+		document.mKmlRoot.add(folder);
+
+		KmlPlacemark area = new KmlPlacemark();
+		KmlPolygon polygon = new KmlPolygon();
+		polygon.setCoordinates(points(0, 0, 0, 10, 10, 10, 0, 0));
+		ArrayList<ArrayList<GeoPoint>> holes = new ArrayList<ArrayList<GeoPoint>>();
+		holes.add(points(1, 1, 1, 2, 2, 2, 1, 1));
+		polygon.setHoles(holes);
+		area.mGeometry = polygon;
+		area.mStyle = styleId;
+		document.mKmlRoot.add(area);
+
+		KmlPlacemark track = new KmlPlacemark();
+		KmlTrack kmlTrack = new KmlTrack();
+		kmlTrack.add(new GeoPoint(45.0, 5.0), 1577836800000L);
+		kmlTrack.add(new GeoPoint(45.001, 5.002), KmlDateTime.UNDEFINED);
+		kmlTrack.add(new GeoPoint(45.002, 5.004), 1577836805500L);
+		track.mGeometry = kmlTrack;
+		document.mKmlRoot.add(track);
+		return document;
+	}
+
+	@Test public void testRoundTrip() throws IOException {
+		KmlDocument document = buildDocument();
+		KmlDocument result = roundTrip(document, false);
+
+		assertEquals(4, result.mKmlRoot.mItems.size());
+		Style style = result.getStyle(((KmlPlacemark)result.mKmlRoot.mItems.get(0)).mStyle);
+		assertEquals(0xFF00FF00, style.mLineStyle.mColor);
+		assertEquals(3.5f, style.mLineStyle.mWidth, 0.0f);
+		assertEquals(0x800000FF, style.mPolyStyle.mColor);
+		assertNull(style.mIconStyle);
+
+		KmlPlacemark point = (KmlPlacemark)result.mKmlRoot.mItems.get(0);
+		assertEquals("paris", point.mId);
+		assertEquals("Paris", point.mName);
+		assertEquals("<b>Capital</b> \u00e9", point.mDescription);
+		assertEquals("2161000", point.getExtendedData("population"));
+		assertPoints(((KmlPlacemark)document.mKmlRoot.mItems.get(0)).mGeometry.mCoordinates, point.mGeometry.mCoordinates);
+
+		KmlFolder folder = (KmlFolder)result.mKmlRoot.mItems.get(1);
+		assertEquals("Sub-folder", folder.mName);
+		assertFalse(folder.mVisibility);
+		KmlFolder sourceFolder = (KmlFolder)document.mKmlRoot.mItems.get(1);
+		assertPoints(((KmlPlacemark)sourceFolder.mItems.get(0)).mGeometry.mCoordinates,
+				((KmlPlacemark)folder.mItems.get(0)).mGeometry.mCoordinates);
+
+		KmlPolygon polygon = (KmlPolygon)((KmlPlacemark)result.mKmlRoot.mItems.get(2)).mGeometry;
+		KmlPolygon sourcePolygon = (KmlPolygon)((KmlPlacemark)document.mKmlRoot.mItems.get(2)).mGeometry;
+		assertPoints(sourcePolygon.mCoordinates, polygon.mCoordinates);
+		assertEquals(1, polygon.mHoles.size());
+		assertPoints(sourcePolygon.mHoles.get(0), polygon.mHoles.get(0));
+
+		KmlTrack track = (KmlTrack)((KmlPlacemark)result.mKmlRoot.mItems.get(3)).mGeometry;
+		assertEquals(3, track.mWhen.size());
+		assertEquals(1577836800000L, track.getTime(0));
+		assertEquals(KmlDateTime.UNDEFINED, track.getTime(1));
+		assertNull(track.mWhen.get(1));
+		assertEquals(1577836805500L, track.getTime(2));
+		assertPoints(((KmlPlacemark)document.mKmlRoot.mItems.get(3)).mGeometry.toGeoPoints(), track.mCoordinates);
+	}
+
+	@Test public void testPackedRoundTrip() throws IOException {
+		KmlDocument document = buildDocument();
+		KmlDocument result = roundTrip(document, true);
+		KmlPolygon polygon = (KmlPolygon)((KmlPlacemark)result.mKmlRoot.mItems.get(2)).mGeometry;
+		assertNull(polygon.mCoordinates);
+		assertNull(polygon.mHoles);
+		assertEquals(4, polygon.getCoordinatesCount());
+		assertPoints(((KmlPlacemark)document.mKmlRoot.mItems.get(2)).mGeometry.mCoordinates, polygon.getCoordinates());
+		KmlTrack track = (KmlTrack)((KmlPlacemark)result.mKmlRoot.mItems.get(3)).mGeometry;
+		assertNull(track.mWhen);
+		assertEquals(3, track.getTimes().length);
+		assertEquals(1577836805500L, track.getTimes()[2]);
+	}
+
+	@Test(expected = IOException.class)
+	public void testInvalidContent() throws IOException {
+		new KmlBinaryReader(new ByteArrayInputStream("not a binary KML".getBytes("UTF-8")));
+	}
+
+	@Test public void testRewriteIsIdentical() throws IOException {
+		KmlDocument result = roundTrip(buildDocument(), false);
+		KmlDocument again = roundTrip(result, false);
+		KmlBinaryWriter writer1 = new KmlBinaryWriter();
+		result.writeBinary(writer1);
+		ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+		writer1.writeTo(out1);
+		KmlBinaryWriter writer2 = new KmlBinaryWriter();
+		again.writeBinary(writer2);
+		ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+		writer2.writeTo(out2);
+		assertArrayEquals(out1.toByteArray(), out2.toByteArray());
+	}
+}
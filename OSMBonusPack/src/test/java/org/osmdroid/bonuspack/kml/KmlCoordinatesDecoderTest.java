@@ -0,0 +1,99 @@
+package org.osmdroid.bonuspack.kml;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * KmlCoordinatesDecoder against Double.parseDouble, around the limits of its fast path.
+ */
+public class KmlCoordinatesDecoderTest {
+
+	/** decode the content in one chunk */
+	protected static PackedCoordinates decode(String content){
+		KmlCoordinatesDecoder decoder = new KmlCoordinatesDecoder(new PackedCoordinates());
+		char[] chars = content.toCharArray();
+		decoder.decode(chars, 0, chars.length);
+		return decoder.finish();
+	}
+
+	/** decode the tuple "value,value", and compare both values to Double.parseDouble */
+	protected static void assertDecoded(String value, int maxUlps){
+		PackedCoordinates coords = decode(value + "," + value);
+		assertEquals(value, 1, coords.size());
+		double expected = Double.parseDouble(value);
+		double delta = maxUlps * Math.ulp(expected);
+		assertEquals(value, expected, coords.getLongitude(0), delta);
+		assertEquals(value, expected, coords.getLatitude(0), delta);
+	}
+
+	@Test public void testTuples(){
+		PackedCoordinates coords = decode(" 2.3522,48.8566,35\n\t-0.5,-1e-3 13.4050,52.5200 ");
+		assertEquals(3, coords.size());
+		assertEquals(48.8566, coords.getLatitude(0), 0.0);
+		assertEquals(2.3522, coords.getLongitude(0), 0.0);
+		assertEquals(35.0, coords.getAltitude(0), 0.0);
+		assertEquals(-0.001, coords.getLatitude(1), 0.0);
+		assertEquals(-0.5, coords.getLongitude(1), 0.0);
+		assertEquals(0.0, coords.getAltitude(2), 0.0);
+	}
+
+	@Test public void testTupleSplitInChunks(){
+		KmlCoordinatesDecoder decoder = new KmlCoordinatesDecoder(new PackedCoordinates());
+		char[] chars = "1.25,4.5 -7.125,-0.0625".toCharArray();
+		decoder.decode(chars, 0, 6);
+		decoder.decode(chars, 6, 7);
+		decoder.decode(chars, 13, chars.length - 13);
+		PackedCoordinates coords = decoder.finish();
+		assertEquals(2, coords.size());
+		assertEquals(4.5, coords.getLatitude(0), 0.0);
+		assertEquals(-7.125, coords.getLongitude(1), 0.0);
+		assertEquals(-0.0625, coords.getLatitude(1), 0.0);
+	}
+
+	@Test public void testUpTo15DigitsIsExact(){
+		assertDecoded("123456789012345", 0);
+		assertDecoded("1.23456789012345", 0);
+		assertDecoded("-179.999999999999", 0);
+		assertDecoded("0.000000000000001", 0);
+		assertDecoded("-0.1", 0);
+	}
+
+	@Test public void testDigitsBoundary(){
+		//18 significant digits: fast path, may differ on the last bit
+		assertDecoded("123456789012345678", 1);
+		assertDecoded("1.23456789012345678", 1);
+		assertDecoded("-89.1234567890123456", 1);
+		//19 significant digits: Double.parseDouble
+		assertDecoded("1234567890123456789", 0);
+		assertDecoded("1.234567890123456789", 0);
+		assertDecoded("-89.12345678901234567", 0);
+		//leading and trailing zeros are not significant digits
+		assertDecoded("0.000123456789012345678", 1);
+	}
+
+	@Test public void testExponentBoundary(){
+		assertDecoded("1e22", 0);
+		assertDecoded("1e23", 0);
+		assertDecoded("-3E22", 0);
+		assertDecoded("3E+23", 0);
+		assertDecoded("1e-22", 0);
+		assertDecoded("1e-23", 0);
+		assertDecoded("-2.5e-22", 0);
+		assertDecoded("12.5e21", 0);
+		assertDecoded("0.0000000000000000000001", 0);
+		assertDecoded("0.00000000000000000000001", 0);
+	}
+
+	@Test public void testMalformedTuplesAreSkipped(){
+		PackedCoordinates coords = decode("1,2,3,4 5 a,b 1,,2 1.5.2,3 -,4 1e,2 7,8");
+		assertEquals(1, coords.size());
+		assertEquals(8.0, coords.getLatitude(0), 0.0);
+		assertEquals(7.0, coords.getLongitude(0), 0.0);
+	}
+
+	@Test public void testSpecialValuesFallBackToParseDouble(){
+		assertDecoded("+1.5", 0);
+		assertDecoded("0x1p3", 0);
+	}
+}
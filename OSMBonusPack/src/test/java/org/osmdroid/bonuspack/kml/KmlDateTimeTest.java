@@ -0,0 +1,97 @@
+package org.osmdroid.bonuspack.kml;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * KmlDateTime parsing and formatting, against GregorianCalendar.
+ */
+public class KmlDateTimeTest {
+
+	protected TimeZone mDefaultTimeZone;
+
+	@Before public void setUp(){
+		mDefaultTimeZone = TimeZone.getDefault();
+		//local times depend on the default time zone: use one with daylight saving time
+		TimeZone.setDefault(TimeZone.getTimeZone("Europe/Paris"));
+	}
+
+	@After public void tearDown(){
+		TimeZone.setDefault(mDefaultTimeZone);
+	}
+
+	protected static long time(TimeZone timeZone, int year, int month, int day, int hour, int minute, int second, int millis){
+		GregorianCalendar calendar = new GregorianCalendar(timeZone);
+		calendar.clear();
+		calendar.set(year, month - 1, day, hour, minute, second);
+		calendar.set(Calendar.MILLISECOND, millis);
+		return calendar.getTimeInMillis();
+	}
+
+	protected static long utc(int year, int month, int day, int hour, int minute, int second, int millis){
+		return time(TimeZone.getTimeZone("UTC"), year, month, day, hour, minute, second, millis);
+	}
+
+	protected static long local(int year, int month, int day, int hour, int minute, int second){
+		return time(TimeZone.getDefault(), year, month, day, hour, minute, second, 0);
+	}
+
+	@Test public void testUtc(){
+		assertEquals(utc(2020, 1, 2, 3, 4, 5, 0), KmlDateTime.parse("2020-01-02T03:04:05Z"));
+		assertEquals(utc(1970, 1, 1, 0, 0, 0, 0), KmlDateTime.parse("1970-01-01T00:00:00Z"));
+		assertEquals(utc(1969, 12, 31, 23, 59, 59, 0), KmlDateTime.parse("1969-12-31T23:59:59Z"));
+		assertEquals(utc(2000, 2, 29, 12, 0, 0, 0), KmlDateTime.parse(" 2000-02-29T12:00:00Z\n"));
+	}
+
+	@Test public void testFractionOfSecond(){
+		assertEquals(utc(2020, 6, 30, 10, 20, 30, 500), KmlDateTime.parse("2020-06-30T10:20:30.5Z"));
+		assertEquals(utc(2020, 6, 30, 10, 20, 30, 123), KmlDateTime.parse("2020-06-30T10:20:30.123Z"));
+		assertEquals(utc(2020, 6, 30, 10, 20, 30, 123), KmlDateTime.parse("2020-06-30T10:20:30.123456Z"));
+	}
+
+	@Test public void testTimeZoneOffsets(){
+		long expected = utc(2020, 1, 2, 1, 4, 5, 0);
+		assertEquals(expected, KmlDateTime.parse("2020-01-02T03:04:05+02:00"));
+		assertEquals(expected, KmlDateTime.parse("2020-01-02T03:04:05+0200"));
+		assertEquals(expected, KmlDateTime.parse("2020-01-02T03:04:05+02"));
+		assertEquals(utc(2020, 1, 2, 8, 34, 5, 0), KmlDateTime.parse("2020-01-02T03:04:05-05:30"));
+	}
+
+	@Test public void testLocalTimes(){
+		assertEquals(local(2020, 1, 2, 3, 4, 5), KmlDateTime.parse("2020-01-02T03:04:05"));
+		//daylight saving time:
+		assertEquals(local(2020, 7, 14, 22, 0, 0), KmlDateTime.parse("2020-07-14T22:00:00"));
+		assertEquals(local(2020, 7, 14, 0, 0, 0), KmlDateTime.parse("2020-07-14"));
+		assertEquals(local(2020, 7, 1, 0, 0, 0), KmlDateTime.parse("2020-07"));
+		assertEquals(local(2020, 1, 1, 0, 0, 0), KmlDateTime.parse("2020"));
+	}
+
+	@Test public void testDatesWithTimeZone(){
+		assertEquals(utc(2020, 7, 14, 0, 0, 0, 0), KmlDateTime.parse("2020-07-14Z"));
+		assertEquals(utc(2020, 7, 13, 22, 0, 0, 0), KmlDateTime.parse("2020-07-14+02:00"));
+	}
+
+	@Test public void testInvalidValues(){
+		String[] invalid = {"", "  ", "abc", "20", "2020-1-02", "2020-13-01", "2019-02-29", "2020-04-31",
+				"2020-01-02T25:00:00Z", "2020-01-02T03:60:00Z", "2020-01-02T03:04Z", "2020-01-02T03:04:05.Z",
+				"2020-01-02T03:04:05X", "2020-01-02T03:04:05+15:00", "2020-01-02 03:04:05"};
+		for (String s:invalid)
+			assertEquals(s, KmlDateTime.UNDEFINED, KmlDateTime.parse(s));
+	}
+
+	@Test public void testFormat(){
+		assertEquals("2020-01-02T03:04:05Z", KmlDateTime.format(utc(2020, 1, 2, 3, 4, 5, 0)));
+		assertEquals("2020-06-30T10:20:30.005Z", KmlDateTime.format(utc(2020, 6, 30, 10, 20, 30, 5)));
+		assertEquals("1969-12-31T23:59:59Z", KmlDateTime.format(utc(1969, 12, 31, 23, 59, 59, 0)));
+		long[] times = {0L, -1L, 951825600000L, 4102444800123L, -2208988800000L};
+		for (long time:times)
+			assertEquals(time, KmlDateTime.parse(KmlDateTime.format(time)));
+	}
+}
@@ -375,7 +375,7 @@ public class MainActivity extends Activity implements MapEventsReceiver, MapView
 		public void onLineString(Polyline polyline, KmlPlacemark kmlPlacemark, KmlLineString kmlLineString) {
 			//Custom styling:
 			polyline.setColor(Color.GREEN);
-			polyline.setWidth(Math.max(kmlLineString.mCoordinates.size() / 200.0f, 3.0f));
+			polyline.setWidth(Math.max(kmlLineString.getCoordinatesCount() / 200.0f, 3.0f));
 		}
 
 		@Override
@@ -102,6 +102,8 @@ public class KmlStyleActivity extends Activity {
 		} catch (IllegalArgumentException e) {
 			Toast.makeText(this, "Invalid fill color", Toast.LENGTH_SHORT).show();
 		}
+		//styles have been modified directly: release the Paints and icons built with the old values
+		MapActivity.mKmlDocument.invalidateStyleCache();
 	}
 	
 }
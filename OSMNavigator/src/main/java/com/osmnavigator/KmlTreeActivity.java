@@ -145,6 +145,7 @@ public class KmlTreeActivity extends Activity {
 	    switch (item.getItemId()) {
 	        case R.id.kml_item_menu_cut: //=move to the emptied clipboard
 	        	mKmlClipboard.mItems.clear();
+	        	mKmlClipboard.invalidateBoundingBox();
 	        	mKmlClipboard.add(currentKmlFolder.mItems.get(info.position));
 	        	currentKmlFolder.removeItem(info.position);
 				mListAdapter.notifyDataSetChanged();
@@ -152,19 +153,20 @@ public class KmlTreeActivity extends Activity {
 	        case R.id.kml_item_menu_copy:
 	        	KmlFeature copy = currentKmlFolder.mItems.get(info.position).clone();
 	        	mKmlClipboard.mItems.clear();
-	        	mKmlClipboard.mItems.add(copy);
+	        	mKmlClipboard.invalidateBoundingBox();
+	        	mKmlClipboard.add(copy);
 	            return true;
 	        case R.id.kml_item_menu_behind:
 	        	if (info.position > 0){
 	        		KmlFeature kmlItem = currentKmlFolder.removeItem(info.position);
-	        		currentKmlFolder.mItems.add(info.position-1, kmlItem);
+	        		currentKmlFolder.add(info.position-1, kmlItem);
 	        		mListAdapter.notifyDataSetChanged();
 	        	}
 	        	return true;
 	        case R.id.kml_item_menu_front:
 	        	if (info.position < currentKmlFolder.mItems.size()-1){
 	        		KmlFeature kmlItem = currentKmlFolder.removeItem(info.position);
-	        		currentKmlFolder.mItems.add(info.position+1, kmlItem);
+	        		currentKmlFolder.add(info.position+1, kmlItem);
 					mListAdapter.notifyDataSetChanged();
 	        	}
 	        	return true;